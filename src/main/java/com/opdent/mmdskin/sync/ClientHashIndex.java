@@ -0,0 +1,159 @@
+package com.opdent.mmdskin.sync;
+
+import com.tendoarisu.mmdskin.sync.HashAlgorithm;
+import com.tendoarisu.mmdskin.sync.HashCache;
+import com.tendoarisu.mmdskin.sync.HashJournal;
+import com.tendoarisu.mmdskin.sync.Hex;
+import net.neoforged.fml.loading.FMLPaths;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 客户端本地文件的哈希索引，与服务端的哈希缓存相同：按算法分别保存在 HashCache 中，持久化到只追加的 HashJournal
+ * 同步时只有大小或修改时间变化的文件才重新读取计算，下载解压时边写边算的哈希直接写入索引
+ */
+public class ClientHashIndex {
+    private static final Map<HashAlgorithm, HashCache> CACHES = new EnumMap<>(HashAlgorithm.class);
+    private static final HashJournal JOURNAL = new HashJournal(FMLPaths.CONFIGDIR.get().resolve("mmdsync_client_cache.bin"));
+    private static boolean loaded = false;
+
+    static {
+        for (HashAlgorithm algo : HashAlgorithm.values()) {
+            CACHES.put(algo, new HashCache(algo.digestLength()));
+        }
+    }
+
+    /**
+     * 返回文件的十六进制哈希，索引中的大小与修改时间一致时不读取文件；读取失败返回空字符串
+     */
+    public static String hash(Path file, HashAlgorithm algo) {
+        ensureLoaded();
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            long size = attrs.size();
+            long lastModified = attrs.lastModifiedTime().toMillis();
+            byte[] cached = CACHES.get(algo).get(file, size, lastModified);
+            if (cached != null) {
+                return Hex.encode(cached);
+            }
+            String hash = algo.hashFile(file);
+            put(file, algo, size, lastModified, Hex.decode(hash));
+            return hash;
+        } catch (IOException e) {
+            return "";
+        }
+    }
+
+    /**
+     * 记录刚写入的文件的哈希（写入时已计算），之后的同步不必再读取该文件
+     */
+    public static void record(Path file, HashAlgorithm algo, byte[] digest) {
+        ensureLoaded();
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            put(file, algo, attrs.size(), attrs.lastModifiedTime().toMillis(), digest);
+        } catch (IOException e) {
+            MMDSyncMod.LOGGER.debug("记录文件哈希失败: {}", file, e);
+        }
+    }
+
+    /**
+     * 文件已被删除
+     */
+    public static void forget(Path file) {
+        ensureLoaded();
+        for (Map.Entry<HashAlgorithm, HashCache> cache : CACHES.entrySet()) {
+            if (cache.getValue().remove(file)) {
+                try {
+                    JOURNAL.remove(file, cache.getKey());
+                } catch (IOException e) {
+                    MMDSyncMod.LOGGER.warn("写入客户端哈希日志失败", e);
+                }
+            }
+        }
+        compactIfNeeded();
+    }
+
+    private static void put(Path file, HashAlgorithm algo, long size, long lastModified, byte[] digest) {
+        CACHES.get(algo).put(file, size, lastModified, digest);
+        try {
+            JOURNAL.put(file, algo, size, lastModified, digest);
+        } catch (IOException e) {
+            MMDSyncMod.LOGGER.warn("写入客户端哈希日志失败", e);
+        }
+        compactIfNeeded();
+    }
+
+    // 同步在后台线程串行进行，压缩直接在当前线程完成
+    private static synchronized void compactIfNeeded() {
+        if (JOURNAL.needsCompaction(size())) {
+            compact();
+        }
+    }
+
+    private static synchronized void ensureLoaded() {
+        if (loaded) return;
+        loaded = true;
+        long start = System.currentTimeMillis();
+        try {
+            JOURNAL.open(new HashJournal.Visitor() {
+                @Override
+                public void put(Path path, HashAlgorithm algo, long size, long lastModified, byte[] digest) {
+                    CACHES.get(algo).put(path, size, lastModified, digest);
+                }
+
+                @Override
+                public void remove(Path path, HashAlgorithm algo) {
+                    CACHES.get(algo).remove(path);
+                }
+            });
+        } catch (IOException e) {
+            MMDSyncMod.LOGGER.error("打开客户端哈希日志失败，本次运行不保存哈希缓存", e);
+            return;
+        }
+
+        // 游戏外删除的文件不会经过 forget，加载时清理一次
+        long removed = 0;
+        for (HashCache cache : CACHES.values()) {
+            removed += cache.removeIf(path -> !Files.exists(path)).size();
+        }
+        if (removed > 0 || JOURNAL.needsCompaction(size())) {
+            compact();
+        }
+        MMDSyncMod.LOGGER.info("已加载 {} 条本地哈希记录，耗时 {} ms", size(), System.currentTimeMillis() - start);
+    }
+
+    // 在日志锁内调用，见 HashJournal.compact
+    private static List<HashJournal.Entry> entries() {
+        List<HashJournal.Entry> entries = new ArrayList<>();
+        for (Map.Entry<HashAlgorithm, HashCache> cache : CACHES.entrySet()) {
+            HashAlgorithm algo = cache.getKey();
+            cache.getValue().forEach((path, size, lastModified, digest) ->
+                    entries.add(new HashJournal.Entry(path, algo, size, lastModified, digest)));
+        }
+        return entries;
+    }
+
+    private static long size() {
+        long size = 0;
+        for (HashCache cache : CACHES.values()) {
+            size += cache.size();
+        }
+        return size;
+    }
+
+    private static void compact() {
+        try {
+            JOURNAL.compact(ClientHashIndex::entries);
+        } catch (IOException e) {
+            MMDSyncMod.LOGGER.warn("压缩客户端哈希日志失败", e);
+        }
+    }
+}
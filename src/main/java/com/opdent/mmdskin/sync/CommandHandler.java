@@ -59,10 +59,10 @@ public class CommandHandler {
 
                         // 2. 重新广播所有在线玩家的模型选择，触发客户端下载
                         // 动态获取附件类型和包类，避免编译时强依赖
-                        Object attachmentType = Class.forName("com.shiroha.mmdskin.neoforge.register.MmdSkinAttachments")
-                                .getField("PLAYER_MMD_MODEL").get(null);
-                        java.util.function.Supplier<?> supplier = (java.util.function.Supplier<?>) attachmentType;
-                        net.neoforged.neoforge.attachment.AttachmentType<String> type = (net.neoforged.neoforge.attachment.AttachmentType<String>) supplier.get();
+                        net.neoforged.neoforge.attachment.AttachmentType<String> type = PlayerModels.attachmentType();
+                        if (type == null) {
+                            throw new IllegalStateException("未找到 MMDSkin 的模型附件");
+                        }
 
                         Class<?> packetClass = Class.forName("com.shiroha.mmdskin.neoforge.network.MmdSkinNetworkPack");
                         java.lang.reflect.Method withAnimId = packetClass.getMethod("withAnimId", int.class, UUID.class, String.class);
@@ -0,0 +1,382 @@
+package com.opdent.mmdskin.sync;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.tendoarisu.mmdskin.sync.Config;
+import com.tendoarisu.mmdskin.sync.HashAlgorithm;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 客户端完整下载流水线
+ * 下载、解压、校验三个阶段运行在各自的线程上，之间以有界队列连接：
+ * - 下载: 同时保持 downloadParallelism 个连接，每个连接通过一次批量请求下载一组文件夹，每帧写入临时文件
+ * - 解压: 网络读取不必等待磁盘上大量小文件的创建
+ * - 校验: 解压后重新计算文件夹哈希并与清单比对
+ * 下游处理不过来时上游在队列上阻塞，同时存在的临时文件数量与内存占用都有上限
+ * 后台同步与按需下载可能同时运行，同一文件夹同一时间只由一方下载
+ */
+class DownloadPipeline {
+    private static final String BATCH_CONTENT_TYPE = "application/x-mmdsync-batch";
+    // 队列结束标记
+    private static final Archive END = new Archive(null, null);
+    private static final Staged END_STAGED = new Staged(null, null, null);
+    // 每个批量请求最多包含的文件夹数，请求发出后其中的文件夹才被占用，按需下载最多等待一个批次
+    private static final int BATCH_SIZE = 16;
+    // 正在下载或解压的文件夹（区域/名称）
+    private static final Set<String> IN_FLIGHT = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 已下载完整、等待解压的资源包
+     */
+    private record Archive(SyncManager.PendingFolder folder, Path file) {}
+
+    /**
+     * 已解压到暂存目录、等待校验的文件夹，hashes 为解压时计算的各文件哈希
+     */
+    private record Staged(SyncManager.PendingFolder folder, Path dir, Map<Path, String> hashes) {}
+
+    /**
+     * 下载并安装所有文件夹，失败的文件夹名加入 failed；正由其他同步下载的文件夹跳过
+     * @return 成功且通过校验的文件夹数
+     */
+    static int run(String baseUrl, List<SyncManager.PendingFolder> pending, HashAlgorithm algo, List<String> failed) throws InterruptedException {
+        if (pending.isEmpty()) return 0;
+
+        int parallelism = Math.max(1, Math.min(Config.DOWNLOAD_PARALLELISM, pending.size()));
+        // 按顺序轮流分组，相邻的文件夹（通常大小相近）分散到不同连接
+        List<List<SyncManager.PendingFolder>> groups = new ArrayList<>();
+        for (int i = 0; i < parallelism; i++) {
+            groups.add(new ArrayList<>());
+        }
+        for (int i = 0; i < pending.size(); i++) {
+            groups.get(i % parallelism).add(pending.get(i));
+        }
+
+        BlockingQueue<Archive> extractQueue = new ArrayBlockingQueue<>(parallelism);
+        BlockingQueue<Staged> verifyQueue = new ArrayBlockingQueue<>(parallelism);
+        Queue<String> failures = new ConcurrentLinkedQueue<>();
+        AtomicInteger completed = new AtomicInteger();
+
+        AtomicInteger counter = new AtomicInteger();
+        ExecutorService threads = Executors.newFixedThreadPool(parallelism + 2, r -> {
+            Thread t = new Thread(r, "MMDSync-Download-" + counter.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<?>> downloads = new ArrayList<>();
+            for (List<SyncManager.PendingFolder> group : groups) {
+                downloads.add(threads.submit(() -> {
+                    download(baseUrl, group, extractQueue, failures);
+                    return null;
+                }));
+            }
+            Future<?> extractor = threads.submit(() -> {
+                extractLoop(extractQueue, verifyQueue, algo, failures);
+                return null;
+            });
+            Future<?> verifier = threads.submit(() -> {
+                verifyLoop(verifyQueue, algo, completed, failures);
+                return null;
+            });
+
+            for (Future<?> download : downloads) {
+                await(download);
+            }
+            extractQueue.put(END);
+            await(extractor);
+            await(verifier);
+        } finally {
+            threads.shutdownNow();
+        }
+
+        failed.addAll(failures);
+        return completed.get();
+    }
+
+    private static void await(Future<?> future) throws InterruptedException {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            // 各阶段内部已按文件夹处理异常，这里只可能是程序错误
+            MMDSyncMod.LOGGER.error("下载流水线异常", e.getCause());
+        }
+    }
+
+    /**
+     * 下载阶段：按 BATCH_SIZE 分批占用并下载一组文件夹
+     */
+    private static void download(String baseUrl, List<SyncManager.PendingFolder> group, BlockingQueue<Archive> out, Queue<String> failed) throws InterruptedException {
+        for (int start = 0; start < group.size(); start += BATCH_SIZE) {
+            List<SyncManager.PendingFolder> batch = new ArrayList<>();
+            for (SyncManager.PendingFolder folder : group.subList(start, Math.min(start + BATCH_SIZE, group.size()))) {
+                if (IN_FLIGHT.add(key(folder))) {
+                    batch.add(folder);
+                }
+            }
+            downloadClaimed(baseUrl, batch, out, failed);
+        }
+    }
+
+    /**
+     * 有多个文件夹时先批量下载，批量请求不可用（旧服务器）、中断或个别文件夹打包失败时，
+     * 剩余的逐个下载（支持断点续传）；下载失败的文件夹在此释放，成功的在解压后释放
+     */
+    private static void downloadClaimed(String baseUrl, List<SyncManager.PendingFolder> group, BlockingQueue<Archive> out, Queue<String> failed) throws InterruptedException {
+        Set<SyncManager.PendingFolder> done = new HashSet<>();
+        if (group.size() > 1) {
+            try {
+                downloadBatch(baseUrl, group, done, out);
+            } catch (IOException | RuntimeException e) {
+                MMDSyncMod.LOGGER.warn("批量下载中断，剩余的 {} 个文件夹将逐个下载", group.size() - done.size(), e);
+            }
+        }
+
+        for (SyncManager.PendingFolder folder : group) {
+            if (done.contains(folder)) continue;
+            // 对文件夹名进行编码
+            String encodedName = URLEncoder.encode(folder.name(), StandardCharsets.UTF_8).replace("+", "%20");
+            String downloadUrl = baseUrl + "/download/" + folder.zone() + "/" + encodedName;
+            try {
+                // 先下载到本地临时文件，连接中断后下次同步可以从断点继续
+                Path partFile = partFile(folder);
+                if (SyncManager.downloadArchive(downloadUrl, partFile, folder.hash())) {
+                    out.put(new Archive(folder, partFile));
+                } else {
+                    IN_FLIGHT.remove(key(folder));
+                    failed.add(folder.name());
+                }
+            } catch (IOException | RuntimeException e) {
+                // 例如服务器返回了无法解析的 Content-Length，只影响这一个文件夹
+                IN_FLIGHT.remove(key(folder));
+                failed.add(folder.name());
+                MMDSyncMod.LOGGER.error("同步资源包异常: " + downloadUrl, e);
+            }
+        }
+    }
+
+    /**
+     * 请求格式与帧格式见服务端的 BatchHandler，每帧写入临时文件后交给解压阶段
+     */
+    private static void downloadBatch(String baseUrl, List<SyncManager.PendingFolder> group, Set<SyncManager.PendingFolder> done,
+                                      BlockingQueue<Archive> out) throws IOException, InterruptedException {
+        JsonArray folders = new JsonArray();
+        Map<String, SyncManager.PendingFolder> byKey = new HashMap<>();
+        for (SyncManager.PendingFolder folder : group) {
+            JsonObject obj = new JsonObject();
+            obj.addProperty("zone", folder.zone());
+            obj.addProperty("name", folder.name());
+            folders.add(obj);
+            byKey.put(key(folder), folder);
+        }
+        JsonObject body = new JsonObject();
+        body.add("folders", folders);
+
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/api/batch"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString(), StandardCharsets.UTF_8))
+                .build();
+        HttpResponse<InputStream> response = SyncManager.CLIENT.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        if (response.statusCode() != 200
+                || !BATCH_CONTENT_TYPE.equals(response.headers().firstValue("Content-Type").orElse(""))) {
+            // 旧服务器没有批量接口
+            response.body().close();
+            return;
+        }
+
+        try (InputStream in = response.body()) {
+            readBatch(in, (zone, name, frame) -> {
+                SyncManager.PendingFolder folder = byKey.get(zone + "/" + name);
+                if (folder == null) return;
+                // 批量响应的数据不一定与单独下载的成品逐字节相同，中断时不保留用于续传
+                Path partFile = partFile(folder);
+                try (OutputStream fileOut = Files.newOutputStream(partFile)) {
+                    frame.transferTo(fileOut);
+                } catch (IOException e) {
+                    Files.deleteIfExists(partFile);
+                    throw e;
+                }
+                out.put(new Archive(folder, partFile));
+                done.add(folder);
+            });
+        }
+        MMDSyncMod.LOGGER.info("批量下载完成: {}/{} 个文件夹", done.size(), group.size());
+    }
+
+    /**
+     * 批量响应中的一帧；处理方未读完的数据在返回后被跳过
+     */
+    interface FrameHandler {
+        void frame(String zone, String name, InputStream data) throws IOException, InterruptedException;
+    }
+
+    /**
+     * 逐帧读取批量响应，直到结束标记（空区域名）；服务端打包失败的帧（长度为 -1）不交给处理方
+     */
+    static void readBatch(InputStream body, FrameHandler handler) throws IOException, InterruptedException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(body, 65536));
+        while (true) {
+            String zone = in.readUTF();
+            if (zone.isEmpty()) return;
+            String name = in.readUTF();
+            long size = in.readLong();
+            if (size < 0) continue;
+
+            try (InputStream frame = new FrameInputStream(in, size)) {
+                handler.frame(zone, name, frame);
+            }
+        }
+    }
+
+    /**
+     * 解压阶段
+     */
+    private static void extractLoop(BlockingQueue<Archive> in, BlockingQueue<Staged> out, HashAlgorithm algo,
+                                    Queue<String> failed) throws InterruptedException {
+        while (true) {
+            Archive archive = in.take();
+            if (archive == END) {
+                out.put(END_STAGED);
+                return;
+            }
+            Path dir = null;
+            try {
+                dir = SyncManager.newStagingDir(archive.folder().zone());
+                Map<Path, String> hashes;
+                try (InputStream stream = Files.newInputStream(archive.file())) {
+                    hashes = SyncManager.extractZip(stream, dir, algo);
+                } finally {
+                    // 完整下载后无论解压成功与否都不再续传，损坏的包下次重新下载
+                    try {
+                        Files.deleteIfExists(archive.file());
+                    } finally {
+                        IN_FLIGHT.remove(key(archive.folder()));
+                    }
+                }
+                out.put(new Staged(archive.folder(), dir, hashes));
+            } catch (IOException | RuntimeException e) {
+                if (dir != null) SyncManager.deleteRecursively(dir);
+                failed.add(archive.folder().name());
+                MMDSyncMod.LOGGER.error("解压资源包失败: {}", archive.folder().name(), e);
+            }
+        }
+    }
+
+    /**
+     * 校验与安装阶段：文件夹哈希必须与清单一致才替换本地版本
+     */
+    private static void verifyLoop(BlockingQueue<Staged> in, HashAlgorithm algo, AtomicInteger completed, Queue<String> failed) throws InterruptedException {
+        while (true) {
+            Staged staged = in.take();
+            if (staged == END_STAGED) return;
+            SyncManager.PendingFolder folder = staged.folder();
+            try {
+                if (!folder.hash().equalsIgnoreCase(algo.combine(staged.hashes().values()))) {
+                    failed.add(folder.name());
+                    MMDSyncMod.LOGGER.warn("文件夹校验失败，保留本地版本，将在下次同步时重试: {}", folder.name());
+                    continue;
+                }
+                SyncManager.installFolder(staged.dir(), folder.folderPath(), staged.hashes(), algo);
+                completed.incrementAndGet();
+            } catch (IOException | RuntimeException e) {
+                failed.add(folder.name());
+                MMDSyncMod.LOGGER.error("安装文件夹失败，保留本地版本: {}", folder.name(), e);
+            } finally {
+                SyncManager.deleteRecursively(staged.dir());
+            }
+        }
+    }
+
+    private static String key(SyncManager.PendingFolder folder) {
+        return folder.zone() + "/" + folder.name();
+    }
+
+    // 内容相同的不同文件夹哈希相同，并行下载时需要以文件夹名区分；
+    // 文件夹名可能含有文件名中不允许的字符，取其 UUID（基于 MD5）作为文件名的一部分
+    private static Path partFile(SyncManager.PendingFolder folder) throws IOException {
+        Path dir = SyncManager.getPartialDir();
+        Files.createDirectories(dir);
+        UUID id = UUID.nameUUIDFromBytes(key(folder).getBytes(StandardCharsets.UTF_8));
+        return dir.resolve(folder.zone() + "-" + folder.hash() + "-" + id + ".zip.part");
+    }
+
+    /**
+     * 批量响应中单个帧的数据，关闭时跳过未读完的部分而不关闭底层流
+     */
+    static class FrameInputStream extends FilterInputStream {
+        private long remaining;
+
+        FrameInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) return -1;
+            int b = in.read();
+            if (b < 0) throw new EOFException("批量响应被截断");
+            remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) return -1;
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n < 0) throw new EOFException("批量响应被截断");
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.skipNBytes(remaining);
+            remaining = 0;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.opdent.mmdskin.sync;
+
+import com.opdent.mmdskin.sync.network.LibraryDeltaPacket;
+import com.tendoarisu.mmdskin.sync.LibraryChangeLog;
+import com.tendoarisu.mmdskin.sync.LibraryIndexer;
+import net.minecraft.server.MinecraftServer;
+import net.neoforged.neoforge.network.PacketDistributor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 服务端把模型库的变更通过游戏网络推送给所有玩家，客户端不必等到重新登录或执行 /mmdsync sync
+ * 每秒检查一次变更记录，期间的多次变更合并为一个包
+ */
+public class LibraryFeed {
+    private static final int CHECK_INTERVAL_TICKS = 20;
+    // 单个包最多携带的变更数，超过时让客户端重新获取完整清单
+    private static final int MAX_ENTRIES = 256;
+    private static long epoch = 0;
+    private static long version = 0;
+    private static int ticks = 0;
+
+    public static void tick(MinecraftServer server) {
+        if (++ticks < CHECK_INTERVAL_TICKS) return;
+        ticks = 0;
+
+        LibraryChangeLog.Position position = LibraryChangeLog.position();
+        if (position.epoch() != epoch) {
+            // 内置服务器重启，客户端下次收到变更时会发现 epoch 不一致而重新获取清单
+            epoch = position.epoch();
+            version = position.version();
+            return;
+        }
+        if (position.version() == version) return;
+
+        LibraryChangeLog.Delta delta = LibraryChangeLog.since(epoch, version);
+        LibraryDeltaPacket packet;
+        if (delta == null || delta.changes().size() > MAX_ENTRIES) {
+            packet = new LibraryDeltaPacket(epoch, position.version(), position.version(), LibraryIndexer.algorithm().id(), List.of());
+            version = position.version();
+        } else {
+            List<LibraryDeltaPacket.Entry> entries = new ArrayList<>(delta.changes().size());
+            for (LibraryChangeLog.Change change : delta.changes()) {
+                entries.add(new LibraryDeltaPacket.Entry(change.zone(), change.name(), change.hash() != null ? change.hash() : ""));
+            }
+            packet = new LibraryDeltaPacket(epoch, delta.fromVersion(), delta.toVersion(), LibraryIndexer.algorithm().id(), entries);
+            version = delta.toVersion();
+        }
+        PacketDistributor.sendToAllPlayers(packet);
+    }
+}
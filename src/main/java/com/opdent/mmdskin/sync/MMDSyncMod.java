@@ -10,10 +10,13 @@ import net.neoforged.neoforge.common.NeoForge;
 
 import com.tendoarisu.mmdskin.sync.Config;
 import com.tendoarisu.mmdskin.sync.EmbeddedServer;
+import com.opdent.mmdskin.sync.network.LibraryDeltaPacket;
+import com.opdent.mmdskin.sync.network.ModelsInUsePacket;
 import com.opdent.mmdskin.sync.network.SyncUrlPacket;
 import net.neoforged.fml.event.config.ModConfigEvent;
 import net.neoforged.neoforge.event.RegisterCommandsEvent;
 import net.neoforged.neoforge.event.entity.player.PlayerEvent;
+import net.neoforged.neoforge.event.tick.ServerTickEvent;
 import net.neoforged.neoforge.network.PacketDistributor;
 import net.neoforged.neoforge.network.event.RegisterPayloadHandlersEvent;
 import net.neoforged.neoforge.network.registration.PayloadRegistrar;
@@ -37,6 +40,8 @@ public class MMDSyncMod {
         NeoForge.EVENT_BUS.addListener(this::onRegisterCommands);
         // 监听玩家加入
         NeoForge.EVENT_BUS.addListener(this::onPlayerLoggedIn);
+        // 跟踪在线玩家使用的模型，推送模型库变更
+        NeoForge.EVENT_BUS.addListener(this::onServerTick);
     }
 
     private void registerPayloads(RegisterPayloadHandlersEvent event) {
@@ -46,6 +51,16 @@ public class MMDSyncMod {
                 SyncManager.setServerUrlOverride(payload.url());
             });
         });
+        registrar.commonToClient(ModelsInUsePacket.TYPE, ModelsInUsePacket.STREAM_CODEC, (payload, context) -> {
+            context.enqueueWork(() -> {
+                SyncManager.setModelsInUse(payload.models());
+            });
+        });
+        registrar.commonToClient(LibraryDeltaPacket.TYPE, LibraryDeltaPacket.STREAM_CODEC, (payload, context) -> {
+            context.enqueueWork(() -> {
+                SyncManager.applyLibraryDelta(payload);
+            });
+        });
     }
 
     private void onPlayerLoggedIn(PlayerEvent.PlayerLoggedInEvent event) {
@@ -58,9 +73,16 @@ public class MMDSyncMod {
             
             // 下发地址给客户端
             PacketDistributor.sendToPlayer((net.minecraft.server.level.ServerPlayer) event.getEntity(), new SyncUrlPacket(serverUrl));
+            // 在用模型先于客户端开始同步到达，客户端优先下载它们
+            PlayerModels.sendTo((net.minecraft.server.level.ServerPlayer) event.getEntity());
         }
     }
 
+    private void onServerTick(ServerTickEvent.Post event) {
+        PlayerModels.tick(event.getServer());
+        LibraryFeed.tick(event.getServer());
+    }
+
     private void onRegisterCommands(RegisterCommandsEvent event) {
         CommandHandler.register(event.getDispatcher());
     }
@@ -0,0 +1,78 @@
+package com.opdent.mmdskin.sync;
+
+import com.opdent.mmdskin.sync.network.ModelsInUsePacket;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerPlayer;
+import net.neoforged.neoforge.attachment.AttachmentType;
+import net.neoforged.neoforge.network.PacketDistributor;
+
+import java.util.List;
+import java.util.TreeSet;
+import java.util.function.Supplier;
+
+/**
+ * 服务端跟踪在线玩家正在使用的模型，变化时通知所有客户端优先下载这些模型
+ * 模型选择保存在 MMDSkin 的 PLAYER_MMD_MODEL 附件中，MMDSkin 没有提供切换事件，因此定时比对
+ */
+public class PlayerModels {
+    // 每秒比对一次
+    private static final int CHECK_INTERVAL_TICKS = 20;
+    private static AttachmentType<String> attachmentType;
+    private static boolean unavailable = false;
+    private static List<String> lastModels = List.of();
+    private static int ticks = 0;
+
+    /**
+     * 动态获取附件类型，避免编译时强依赖；MMDSkin 未安装时返回 null
+     */
+    @SuppressWarnings("unchecked")
+    public static AttachmentType<String> attachmentType() {
+        if (attachmentType == null && !unavailable) {
+            try {
+                Object field = Class.forName("com.shiroha.mmdskin.neoforge.register.MmdSkinAttachments")
+                        .getField("PLAYER_MMD_MODEL").get(null);
+                attachmentType = (AttachmentType<String>) ((Supplier<?>) field).get();
+            } catch (ReflectiveOperationException | ClassCastException e) {
+                unavailable = true;
+                MMDSyncMod.LOGGER.warn("无法读取 MMDSkin 的模型附件，模型不会按使用情况优先同步", e);
+            }
+        }
+        return attachmentType;
+    }
+
+    /**
+     * 所有在线玩家正在使用的模型，去重并排序
+     */
+    public static List<String> collect(MinecraftServer server) {
+        AttachmentType<String> type = attachmentType();
+        if (type == null) return List.of();
+        TreeSet<String> models = new TreeSet<>();
+        for (ServerPlayer player : server.getPlayerList().getPlayers()) {
+            String modelName = player.getData(type);
+            if (modelName != null && !modelName.isEmpty()) {
+                models.add(modelName);
+            }
+        }
+        return List.copyOf(models);
+    }
+
+    /**
+     * 玩家登录时下发当前在用的模型，客户端同步时先下载它们
+     * 不更新 lastModels，新玩家带来的模型由下一次比对广播给其他玩家
+     */
+    public static void sendTo(ServerPlayer player) {
+        PacketDistributor.sendToPlayer(player, new ModelsInUsePacket(collect(player.getServer())));
+    }
+
+    /**
+     * 服务端每 tick 调用，在用模型变化时广播给所有玩家
+     */
+    public static void tick(MinecraftServer server) {
+        if (++ticks < CHECK_INTERVAL_TICKS) return;
+        ticks = 0;
+        List<String> models = collect(server);
+        if (models.equals(lastModels)) return;
+        lastModels = models;
+        PacketDistributor.sendToAllPlayers(new ModelsInUsePacket(models));
+    }
+}
@@ -4,25 +4,49 @@ import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.opdent.mmdskin.sync.network.LibraryDeltaPacket;
+import com.tendoarisu.mmdskin.sync.BinaryManifest;
 import com.tendoarisu.mmdskin.sync.Config;
+import com.tendoarisu.mmdskin.sync.ContentChunker;
+import com.tendoarisu.mmdskin.sync.HashAlgorithm;
+import com.tendoarisu.mmdskin.sync.Hex;
+import com.tendoarisu.mmdskin.sync.LibraryChangeLog;
+import com.tendoarisu.mmdskin.sync.XXHash64;
 import net.minecraft.client.Minecraft;
 import net.minecraft.network.chat.Component;
 import net.neoforged.fml.loading.FMLPaths;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.net.URI;
 import java.net.URLEncoder;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
-import java.security.MessageDigest;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.zip.GZIPInputStream;
@@ -31,15 +55,222 @@ import java.util.zip.ZipInputStream;
 
 public class SyncManager {
     private static final Gson GSON = new Gson();
-    private static final HttpClient CLIENT = HttpClient.newBuilder()
+    static final HttpClient CLIENT = HttpClient.newBuilder()
             .executor(java.util.concurrent.Executors.newFixedThreadPool(4)) // 限制 HTTP 客户端内部线程池
             .build();
+    private static final long PARTIAL_EXPIRE_MILLIS = 7L * 24 * 60 * 60 * 1000;
+    // 续传时服务器返回 503（成品仍在打包）的最多重试次数与单次最长等待
+    private static final int MAX_BUSY_RETRIES = 5;
+    private static final long MAX_RETRY_AFTER_SECONDS = 10;
+    // 每个服务器地址上次完整同步成功时的清单 ETag
+    private static final Map<String, String> MANIFEST_ETAGS = new ConcurrentHashMap<>();
+    // 每个服务器地址最近一次取得的清单（已应用之后收到的变更），用于按需下载与衔接库变更
+    private static final Map<String, KnownManifest> KNOWN_MANIFESTS = new ConcurrentHashMap<>();
+    private static final AtomicBoolean SYNCING = new AtomicBoolean(false);
+    // 同步进行中又收到同步请求，结束后再同步一次
+    private static final AtomicBoolean RESYNC = new AtomicBoolean(false);
+    // 暂存与续传残留只需在每次启动游戏后的首次同步前清理，之后按需下载可能随时在进行
+    private static final AtomicBoolean CLEANED = new AtomicBoolean(false);
+    // 每个服务器地址上次同步全部成功时的库版本，重新连接时只获取之后的变更
+    private static final Path SYNC_STATE_FILE = FMLPaths.CONFIGDIR.get().resolve("mmdsync_client_sync.json");
+    private static Map<String, LibraryPosition> syncStates = null;
     private static String serverUrlOverride = null;
+    // 服务器上在线玩家正在使用的模型
+    private static volatile Set<String> modelsInUse = Set.of();
+
+    /**
+     * 服务器模型库的版本，epoch 为 0 表示服务器不支持库版本
+     */
+    private record LibraryPosition(long epoch, long version) {}
+
+    /**
+     * 清单的哈希算法、对应的库版本，以及其中的模型文件夹及其哈希
+     */
+    private record KnownManifest(HashAlgorithm algo, LibraryPosition position, Map<String, String> models) {}
+
+    /**
+     * 清单中的一个文件夹，hash 为十六进制
+     */
+    record ManifestFolder(String name, String hash) {}
+
+    /**
+     * /api/sync 的响应；since 不为 null 时为 since 请求返回的变更（epoch、version、removedModels 仅此时有效），
+     * resync 表示服务器已无法提供变更，需要获取完整清单；algo 为 null 表示旧服务器（MD5）
+     */
+    private record Manifest(String algo, List<ManifestFolder> pmx, List<ManifestFolder> vmd, Long since, boolean resync,
+                            long epoch, long version, List<String> removedModels) {}
 
     public static void setServerUrlOverride(String url) {
         serverUrlOverride = url;
         if (url != null && !url.isEmpty()) {
             MMDSyncMod.LOGGER.info("收到服务器下发的同步地址: {}", url);
+        } else {
+            modelsInUse = Set.of();
+        }
+    }
+
+    /**
+     * 服务器下发在线玩家正在使用的模型：同步时优先下载，本地没有的新模型立即按需下载
+     */
+    public static void setModelsInUse(List<String> models) {
+        Set<String> previous = modelsInUse;
+        modelsInUse = Set.copyOf(models);
+        for (String name : models) {
+            if (!previous.contains(name)) {
+                fetchModelIfMissing(name);
+            }
+        }
+    }
+
+    private static void fetchModelIfMissing(String name) {
+        final String baseUrl = getServerUrl();
+        if (baseUrl == null) return;
+        // 尚未取得过清单时，即将开始的登录同步会先下载在用模型
+        KnownManifest known = KNOWN_MANIFESTS.get(baseUrl);
+        if (known == null) return;
+
+        Path folderPath = resolveFolder(zoneDir("pmx"), name);
+        if (folderPath == null) {
+            MMDSyncMod.LOGGER.warn("忽略不合法的模型名: {}", name);
+            return;
+        }
+        if (Files.exists(folderPath)) return;
+
+        CompletableFuture.runAsync(() -> {
+            List<String> failed = new ArrayList<>();
+            try {
+                String hash = known.models().get(name);
+                if (hash == null) {
+                    // 本次只获取过变更时已知清单不完整，向服务器查询；服务器上没有的模型忽略
+                    hash = queryFolderHash(baseUrl, "pmx", name, known.algo());
+                    if (hash == null) return;
+                }
+                int count = DownloadPipeline.run(baseUrl, List.of(new PendingFolder("pmx", name, hash, folderPath)), known.algo(), failed);
+                if (!failed.isEmpty()) {
+                    MANIFEST_ETAGS.remove(baseUrl);
+                    notifyUser("模型下载失败: " + name, true);
+                } else if (count > 0) {
+                    notifyUser("已下载其他玩家正在使用的模型: " + name, false);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                MMDSyncMod.LOGGER.warn("查询模型失败: {}", name, e);
+            }
+        });
+    }
+
+    /**
+     * 通过文件清单接口查询单个文件夹的哈希
+     * @return 服务器上没有该文件夹或算法不一致时返回 null
+     */
+    private static String queryFolderHash(String baseUrl, String zone, String name, HashAlgorithm algo) throws IOException, InterruptedException {
+        String encodedName = URLEncoder.encode(name, StandardCharsets.UTF_8).replace("+", "%20");
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/api/files/" + zone + "/" + encodedName))
+                .header("Accept-Encoding", "gzip")
+                .header(HashAlgorithm.HEADER, algo.id())
+                .GET()
+                .build();
+        HttpResponse<InputStream> response = CLIENT.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        if (response.statusCode() != 200) {
+            response.body().close();
+            return null;
+        }
+        JsonObject json = readJson(response);
+        if (!json.has("hash") || !json.has("algo") || HashAlgorithm.fromId(json.get("algo").getAsString()) != algo) return null;
+        return json.get("hash").getAsString();
+    }
+
+    /**
+     * 服务器推送的模型库变更：版本衔接时只同步变化的文件夹，出现缺口（服务器重启、错过变更或变更过多）时重新同步，
+     * 本地保存的版本仍在服务器变更记录范围内时只获取之后的变更，否则获取完整清单
+     */
+    public static void applyLibraryDelta(LibraryDeltaPacket delta) {
+        final String baseUrl = getServerUrl();
+        if (baseUrl == null) return;
+        // 尚未取得过清单，登录同步会取得最新的变更或完整清单
+        KnownManifest known = KNOWN_MANIFESTS.get(baseUrl);
+        if (known == null) return;
+        LibraryPosition position = known.position();
+        if (delta.epoch() == position.epoch() && delta.toVersion() <= position.version()) return;
+
+        if (delta.epoch() != position.epoch() || delta.fromVersion() > position.version()
+                || HashAlgorithm.fromId(delta.algo()) != known.algo()) {
+            MMDSyncMod.LOGGER.info("模型库版本不连续（本地 {}，变更自 {}），重新同步", position.version(), delta.fromVersion());
+            startSync();
+            return;
+        }
+        if (!SYNCING.compareAndSet(false, true)) {
+            // 正在进行的同步可能取得的是变更之前的清单
+            RESYNC.set(true);
+            return;
+        }
+
+        CompletableFuture.runAsync(() -> {
+            try {
+                List<ManifestFolder> pmxFiles = new ArrayList<>();
+                List<ManifestFolder> vmdFiles = new ArrayList<>();
+                List<String> removedModels = new ArrayList<>();
+                for (LibraryDeltaPacket.Entry entry : delta.entries()) {
+                    boolean pmx = entry.zone().equals("pmx");
+                    if (!pmx && !entry.zone().equals("vmd")) continue;
+                    if (resolveFolder(zoneDir(entry.zone()), entry.name()) == null) {
+                        MMDSyncMod.LOGGER.warn("忽略不合法的文件夹名: {}", entry.name());
+                        continue;
+                    }
+                    if (entry.removed()) {
+                        if (pmx) removedModels.add(entry.name());
+                        continue;
+                    }
+                    (pmx ? pmxFiles : vmdFiles).add(new ManifestFolder(entry.name(), entry.hash()));
+                }
+
+                List<String> failed = new ArrayList<>();
+                int downloadedCount = applyChanges(baseUrl, known.algo(), position, new LibraryPosition(delta.epoch(), delta.toVersion()),
+                        pmxFiles, vmdFiles, removedModels, failed);
+                if (!failed.isEmpty()) {
+                    notifyUser("服务器模型库已更新，" + failed.size() + " 个文件夹同步失败，将在下次同步时重试。", true);
+                } else if (downloadedCount > 0) {
+                    notifyUser("服务器模型库已更新，已同步 " + downloadedCount + " 个文件夹。", false);
+                }
+            } catch (Exception e) {
+                MMDSyncMod.LOGGER.error("应用模型库变更失败", e);
+                MANIFEST_ETAGS.remove(baseUrl);
+                forgetPosition(baseUrl);
+            } finally {
+                finishSync();
+            }
+        });
+    }
+
+    /**
+     * 只同步变化的文件夹并衔接到新的库版本；全部成功且本地保存的版本仍是 from 时保存 to
+     * 与完整同步一致，服务器上删除的文件夹不删除本地副本，只从已知清单中移除
+     * @return 更新的文件夹数
+     */
+    private static int applyChanges(String baseUrl, HashAlgorithm algo, LibraryPosition from, LibraryPosition to, List<ManifestFolder> pmxFiles,
+                                    List<ManifestFolder> vmdFiles, List<String> removedModels, List<String> failed) throws InterruptedException {
+        KnownManifest known = KNOWN_MANIFESTS.get(baseUrl);
+        Map<String, String> models = known != null && known.algo() == algo ? new java.util.HashMap<>(known.models()) : new java.util.HashMap<>();
+        removedModels.forEach(models::remove);
+        models.putAll(folderHashes(pmxFiles));
+        KNOWN_MANIFESTS.put(baseUrl, new KnownManifest(algo, to, models));
+
+        int count = syncByPriority(baseUrl, pmxFiles, vmdFiles, algo, failed);
+        if (failed.isEmpty()) {
+            savePosition(baseUrl, from, to);
+        } else {
+            MANIFEST_ETAGS.remove(baseUrl);
+            forgetPosition(baseUrl);
+        }
+        return count;
+    }
+
+    private static void finishSync() {
+        SYNCING.set(false);
+        if (RESYNC.getAndSet(false)) {
+            startSync();
         }
     }
 
@@ -95,152 +326,889 @@ public class SyncManager {
             MMDSyncMod.LOGGER.warn("配置 serverUrl 为空且未连接到服务器，跳过同步。");
             return;
         }
+        if (!SYNCING.compareAndSet(false, true)) {
+            MMDSyncMod.LOGGER.info("同步正在进行，结束后再同步一次。");
+            RESYNC.set(true);
+            return;
+        }
 
         CompletableFuture.runAsync(() -> {
             try {
                 notifyUser("正在从服务器同步 MMD 模型资源...", false);
 
-                // Fetch manifest
-                HttpRequest request = HttpRequest.newBuilder()
-                        .uri(URI.create(baseUrl + "/api/sync"))
-                        .GET()
-                        .build();
+                if (CLEANED.compareAndSet(false, true)) {
+                    cleanStalePartials();
+                    // 上次运行中断时残留的暂存内容
+                    deleteRecursively(getStagingDir());
+                }
 
-                HttpResponse<String> response = CLIENT.send(request, HttpResponse.BodyHandlers.ofString());
+                // 上次同步全部成功过时只请求之后的变更
+                LibraryPosition saved = savedPosition(baseUrl);
+                if (saved != null) {
+                    HttpResponse<InputStream> response = CLIENT.send(
+                            manifestRequest(baseUrl + "/api/sync?since=" + saved.version() + "&epoch=" + saved.epoch(), null),
+                            HttpResponse.BodyHandlers.ofInputStream());
+                    if (response.statusCode() == 200) {
+                        Manifest manifest = readManifest(response);
+                        if (manifest.since() != null) {
+                            syncChanges(baseUrl, saved, manifest);
+                            return;
+                        }
+                        if (!manifest.resync()) {
+                            // 旧服务器忽略 since 参数，返回的就是完整清单
+                            syncManifest(baseUrl, response, manifest);
+                            return;
+                        }
+                        MMDSyncMod.LOGGER.info("服务器的变更记录已不包含本地版本，获取完整清单");
+                    } else {
+                        response.body().close();
+                    }
+                }
+
+                // Fetch manifest，带上次完整同步时的 ETag，清单未变化时服务器返回 304
+                HttpResponse<InputStream> response = CLIENT.send(manifestRequest(baseUrl + "/api/sync", MANIFEST_ETAGS.get(baseUrl)),
+                        HttpResponse.BodyHandlers.ofInputStream());
+                if (response.statusCode() == 304) {
+                    response.body().close();
+                    // 内容与上次完整同步成功时相同，已知的清单衔接到新的库版本
+                    LibraryPosition position = headerPosition(response);
+                    KNOWN_MANIFESTS.computeIfPresent(baseUrl, (url, known) -> new KnownManifest(known.algo(), position, known.models()));
+                    savePosition(baseUrl, null, position);
+                    notifyUser("MMD 资源文件已是最新。", false);
+                    return;
+                }
                 if (response.statusCode() != 200) {
+                    response.body().close();
                     notifyUser("连接资源服务器失败: " + response.statusCode(), true);
                     return;
                 }
+                syncManifest(baseUrl, response, readManifest(response));
+            } catch (Exception e) {
+                MMDSyncMod.LOGGER.error("同步文件失败", e);
+                notifyUser("MMD 资源同步出错: " + e.getMessage(), true);
+            } finally {
+                finishSync();
+            }
+        });
+    }
 
-                JsonObject json = GSON.fromJson(response.body(), JsonObject.class);
-                JsonArray pmxFiles = json.getAsJsonArray("pmx");
-                JsonArray vmdFiles = json.getAsJsonArray("vmd");
+    private static HttpRequest manifestRequest(String url, String etag) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .header("Accept", BinaryManifest.CONTENT_TYPE + ", application/json;q=0.5")
+                .header("Accept-Encoding", "gzip")
+                .header(HashAlgorithm.HEADER, "xxh64, md5")
+                .GET();
+        if (etag != null) {
+            builder.header("If-None-Match", etag);
+        }
+        return builder.build();
+    }
 
-                Path gameDir = FMLPaths.GAMEDIR.get();
-                Path pmxDir = gameDir.resolve("3d-skin/EntityPlayer");
-                Path vmdDir = gameDir.resolve("3d-skin/StageAnim");
+    /**
+     * 按完整清单比对所有文件夹
+     */
+    private static void syncManifest(String baseUrl, HttpResponse<InputStream> response, Manifest manifest) throws InterruptedException {
+        // 旧服务器不返回 algo 字段，清单一律使用 MD5
+        HashAlgorithm algo = manifest.algo() != null ? HashAlgorithm.fromId(manifest.algo()) : HashAlgorithm.MD5;
+        if (algo == null) {
+            notifyUser("不支持服务器使用的哈希算法: " + manifest.algo(), true);
+            return;
+        }
+        List<ManifestFolder> pmxFiles = manifest.pmx();
+        List<ManifestFolder> vmdFiles = manifest.vmd();
 
-                int downloadedCount = 0;
-                downloadedCount += syncZone(baseUrl, "pmx", pmxDir, pmxFiles);
-                downloadedCount += syncZone(baseUrl, "vmd", vmdDir, vmdFiles);
+        // 旧服务器不返回库版本（epoch 为 0），不会推送变更，也不保存版本
+        LibraryPosition position = headerPosition(response);
+        KNOWN_MANIFESTS.put(baseUrl, new KnownManifest(algo, position, folderHashes(pmxFiles)));
 
-                if (downloadedCount > 0) {
-                    notifyUser("MMD 资源同步完成，共更新 " + downloadedCount + " 个文件。", false);
-                } else {
-                    notifyUser("MMD 资源文件已是最新。", false);
-                }
+        List<String> failed = new ArrayList<>();
+        int downloadedCount = syncByPriority(baseUrl, pmxFiles, vmdFiles, algo, failed);
 
-            } catch (Exception e) {
-                MMDSyncMod.LOGGER.error("同步文件失败", e);
-                notifyUser("MMD 资源同步出错: " + e.getMessage(), true);
+        // 只有全部成功时才记住 ETag 与库版本，否则下次仍需完整比对以重试失败的资源包
+        String etag = response.headers().firstValue("ETag").orElse(null);
+        if (failed.isEmpty() && etag != null) {
+            MANIFEST_ETAGS.put(baseUrl, etag);
+        } else {
+            MANIFEST_ETAGS.remove(baseUrl);
+        }
+        if (failed.isEmpty()) {
+            savePosition(baseUrl, null, position);
+        } else {
+            forgetPosition(baseUrl);
+        }
+
+        if (downloadedCount > 0) {
+            notifyUser("MMD 资源同步完成，共更新 " + downloadedCount + " 个文件。", false);
+        } else {
+            notifyUser("MMD 资源文件已是最新。", false);
+        }
+    }
+
+    /**
+     * 按 /api/sync?since= 返回的变更同步
+     */
+    private static void syncChanges(String baseUrl, LibraryPosition saved, Manifest changes) throws InterruptedException {
+        HashAlgorithm algo = changes.algo() != null ? HashAlgorithm.fromId(changes.algo()) : null;
+        if (algo == null) {
+            notifyUser("不支持服务器使用的哈希算法: " + changes.algo(), true);
+            return;
+        }
+        LibraryPosition position = new LibraryPosition(changes.epoch(), changes.version());
+
+        List<String> failed = new ArrayList<>();
+        int downloadedCount = applyChanges(baseUrl, algo, saved, position, changes.pmx(), changes.vmd(),
+                changes.removedModels(), failed);
+        if (!failed.isEmpty()) {
+            notifyUser("MMD 资源同步完成，" + failed.size() + " 个文件夹失败，将在下次同步时重试。", true);
+        } else if (downloadedCount > 0) {
+            notifyUser("MMD 资源同步完成，共更新 " + downloadedCount + " 个文件。", false);
+        } else {
+            notifyUser("MMD 资源文件已是最新。", false);
+        }
+    }
+
+    /**
+     * 按优先级分三轮同步：在线玩家正在使用的模型、动作、其余模型
+     * 每轮先比对并增量更新，再下载需要完整下载的文件夹
+     * @return 更新的文件夹数
+     */
+    private static int syncByPriority(String baseUrl, List<ManifestFolder> pmxFiles, List<ManifestFolder> vmdFiles, HashAlgorithm algo, List<String> failed) throws InterruptedException {
+        Path pmxDir = zoneDir("pmx");
+        Path vmdDir = zoneDir("vmd");
+
+        Set<String> inUse = modelsInUse;
+        List<PendingFolder> pending = new ArrayList<>();
+        int count = 0;
+        count += syncZone(baseUrl, "pmx", pmxDir, pmxFiles, algo, inUse::contains, pending);
+        count += DownloadPipeline.run(baseUrl, pending, algo, failed);
+        pending.clear();
+        count += syncZone(baseUrl, "vmd", vmdDir, vmdFiles, algo, name -> true, pending);
+        count += DownloadPipeline.run(baseUrl, pending, algo, failed);
+        pending.clear();
+        count += syncZone(baseUrl, "pmx", pmxDir, pmxFiles, algo, name -> !inUse.contains(name), pending);
+        count += DownloadPipeline.run(baseUrl, pending, algo, failed);
+        return count;
+    }
+
+    private static LibraryPosition headerPosition(HttpResponse<?> response) {
+        try {
+            return new LibraryPosition(
+                    Long.parseLong(response.headers().firstValue(LibraryChangeLog.EPOCH_HEADER).orElse("0")),
+                    Long.parseLong(response.headers().firstValue(LibraryChangeLog.VERSION_HEADER).orElse("0")));
+        } catch (NumberFormatException e) {
+            return new LibraryPosition(0, 0);
+        }
+    }
+
+    private static synchronized LibraryPosition savedPosition(String baseUrl) {
+        return syncStates().get(baseUrl);
+    }
+
+    /**
+     * 记录同步全部成功后的库版本；expected 不为 null 时只有保存的版本仍是 expected 才更新，
+     * 中间有过失败的同步时不能只靠之后的变更补齐
+     */
+    private static synchronized void savePosition(String baseUrl, LibraryPosition expected, LibraryPosition position) {
+        Map<String, LibraryPosition> states = syncStates();
+        if (expected != null && !expected.equals(states.get(baseUrl))) return;
+        if (position.epoch() == 0) {
+            if (states.remove(baseUrl) == null) return;
+        } else if (position.equals(states.put(baseUrl, position))) {
+            return;
+        }
+        writeSyncStates();
+    }
+
+    private static synchronized void forgetPosition(String baseUrl) {
+        if (syncStates().remove(baseUrl) != null) {
+            writeSyncStates();
+        }
+    }
+
+    private static Map<String, LibraryPosition> syncStates() {
+        if (syncStates != null) return syncStates;
+        syncStates = new java.util.HashMap<>();
+        if (!Files.exists(SYNC_STATE_FILE)) return syncStates;
+        try {
+            JsonObject json = GSON.fromJson(Files.readString(SYNC_STATE_FILE, StandardCharsets.UTF_8), JsonObject.class);
+            for (Map.Entry<String, JsonElement> entry : json.entrySet()) {
+                JsonObject state = entry.getValue().getAsJsonObject();
+                syncStates.put(entry.getKey(), new LibraryPosition(state.get("epoch").getAsLong(), state.get("version").getAsLong()));
             }
+        } catch (Exception e) {
+            MMDSyncMod.LOGGER.warn("读取同步状态失败，将重新获取完整清单", e);
+            syncStates.clear();
+        }
+        return syncStates;
+    }
+
+    // 先写入临时文件再替换，中途崩溃时保留上一次的完整状态
+    private static void writeSyncStates() {
+        JsonObject json = new JsonObject();
+        syncStates.forEach((url, position) -> {
+            JsonObject state = new JsonObject();
+            state.addProperty("epoch", position.epoch());
+            state.addProperty("version", position.version());
+            json.add(url, state);
         });
+        try {
+            Path temp = SYNC_STATE_FILE.resolveSibling(SYNC_STATE_FILE.getFileName() + ".tmp");
+            Files.writeString(temp, json.toString(), StandardCharsets.UTF_8);
+            Files.move(temp, SYNC_STATE_FILE, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            MMDSyncMod.LOGGER.warn("保存同步状态失败", e);
+        }
     }
 
-    private static int syncZone(String baseUrl, String zone, Path localDir, JsonArray folders) throws IOException, InterruptedException {
+    private static Map<String, String> folderHashes(List<ManifestFolder> folders) {
+        Map<String, String> hashes = new java.util.HashMap<>();
+        for (ManifestFolder folder : folders) {
+            hashes.put(folder.name(), folder.hash());
+        }
+        return hashes;
+    }
+
+    /**
+     * 需要完整下载的文件夹
+     */
+    record PendingFolder(String zone, String name, String hash, Path folderPath) {}
+
+    /**
+     * 比对一个区域中名称满足 filter 的文件夹，有旧版本的先尝试增量同步，需要完整下载的加入 pending 稍后统一下载
+     * @return 增量同步成功的文件夹数
+     */
+    private static int syncZone(String baseUrl, String zone, Path localDir, List<ManifestFolder> folders, HashAlgorithm algo,
+                                Predicate<String> filter, List<PendingFolder> pending) {
         int count = 0;
-        if (folders == null) return 0;
 
-        for (JsonElement element : folders) {
-            if (!element.isJsonObject()) continue;
-            JsonObject folderObj = element.getAsJsonObject();
+        for (ManifestFolder folder : folders) {
+            String folderName = folder.name();
+            String serverHash = folder.hash();
+            if (!filter.test(folderName)) continue;
             
-            // 安全获取字段，防止 NPE
-            JsonElement nameElem = folderObj.get("name");
-            JsonElement md5Elem = folderObj.get("md5");
-            if (nameElem == null || md5Elem == null) continue;
-            
-            String folderName = nameElem.getAsString();
-            String serverMd5 = md5Elem.getAsString();
-            
-            Path folderPath = localDir.resolve(folderName);
+            Path folderPath = resolveFolder(localDir, folderName);
+            if (folderPath == null) {
+                MMDSyncMod.LOGGER.warn("忽略不合法的文件夹名: {}", folderName);
+                continue;
+            }
             
-            boolean needsDownload = false;
-            if (!Files.exists(folderPath)) {
-                needsDownload = true;
-            } else {
-                // 计算本地文件夹 MD5
-                String localMd5 = getFolderMD5(folderPath);
-                if (!serverMd5.equalsIgnoreCase(localMd5)) {
-                    needsDownload = true;
+            // 按清单使用的算法计算本地各文件及文件夹哈希
+            Map<Path, String> localFiles = Files.exists(folderPath) ? getFileHashes(folderPath, algo) : null;
+            boolean needsDownload = localFiles == null
+                    || !serverHash.equalsIgnoreCase(algo.combine(localFiles.values()));
+
+            if (needsDownload) {
+                // 本地已有旧版本时只下载有变化的文件，失败（例如旧服务器）时回退到完整下载
+                if (localFiles != null && !localFiles.isEmpty()) {
+                    String encodedName = URLEncoder.encode(folderName, StandardCharsets.UTF_8).replace("+", "%20");
+                    try {
+                        if (syncFolderDelta(baseUrl, zone, encodedName, folderPath, algo, serverHash, localFiles)) {
+                            count++;
+                            continue;
+                        }
+                    } catch (Exception e) {
+                        MMDSyncMod.LOGGER.warn("增量同步失败，改为完整下载: {}", folderName, e);
+                    }
                 }
+                pending.add(new PendingFolder(zone, folderName, serverHash, folderPath));
             }
+        }
+        return count;
+    }
 
-            if (needsDownload) {
-                // 对文件夹名进行编码
-                String encodedName = URLEncoder.encode(folderName, StandardCharsets.UTF_8).replace("+", "%20");
-                String downloadUrl = baseUrl + "/download/" + zone + "/" + encodedName;
-                
+    /**
+     * 按服务器的文件清单只下载新增或内容变化的文件，并删除服务器上已不存在的文件
+     * @return 同步后文件夹哈希与清单一致时返回 true
+     */
+    private static boolean syncFolderDelta(String baseUrl, String zone, String encodedName, Path folderPath, HashAlgorithm algo,
+                                           String serverHash, Map<Path, String> localFiles) throws IOException, InterruptedException {
+        HttpRequest listRequest = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/api/files/" + zone + "/" + encodedName))
+                .header("Accept-Encoding", "gzip")
+                .header(HashAlgorithm.HEADER, algo.id())
+                .GET()
+                .build();
+        HttpResponse<InputStream> listResponse = CLIENT.send(listRequest, HttpResponse.BodyHandlers.ofInputStream());
+        if (listResponse.statusCode() != 200) {
+            listResponse.body().close();
+            return false;
+        }
+        JsonObject list = readJson(listResponse);
+        // 清单生成后文件夹又发生了变化，直接下载最新的完整包
+        if (!algo.id().equals(list.get("algo").getAsString()) || !serverHash.equalsIgnoreCase(list.get("hash").getAsString())) {
+            return false;
+        }
+
+        Path root = folderPath.normalize();
+        Map<Path, String> serverFiles = new TreeMap<>();
+        Map<Path, String> rebuilt = new TreeMap<>();
+        JsonArray wanted = new JsonArray();
+        long wantedBytes = 0;
+        for (JsonElement element : list.getAsJsonArray("files")) {
+            JsonObject file = element.getAsJsonObject();
+            String path = file.get("path").getAsString();
+            Path rel = Path.of(path);
+            if (!root.resolve(rel).normalize().startsWith(root)) {
+                return false;
+            }
+            String hash = file.get("hash").getAsString();
+            serverFiles.put(rel, hash);
+            if (hash.equalsIgnoreCase(localFiles.get(rel))) continue;
+
+            // 本地有旧版本的大文件只下载缺少的数据块，失败时仍随 ZIP 完整下载
+            if (file.has("chunked") && file.get("chunked").getAsBoolean() && localFiles.containsKey(rel)) {
                 try {
-                    HttpRequest request = HttpRequest.newBuilder()
-                            .uri(URI.create(downloadUrl))
-                            .GET()
-                            .build();
-                    
-                    HttpResponse<InputStream> response = CLIENT.send(request, HttpResponse.BodyHandlers.ofInputStream());
-                    if (response.statusCode() == 200) {
-                        // 下载的是 ZIP，直接解压到目标目录
-                        try (ZipInputStream zis = new ZipInputStream(response.body())) {
-                            ZipEntry entry;
-                            while ((entry = zis.getNextEntry()) != null) {
-                                Path target = folderPath.resolve(entry.getName().replace("/", File.separator));
-                                if (entry.isDirectory()) {
-                                    Files.createDirectories(target);
-                                } else {
-                                    Files.createDirectories(target.getParent());
-                                    Files.copy(zis, target, StandardCopyOption.REPLACE_EXISTING);
-                                }
-                                zis.closeEntry();
-                            }
+                    if (syncFileByChunks(baseUrl, zone, encodedName, path, root.resolve(rel), algo, hash)) {
+                        rebuilt.put(rel, hash);
+                        continue;
+                    }
+                } catch (Exception e) {
+                    MMDSyncMod.LOGGER.warn("分块同步失败，改为完整下载: {}", path, e);
+                }
+            }
+            wanted.add(path);
+            wantedBytes += file.get("size").getAsLong();
+        }
+
+        // 变化的文件先解压到暂存目录并逐个校验，全部正确后才逐个原子替换，失败时本地文件保持原样
+        Map<Path, String> downloaded = new TreeMap<>();
+        if (!wanted.isEmpty()) {
+            JsonObject body = new JsonObject();
+            body.add("files", wanted);
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create(baseUrl + "/download/" + zone + "/" + encodedName))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+                    .build();
+            HttpResponse<InputStream> response = CLIENT.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            if (response.statusCode() != 200) {
+                response.body().close();
+                return false;
+            }
+
+            Path staging = newStagingDir(zone + "-delta");
+            try {
+                downloaded = extractZip(response.body(), staging, algo);
+                for (JsonElement element : wanted) {
+                    Path rel = Path.of(element.getAsString());
+                    if (!serverFiles.get(rel).equalsIgnoreCase(downloaded.get(rel))) {
+                        MMDSyncMod.LOGGER.warn("增量下载的文件校验失败: {}", rel);
+                        return false;
+                    }
+                }
+                for (Map.Entry<Path, String> file : downloaded.entrySet()) {
+                    Path target = root.resolve(file.getKey());
+                    Files.createDirectories(target.getParent());
+                    Files.move(staging.resolve(file.getKey()), target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    ClientHashIndex.record(target, algo, Hex.decode(file.getValue()));
+                }
+            } finally {
+                deleteRecursively(staging);
+            }
+        }
+
+        // 删除服务器上已不存在的文件，以及因此变空的目录
+        for (Path rel : localFiles.keySet()) {
+            if (!serverFiles.containsKey(rel)) {
+                Path file = root.resolve(rel);
+                Files.deleteIfExists(file);
+                ClientHashIndex.forget(file);
+                for (Path dir = file.getParent(); dir != null && !dir.equals(root); dir = dir.getParent()) {
+                    try (Stream<Path> children = Files.list(dir)) {
+                        if (children.findAny().isPresent()) break;
+                    }
+                    Files.delete(dir);
+                }
+            }
+        }
+
+        // 新下载与分块重建的文件使用写入时计算的哈希，其余沿用本地结果
+        Map<Path, String> result = new TreeMap<>();
+        for (Path rel : serverFiles.keySet()) {
+            if (rebuilt.containsKey(rel)) {
+                result.put(rel, rebuilt.get(rel));
+            } else if (downloaded.containsKey(rel)) {
+                result.put(rel, downloaded.get(rel));
+            } else {
+                result.put(rel, localFiles.getOrDefault(rel, ""));
+            }
+        }
+        boolean ok = serverHash.equalsIgnoreCase(algo.combine(result.values()));
+        if (ok) {
+            MMDSyncMod.LOGGER.info("增量同步 {}: 下载 {} 个文件 ({} KB), 分块更新 {} 个文件",
+                    folderPath.getFileName(), wanted.size(), wantedBytes / 1024, rebuilt.size());
+        }
+        return ok;
+    }
+
+    /**
+     * 按服务器的分块列表重建单个文件：本地旧版本中已有的块直接复制，其余块从服务器下载
+     * 重建结果先写入临时文件，哈希校验通过后再替换原文件
+     * @return 重建并校验成功时返回 true
+     */
+    private static boolean syncFileByChunks(String baseUrl, String zone, String encodedName, String path, Path target,
+                                            HashAlgorithm algo, String expectedHash) throws IOException, InterruptedException {
+        HttpRequest recipeRequest = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/api/chunks?zone=" + zone + "&folder=" + encodedName
+                        + "&path=" + URLEncoder.encode(path, StandardCharsets.UTF_8).replace("+", "%20")))
+                .header("Accept-Encoding", "gzip")
+                .GET()
+                .build();
+        HttpResponse<InputStream> recipeResponse = CLIENT.send(recipeRequest, HttpResponse.BodyHandlers.ofInputStream());
+        if (recipeResponse.statusCode() != 200) {
+            recipeResponse.body().close();
+            return false;
+        }
+        JsonObject recipe = readJson(recipeResponse);
+
+        // 本地旧版本中每个块的位置
+        Map<String, ContentChunker.Chunk> local = new java.util.HashMap<>();
+        for (ContentChunker.Chunk chunk : ContentChunker.split(target)) {
+            local.putIfAbsent(chunk.id(), chunk);
+        }
+
+        // 缺少的块（去重后）按首次出现的顺序请求
+        Map<String, Integer> missing = new java.util.LinkedHashMap<>();
+        JsonArray chunks = recipe.getAsJsonArray("chunks");
+        for (JsonElement element : chunks) {
+            JsonObject chunk = element.getAsJsonObject();
+            String id = chunk.get("id").getAsString();
+            if (!local.containsKey(id)) {
+                missing.putIfAbsent(id, chunk.get("size").getAsInt());
+            }
+        }
+
+        Path fetched = target.resolveSibling(target.getFileName() + ".mmdsync-chunks");
+        Path rebuilt = target.resolveSibling(target.getFileName() + ".mmdsync-tmp");
+        try {
+            // 下载缺少的块到临时文件，并记录每块在其中的位置
+            Map<String, Long> fetchedOffsets = new java.util.HashMap<>();
+            long fetchedBytes = 0;
+            if (!missing.isEmpty()) {
+                JsonObject body = new JsonObject();
+                JsonArray ids = new JsonArray();
+                missing.keySet().forEach(ids::add);
+                body.add("ids", ids);
+                HttpRequest request = HttpRequest.newBuilder()
+                        .uri(URI.create(baseUrl + "/api/chunks"))
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+                        .build();
+                HttpResponse<InputStream> response = CLIENT.send(request, HttpResponse.BodyHandlers.ofInputStream());
+                if (response.statusCode() != 200) {
+                    response.body().close();
+                    return false;
+                }
+                XXHash64 hasher = new XXHash64(0);
+                try (InputStream in = response.body();
+                     OutputStream out = Files.newOutputStream(fetched)) {
+                    for (Map.Entry<String, Integer> entry : missing.entrySet()) {
+                        byte[] data = in.readNBytes(entry.getValue());
+                        hasher.reset();
+                        hasher.update(data, 0, data.length);
+                        if (data.length != entry.getValue() || !entry.getKey().equals(Hex.encode(hasher.digest()))) {
+                            return false;
                         }
-                        count++;
+                        fetchedOffsets.put(entry.getKey(), fetchedBytes);
+                        out.write(data);
+                        fetchedBytes += data.length;
+                    }
+                }
+            }
+
+            // 按块顺序拼接新文件
+            try (FileChannel oldFile = FileChannel.open(target, StandardOpenOption.READ);
+                 FileChannel fetchedFile = missing.isEmpty() ? null : FileChannel.open(fetched, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(rebuilt, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                for (JsonElement element : chunks) {
+                    String id = element.getAsJsonObject().get("id").getAsString();
+                    ContentChunker.Chunk chunk = local.get(id);
+                    if (chunk != null) {
+                        copyRange(oldFile, chunk.offset(), chunk.length(), out);
                     } else {
-                        MMDSyncMod.LOGGER.error("无法下载资源包 {}: {}", downloadUrl, response.statusCode());
+                        copyRange(fetchedFile, fetchedOffsets.get(id), element.getAsJsonObject().get("size").getAsInt(), out);
                     }
-                } catch (Exception e) {
-                    MMDSyncMod.LOGGER.error("同步资源包异常: " + downloadUrl, e);
                 }
             }
+
+            if (Files.size(rebuilt) != recipe.get("size").getAsLong() || !expectedHash.equalsIgnoreCase(algo.hashFile(rebuilt))) {
+                return false;
+            }
+            Files.move(rebuilt, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            ClientHashIndex.record(target, algo, Hex.decode(expectedHash));
+            MMDSyncMod.LOGGER.info("分块更新 {}: 复用 {} 块, 下载 {} 块 ({} KB)",
+                    target.getFileName(), chunks.size() - missing.size(), missing.size(), fetchedBytes / 1024);
+            return true;
+        } finally {
+            Files.deleteIfExists(fetched);
+            Files.deleteIfExists(rebuilt);
         }
-        return count;
     }
 
-    private static String getFolderMD5(Path folder) {
-        try (Stream<Path> stream = Files.walk(folder)) {
-            StringBuilder combined = new StringBuilder();
-            stream.filter(Files::isRegularFile)
-                  .sorted()
-                  .forEach(p -> combined.append(getFileMD5(p.toFile())));
-            
-            MessageDigest digest = MessageDigest.getInstance("MD5");
-            byte[] hash = digest.digest(combined.toString().getBytes(StandardCharsets.UTF_8));
-            StringBuilder sb = new StringBuilder();
-            for (byte b : hash) sb.append(String.format("%02x", b));
-            return sb.toString();
-        } catch (Exception e) {
-            return "";
+    private static void copyRange(FileChannel source, long position, long length, FileChannel target) throws IOException {
+        long end = position + length;
+        while (position < end) {
+            long n = source.transferTo(position, end - position, target);
+            if (n <= 0) throw new IOException("数据块读取失败");
+            position += n;
         }
     }
 
-    private static String getFileMD5(File file) {
-        try (InputStream fis = Files.newInputStream(file.toPath())) {
-            MessageDigest md = MessageDigest.getInstance("MD5");
-            byte[] buffer = new byte[65536]; // 客户端也同步升级为 64KB 缓冲区
-            int n;
-            while ((n = fis.read(buffer)) != -1) {
-                md.update(buffer, 0, n);
+    /**
+     * 下载资源包到 partFile，已有部分数据时通过 Range / If-Range 续传
+     * @return 是否已完整下载
+     */
+    static boolean downloadArchive(String downloadUrl, Path partFile, String serverHash) throws IOException, InterruptedException {
+        Files.createDirectories(partFile.getParent());
+        String expectedEtag = "\"" + serverHash + "\"";
+        long existing = Files.exists(partFile) ? Files.size(partFile) : 0;
+
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
+                .uri(URI.create(downloadUrl))
+                .GET();
+        if (existing > 0) {
+            builder.header("Range", "bytes=" + existing + "-")
+                   .header("If-Range", expectedEtag);
+        }
+
+        HttpResponse<InputStream> response = sendRetryingBusy(builder.build());
+        int status = response.statusCode();
+        if (status == 416) {
+            // 本地残留的数据与服务器不一致，丢弃后下次重新下载
+            response.body().close();
+            Files.deleteIfExists(partFile);
+            MMDSyncMod.LOGGER.warn("断点续传位置无效，已丢弃临时文件: {}", partFile.getFileName());
+            return false;
+        }
+        if (status != 200 && status != 206) {
+            response.body().close();
+            MMDSyncMod.LOGGER.error("无法下载资源包 {}: {}", downloadUrl, status);
+            return false;
+        }
+
+        // 只有带着与清单一致的 ETag 的响应才是可续传的固定成品，否则中断后不保留残留数据
+        boolean resumable = expectedEtag.equals(response.headers().firstValue("ETag").orElse(null));
+        boolean append = status == 206;
+        if (append) {
+            MMDSyncMod.LOGGER.info("从 {} 字节处继续下载: {}", existing, downloadUrl);
+        }
+
+        StandardOpenOption[] options = append
+                ? new StandardOpenOption[]{StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND}
+                : new StandardOpenOption[]{StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING};
+        try (InputStream in = response.body();
+             OutputStream out = Files.newOutputStream(partFile, options)) {
+            in.transferTo(out);
+        } catch (IOException e) {
+            if (!resumable) {
+                Files.deleteIfExists(partFile);
             }
-            byte[] digest = md.digest();
-            StringBuilder sb = new StringBuilder();
-            for (byte b : digest) {
-                sb.append(String.format("%02x", b));
+            throw e;
+        }
+
+        // 校验总长度，防止连接被提前关闭却未抛出异常
+        long expectedSize = response.headers().firstValue("Content-Range")
+                .map(v -> v.substring(v.lastIndexOf('/') + 1))
+                .or(() -> response.headers().firstValue("Content-Length"))
+                .map(Long::parseLong)
+                .orElse(-1L);
+        if (expectedSize >= 0 && Files.size(partFile) != expectedSize) {
+            if (!resumable) {
+                Files.deleteIfExists(partFile);
             }
-            return sb.toString();
+            MMDSyncMod.LOGGER.warn("资源包下载不完整，将在下次同步时继续: {}", downloadUrl);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 服务器上可续传的成品仍在打包时返回 503，按 Retry-After 稍后重试，保留已下载的部分
+     */
+    private static HttpResponse<InputStream> sendRetryingBusy(HttpRequest request) throws IOException, InterruptedException {
+        HttpResponse<InputStream> response = CLIENT.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        for (int attempt = 1; response.statusCode() == 503 && attempt <= MAX_BUSY_RETRIES; attempt++) {
+            response.body().close();
+            long seconds = response.headers().firstValue("Retry-After").map(SyncManager::parseRetryAfter).orElse(1L);
+            Thread.sleep(Math.min(seconds, MAX_RETRY_AFTER_SECONDS) * 1000);
+            response = CLIENT.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        }
+        return response;
+    }
+
+    private static long parseRetryAfter(String value) {
+        try {
+            return Math.max(0, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            // HTTP 日期格式的 Retry-After 不常见，按 1 秒处理
+            return 1;
+        }
+    }
+
+    // 解析 JSON 响应体，服务器启用压缩时响应为 gzip
+    private static JsonObject readJson(HttpResponse<InputStream> response) throws IOException {
+        InputStream body = response.body();
+        if ("gzip".equalsIgnoreCase(response.headers().firstValue("Content-Encoding").orElse(""))) {
+            body = new GZIPInputStream(body);
+        }
+        try (Reader reader = new InputStreamReader(body, StandardCharsets.UTF_8)) {
+            return GSON.fromJson(reader, JsonObject.class);
+        }
+    }
+
+    /**
+     * 解析 /api/sync 的响应：二进制清单或 JSON（完整清单或 since 变更），两种格式都边读边解析，不构造 JSON 树
+     */
+    private static Manifest readManifest(HttpResponse<InputStream> response) throws IOException {
+        InputStream body = response.body();
+        if ("gzip".equalsIgnoreCase(response.headers().firstValue("Content-Encoding").orElse(""))) {
+            body = new GZIPInputStream(body);
+        }
+        String contentType = response.headers().firstValue("Content-Type").orElse("");
+        try (InputStream in = new BufferedInputStream(body, 65536)) {
+            if (contentType.startsWith(BinaryManifest.CONTENT_TYPE)) {
+                List<ManifestFolder> pmxFiles = new ArrayList<>();
+                List<ManifestFolder> vmdFiles = new ArrayList<>();
+                String algo = BinaryManifest.read(in, (zone, name, hash) -> {
+                    // 不认识的区域忽略
+                    if (zone.equals("pmx")) pmxFiles.add(new ManifestFolder(name, hash));
+                    else if (zone.equals("vmd")) vmdFiles.add(new ManifestFolder(name, hash));
+                });
+                return new Manifest(algo, pmxFiles, vmdFiles, null, false, 0, 0, List.of());
+            }
+            return readJsonManifest(new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8)));
+        }
+    }
+
+    private static Manifest readJsonManifest(JsonReader reader) throws IOException {
+        String algo = null;
+        List<ManifestFolder> pmxFiles = new ArrayList<>();
+        List<ManifestFolder> vmdFiles = new ArrayList<>();
+        Long since = null;
+        boolean resync = false;
+        long epoch = 0;
+        long version = 0;
+        List<String> removedModels = new ArrayList<>();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "algo" -> algo = reader.nextString();
+                case "pmx" -> readFolders(reader, pmxFiles);
+                case "vmd" -> readFolders(reader, vmdFiles);
+                case "since" -> since = reader.nextLong();
+                case "resync" -> resync = reader.nextBoolean();
+                case "epoch" -> epoch = reader.nextLong();
+                case "version" -> version = reader.nextLong();
+                case "removed" -> {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if (!reader.nextName().equals("pmx")) {
+                            reader.skipValue();
+                            continue;
+                        }
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            removedModels.add(reader.nextString());
+                        }
+                        reader.endArray();
+                    }
+                    reader.endObject();
+                }
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new Manifest(algo, pmxFiles, vmdFiles, since, resync, epoch, version, removedModels);
+    }
+
+    private static void readFolders(JsonReader reader, List<ManifestFolder> folders) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                continue;
+            }
+            String name = null;
+            String hash = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "name" -> name = reader.nextString();
+                    case "hash" -> hash = reader.nextString();
+                    // 旧服务器的字段名，两者都有时以 hash 为准
+                    case "md5" -> {
+                        String md5 = reader.nextString();
+                        if (hash == null) hash = md5;
+                    }
+                    default -> reader.skipValue();
+                }
+            }
+            reader.endObject();
+            // 缺少字段的条目忽略
+            if (name != null && hash != null) {
+                folders.add(new ManifestFolder(name, hash));
+            }
+        }
+        reader.endArray();
+    }
+
+    /**
+     * 解压到文件夹，写入每个文件的同时按 algo 计算哈希（不再读取一遍）
+     * 条目路径越出目标文件夹时中止
+     * @return 相对路径 -> 十六进制哈希；文件尚未记入本地哈希索引，由调用方在移动到最终位置后记录
+     */
+    static Map<Path, String> extractZip(InputStream in, Path folderPath, HashAlgorithm algo) throws IOException {
+        Path root = folderPath.normalize();
+        Map<Path, String> hashes = new TreeMap<>();
+        byte[] buffer = new byte[65536];
+        try (ZipInputStream zis = new ZipInputStream(in)) {
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                Path target = root.resolve(entry.getName().replace("/", File.separator)).normalize();
+                if (!target.startsWith(root) || target.equals(root)) {
+                    throw new IOException("资源包中的路径无效: " + entry.getName());
+                }
+                if (entry.isDirectory()) {
+                    Files.createDirectories(target);
+                } else {
+                    Files.createDirectories(target.getParent());
+                    HashAlgorithm.Hasher hasher = algo.newHasher();
+                    try (OutputStream out = Files.newOutputStream(target)) {
+                        int n;
+                        while ((n = zis.read(buffer)) != -1) {
+                            hasher.update(buffer, 0, n);
+                            out.write(buffer, 0, n);
+                        }
+                    }
+                    hashes.put(root.relativize(target), Hex.encode(hasher.digest()));
+                }
+                zis.closeEntry();
+            }
+        }
+        return hashes;
+    }
+
+    /**
+     * 将暂存目录中校验通过的文件夹替换到 target
+     * 目录无法原子覆盖，旧版本先移到暂存目录中再移入新版本，移入失败时恢复旧版本
+     * 按需下载与后台同步可能同时安装，替换过程串行进行
+     */
+    static synchronized void installFolder(Path staged, Path target, Map<Path, String> hashes, HashAlgorithm algo) throws IOException {
+        Path parent = target.normalize().getParent();
+        if (!zoneDir("pmx").equals(parent) && !zoneDir("vmd").equals(parent)) {
+            throw new IOException("安装目标不在模型目录中: " + target);
+        }
+        Files.createDirectories(target.getParent());
+        Path old = null;
+        if (Files.exists(target)) {
+            old = newStagingDir("old");
+            Files.delete(old);
+            Files.move(target, old, StandardCopyOption.ATOMIC_MOVE);
+        }
+        try {
+            Files.move(staged, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            if (old != null) {
+                Files.move(old, target, StandardCopyOption.ATOMIC_MOVE);
+            }
+            throw e;
+        }
+        if (old != null) {
+            deleteRecursively(old);
+        }
+        // 移动不改变大小与修改时间，解压时计算的哈希按最终路径记入索引
+        for (Map.Entry<Path, String> file : hashes.entrySet()) {
+            ClientHashIndex.record(target.resolve(file.getKey()), algo, Hex.decode(file.getValue()));
+        }
+    }
+
+    static Path zoneDir(String zone) {
+        return FMLPaths.GAMEDIR.get().resolve(zone.equals("vmd") ? "3d-skin/StageAnim" : "3d-skin/EntityPlayer").normalize();
+    }
+
+    /**
+     * 服务器清单中的文件夹名只能是区域目录下的一级普通名称，
+     * 否则 "../../saves" 之类的名称会让同步删除或替换 3d-skin 之外的目录
+     * @return 名称不合法时返回 null
+     */
+    static Path resolveFolder(Path localDir, String name) {
+        if (name == null || name.isEmpty() || name.equals(".") || name.equals("..")) return null;
+        Path dir = localDir.normalize();
+        try {
+            Path target = dir.resolve(name).normalize();
+            return dir.equals(target.getParent()) ? target : null;
+        } catch (InvalidPathException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 暂存目录与模型目录位于同一文件系统，才能通过重命名原子地替换
+     */
+    static Path getStagingDir() {
+        return FMLPaths.GAMEDIR.get().resolve("3d-skin/.mmdsync-staging");
+    }
+
+    static Path newStagingDir(String prefix) throws IOException {
+        Path dir = getStagingDir();
+        Files.createDirectories(dir);
+        return Files.createTempDirectory(dir, prefix + "-");
+    }
+
+    static void deleteRecursively(Path root) {
+        if (!Files.exists(root)) return;
+        try (Stream<Path> stream = Files.walk(root)) {
+            for (Path p : stream.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(p);
+            }
+        } catch (IOException e) {
+            MMDSyncMod.LOGGER.warn("删除临时目录失败: {}", root, e);
+        }
+    }
+
+    static Path getPartialDir() {
+        return FMLPaths.GAMEDIR.get().resolve("3d-skin/.mmdsync-downloads");
+    }
+
+    // 清理长期未能续传完成的残留文件（通常是服务器上对应的版本已被替换）
+    private static void cleanStalePartials() {
+        Path dir = getPartialDir();
+        if (!Files.exists(dir)) return;
+        long expireBefore = System.currentTimeMillis() - PARTIAL_EXPIRE_MILLIS;
+        try (Stream<Path> stream = Files.list(dir)) {
+            stream.forEach(p -> {
+                try {
+                    if (Files.getLastModifiedTime(p).toMillis() < expireBefore) {
+                        Files.deleteIfExists(p);
+                    }
+                } catch (IOException ignored) {}
+            });
+        } catch (IOException e) {
+            MMDSyncMod.LOGGER.debug("清理下载残留失败", e);
+        }
+    }
+
+    /**
+     * 计算文件夹内每个文件的哈希，按相对路径排序，与服务器计算文件夹哈希时的顺序一致
+     * @return 遍历失败时返回 null
+     */
+    static Map<Path, String> getFileHashes(Path folder, HashAlgorithm algo) {
+        try (Stream<Path> stream = Files.walk(folder)) {
+            Map<Path, String> hashes = new TreeMap<>();
+            stream.filter(Files::isRegularFile)
+                  .forEach(p -> hashes.put(folder.relativize(p), getFileHash(p, algo)));
+            return hashes;
         } catch (Exception e) {
-            return "";
+            return null;
         }
     }
 
+    private static String getFileHash(Path file, HashAlgorithm algo) {
+        return ClientHashIndex.hash(file, algo);
+    }
+
     private static void notifyUser(String message, boolean isError) {
         Minecraft.getInstance().execute(() -> {
             if (Minecraft.getInstance().player != null) {
@@ -0,0 +1,49 @@
+package com.opdent.mmdskin.sync.network;
+
+import com.opdent.mmdskin.sync.MMDSyncMod;
+import io.netty.buffer.ByteBuf;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraft.network.codec.ByteBufCodecs;
+import net.minecraft.network.codec.StreamCodec;
+import net.minecraft.network.protocol.common.custom.CustomPacketPayload;
+import net.minecraft.resources.ResourceLocation;
+
+import java.util.List;
+
+/**
+ * 模型库从 fromVersion 到 toVersion 的变更，客户端版本对得上时直接应用，否则重新获取完整清单
+ * 变更过多时服务器只下发 fromVersion == toVersion 的空包，客户端同样视为版本缺口
+ */
+public record LibraryDeltaPacket(long epoch, long fromVersion, long toVersion, String algo, List<Entry> entries) implements CustomPacketPayload {
+    public static final Type<LibraryDeltaPacket> TYPE = new Type<>(ResourceLocation.fromNamespaceAndPath(MMDSyncMod.MODID, "library_delta"));
+
+    /**
+     * 新增或内容变化的文件夹带新的哈希，被删除的文件夹 hash 为空字符串
+     */
+    public record Entry(String zone, String name, String hash) {
+        public static final StreamCodec<ByteBuf, Entry> STREAM_CODEC = StreamCodec.composite(
+                ByteBufCodecs.STRING_UTF8, Entry::zone,
+                ByteBufCodecs.STRING_UTF8, Entry::name,
+                ByteBufCodecs.STRING_UTF8, Entry::hash,
+                Entry::new
+        );
+
+        public boolean removed() {
+            return hash.isEmpty();
+        }
+    }
+
+    public static final StreamCodec<FriendlyByteBuf, LibraryDeltaPacket> STREAM_CODEC = StreamCodec.composite(
+            ByteBufCodecs.VAR_LONG, LibraryDeltaPacket::epoch,
+            ByteBufCodecs.VAR_LONG, LibraryDeltaPacket::fromVersion,
+            ByteBufCodecs.VAR_LONG, LibraryDeltaPacket::toVersion,
+            ByteBufCodecs.STRING_UTF8, LibraryDeltaPacket::algo,
+            Entry.STREAM_CODEC.apply(ByteBufCodecs.list()), LibraryDeltaPacket::entries,
+            LibraryDeltaPacket::new
+    );
+
+    @Override
+    public Type<? extends CustomPacketPayload> type() {
+        return TYPE;
+    }
+}
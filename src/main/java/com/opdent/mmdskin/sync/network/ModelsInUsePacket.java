@@ -0,0 +1,27 @@
+package com.opdent.mmdskin.sync.network;
+
+import com.opdent.mmdskin.sync.MMDSyncMod;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraft.network.codec.ByteBufCodecs;
+import net.minecraft.network.codec.StreamCodec;
+import net.minecraft.network.protocol.common.custom.CustomPacketPayload;
+import net.minecraft.resources.ResourceLocation;
+
+import java.util.List;
+
+/**
+ * 在线玩家正在使用的模型文件夹名，客户端据此决定下载顺序
+ */
+public record ModelsInUsePacket(List<String> models) implements CustomPacketPayload {
+    public static final Type<ModelsInUsePacket> TYPE = new Type<>(ResourceLocation.fromNamespaceAndPath(MMDSyncMod.MODID, "models_in_use"));
+
+    public static final StreamCodec<FriendlyByteBuf, ModelsInUsePacket> STREAM_CODEC = StreamCodec.composite(
+            ByteBufCodecs.STRING_UTF8.apply(ByteBufCodecs.list()), ModelsInUsePacket::models,
+            ModelsInUsePacket::new
+    );
+
+    @Override
+    public Type<? extends CustomPacketPayload> type() {
+        return TYPE;
+    }
+}
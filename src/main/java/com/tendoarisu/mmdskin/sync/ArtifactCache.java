@@ -0,0 +1,247 @@
+package com.tendoarisu.mmdskin.sync;
+
+import com.opdent.mmdskin.sync.MMDSyncMod;
+import net.neoforged.fml.loading.FMLPaths;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Stream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * 模型文件夹 ZIP 成品缓存
+ * 以文件夹哈希作为文件名（内容寻址），后台只打包一次，按 LRU 淘汰以控制磁盘占用
+ */
+public class ArtifactCache {
+    static final Path CACHE_DIR = FMLPaths.CONFIGDIR.get().resolve("mmdsync_artifacts");
+    private static final String SUFFIX = ".zip";
+    private static final String FORMAT_FILE = "format";
+
+    // 按访问顺序排列，最久未使用的在最前面；所有访问都需要持有 ARTIFACTS 的锁
+    private static final LinkedHashMap<String, Artifact> ARTIFACTS = new LinkedHashMap<>(16, 0.75f, true);
+    // 每个文件夹当前对应的哈希，用于在文件夹内容变化时使旧成品失效
+    private static final Map<String, String> FOLDER_HASHES = new ConcurrentHashMap<>();
+    private static final Map<String, CompletableFuture<Artifact>> BUILDING = new ConcurrentHashMap<>();
+    private static long totalBytes = 0;
+    private static ExecutorService builder;
+
+    public record Artifact(String hash, Path file, long size) {}
+
+    public static void init() {
+        if (!isEnabled()) return;
+
+        builder = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() / 2), r -> {
+            Thread t = new Thread(r, "MMDSync-Artifact-Builder");
+            t.setDaemon(true);
+            return t;
+        });
+
+        try {
+            Files.createDirectories(CACHE_DIR);
+            // 打包格式（压缩策略）变化后，同一哈希的成品字节不同，旧成品不能再用于续传
+            Path formatFile = CACHE_DIR.resolve(FORMAT_FILE);
+            boolean formatChanged = !Files.exists(formatFile) || !Files.readString(formatFile).equals(format());
+            if (formatChanged) {
+                Files.writeString(formatFile, format());
+            }
+            List<Path> existing;
+            try (Stream<Path> stream = Files.list(CACHE_DIR)) {
+                existing = new ArrayList<>(stream.toList());
+            }
+
+            // 按最后访问时间（保存在文件修改时间中）恢复 LRU 顺序
+            existing.sort(Comparator.comparingLong(ArtifactCache::lastModifiedOrZero));
+            synchronized (ARTIFACTS) {
+                for (Path file : existing) {
+                    String fileName = file.getFileName().toString();
+                    if (fileName.equals(FORMAT_FILE)) continue;
+                    if (!fileName.endsWith(SUFFIX) || formatChanged) {
+                        // 上次未完成的临时文件，或旧格式的成品
+                        Files.deleteIfExists(file);
+                        continue;
+                    }
+                    String hash = fileName.substring(0, fileName.length() - SUFFIX.length());
+                    long size = Files.size(file);
+                    ARTIFACTS.put(hash, new Artifact(hash, file, size));
+                    totalBytes += size;
+                }
+                evictIfNeeded();
+            }
+            MMDSyncMod.LOGGER.info("已加载 {} 个 ZIP 成品缓存，共 {} MB", ARTIFACTS.size(), totalBytes / (1024 * 1024));
+        } catch (IOException e) {
+            MMDSyncMod.LOGGER.error("初始化 ZIP 成品缓存失败", e);
+        }
+    }
+
+    public static void shutdown() {
+        if (builder != null) {
+            builder.shutdownNow();
+            builder = null;
+        }
+        BUILDING.clear();
+        // 下次 init 会从磁盘重新加载，内存中的索引必须清空，否则重启后同一成品被重复计入总大小
+        synchronized (ARTIFACTS) {
+            ARTIFACTS.clear();
+            totalBytes = 0;
+        }
+        FOLDER_HASHES.clear();
+    }
+
+    private static String format() {
+        return "2;gzip=" + Config.ENABLE_GZIP;
+    }
+
+    public static boolean isEnabled() {
+        return Config.ARTIFACT_CACHE_MAX_MB > 0;
+    }
+
+    /**
+     * 查找已打包好的成品；若不存在则在后台安排打包并返回 null，调用方应回退到流式打包或稍后重试
+     * 不等待打包完成，打包可能耗时很久，不能占住请求线程
+     */
+    public static Artifact lookup(String zone, String folderName, Path folder, String hash) {
+        CompletableFuture<Artifact> future = prepare(zone, folderName, folder, hash);
+        return future != null && future.isDone() ? future.getNow(null) : null;
+    }
+
+    /**
+     * 返回成品（已存在时为已完成的 future），不存在时安排后台打包；缓存未启用或服务器正在关闭时返回 null
+     * 结果为 null 表示打包失败。批量下载据此提前安排后面几个文件夹的打包
+     */
+    public static CompletableFuture<Artifact> prepare(String zone, String folderName, Path folder, String hash) {
+        if (!isEnabled() || builder == null || hash == null || hash.isEmpty()) return null;
+
+        invalidateIfChanged(zone + "/" + folderName, hash);
+
+        Artifact artifact;
+        synchronized (ARTIFACTS) {
+            artifact = ARTIFACTS.get(hash);
+        }
+        if (artifact != null) {
+            if (Files.exists(artifact.file())) {
+                touch(artifact.file());
+                return CompletableFuture.completedFuture(artifact);
+            }
+            remove(hash);
+        }
+
+        try {
+            CompletableFuture<Artifact> future = BUILDING.computeIfAbsent(hash, h -> CompletableFuture.supplyAsync(() -> build(folder, h), builder));
+            future.whenComplete((a, e) -> BUILDING.remove(hash, future));
+            return future;
+        } catch (RejectedExecutionException e) {
+            // 服务器正在关闭
+            return null;
+        }
+    }
+
+    /**
+     * 该哈希的成品是否正在后台打包
+     */
+    public static boolean isBuilding(String hash) {
+        return hash != null && BUILDING.containsKey(hash);
+    }
+
+    private static void invalidateIfChanged(String folderKey, String hash) {
+        String previous = FOLDER_HASHES.put(folderKey, hash);
+        if (previous != null && !previous.equals(hash)) {
+            // 文件夹内容已变化，旧成品不再被任何请求使用
+            remove(previous);
+        }
+    }
+
+    private static Artifact build(Path folder, String hash) {
+        Path temp = CACHE_DIR.resolve(hash + SUFFIX + ".tmp");
+        Path target = CACHE_DIR.resolve(hash + SUFFIX);
+        try {
+            try (ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), EmbeddedServer.STREAM_BUFFER_SIZE))) {
+                EmbeddedServer.writeFolderZip(folder, zos);
+            }
+
+            // 打包期间文件夹可能被修改，此时成品内容与哈希不符，直接丢弃
+            if (!hash.equals(EmbeddedServer.getFolderHash(folder, LibraryIndexer.algorithm()))) {
+                Files.deleteIfExists(temp);
+                return null;
+            }
+
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Artifact artifact = new Artifact(hash, target, Files.size(target));
+            synchronized (ARTIFACTS) {
+                Artifact old = ARTIFACTS.put(hash, artifact);
+                if (old != null) totalBytes -= old.size();
+                totalBytes += artifact.size();
+                evictIfNeeded();
+            }
+            MMDSyncMod.LOGGER.debug("已生成 ZIP 成品缓存: {} -> {}", folder, target.getFileName());
+            return artifact;
+        } catch (Exception e) {
+            MMDSyncMod.LOGGER.error("生成 ZIP 成品缓存失败: {}", folder, e);
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {}
+            return null;
+        }
+    }
+
+    private static void remove(String hash) {
+        Artifact artifact;
+        synchronized (ARTIFACTS) {
+            artifact = ARTIFACTS.remove(hash);
+            if (artifact != null) totalBytes -= artifact.size();
+        }
+        if (artifact != null) {
+            deleteQuietly(artifact.file());
+        }
+    }
+
+    // 调用方需持有 ARTIFACTS 的锁
+    private static void evictIfNeeded() {
+        long maxBytes = Config.ARTIFACT_CACHE_MAX_MB * 1024L * 1024L;
+        Iterator<Artifact> it = ARTIFACTS.values().iterator();
+        // 至少保留最近使用的一个，避免单个超大成品被反复生成和删除
+        while (totalBytes > maxBytes && ARTIFACTS.size() > 1 && it.hasNext()) {
+            Artifact eldest = it.next();
+            it.remove();
+            totalBytes -= eldest.size();
+            deleteQuietly(eldest.file());
+        }
+    }
+
+    private static void touch(Path file) {
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException ignored) {}
+    }
+
+    private static long lastModifiedOrZero(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            // 正在发送中的文件在 Windows 上可能删除失败，下次启动时会按 LRU 重新处理
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            MMDSyncMod.LOGGER.debug("删除 ZIP 成品缓存失败: {}", file, e);
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.tendoarisu.mmdskin.sync;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 内置服务器的上行带宽控制与流量统计
+ * 所有响应体都经过 ThrottledOutputStream，受 maxBandwidthMbps（全局）与 maxClientBandwidthMbps（单个客户端）限制
+ */
+public class BandwidthLimiter {
+    // 同一客户端 IP 的所有连接共享一个令牌桶；没有活动连接后保留一段时间，
+    // 连续的短请求继续使用同一个桶，不会每次都从满桶开始而绕过单客户端限速
+    private static final Map<String, Client> CLIENTS = new ConcurrentHashMap<>();
+    private static final long IDLE_TTL_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private static final AtomicLong LAST_SWEEP = new AtomicLong(System.nanoTime());
+    private static final AtomicLong BYTES_SENT = new AtomicLong();
+    private static final AtomicLong WAIT_NANOS = new AtomicLong();
+    private static final AtomicInteger ACTIVE_STREAMS = new AtomicInteger();
+    private static volatile TokenBucket global;
+    private static volatile long startTime = System.currentTimeMillis();
+
+    public static void start() {
+        global = TokenBucket.ofMbps(Config.MAX_BANDWIDTH_MBPS);
+        BYTES_SENT.set(0);
+        WAIT_NANOS.set(0);
+        startTime = System.currentTimeMillis();
+    }
+
+    public static void stop() {
+        global = null;
+        CLIENTS.clear();
+    }
+
+    static TokenBucket global() {
+        return global;
+    }
+
+    /**
+     * 为每个请求的响应体套上限速输出流
+     */
+    public static Filter filter() {
+        return new Filter() {
+            @Override
+            public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+                Lease lease = acquire(exchange.getRemoteAddress().getAddress().getHostAddress());
+                try {
+                    exchange.setStreams(null, new ThrottledOutputStream(exchange.getResponseBody(), lease));
+                    chain.doFilter(exchange);
+                } finally {
+                    // 处理器在发送响应头前抛出异常或连接中断时，响应体可能从未关闭，计数在这里兜底释放
+                    lease.release();
+                }
+            }
+
+            @Override
+            public String description() {
+                return "MMDSync 带宽限制";
+            }
+        };
+    }
+
+    static Lease acquire(String address) {
+        long now = System.nanoTime();
+        long lastSweep = LAST_SWEEP.get();
+        if (now - lastSweep >= IDLE_TTL_NANOS && LAST_SWEEP.compareAndSet(lastSweep, now)) {
+            sweepIdle(now);
+        }
+        ACTIVE_STREAMS.incrementAndGet();
+        return new Lease(CLIENTS.compute(address, (key, client) -> {
+            if (client == null) client = new Client(key, TokenBucket.ofMbps(Config.MAX_CLIENT_BANDWIDTH_MBPS));
+            client.streams.incrementAndGet();
+            return client;
+        }));
+    }
+
+    private static void release(Client client) {
+        ACTIVE_STREAMS.decrementAndGet();
+        if (client.streams.decrementAndGet() <= 0) {
+            client.idleSince = System.nanoTime();
+        }
+    }
+
+    /**
+     * 移除空闲超过 IDLE_TTL 且令牌桶已经回满的客户端，回满的桶与新建的桶没有区别
+     */
+    static void sweepIdle(long now) {
+        for (String address : CLIENTS.keySet()) {
+            CLIENTS.computeIfPresent(address, (key, client) -> client.streams.get() <= 0
+                    && now - client.idleSince >= IDLE_TTL_NANOS
+                    && (client.bucket == null || client.bucket.isFullAt(now)) ? null : client);
+        }
+    }
+
+    public static long bytesSent() {
+        return BYTES_SENT.get();
+    }
+
+    public static long waitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(WAIT_NANOS.get());
+    }
+
+    public static int activeStreams() {
+        return ACTIVE_STREAMS.get();
+    }
+
+    public static long uptimeMillis() {
+        return System.currentTimeMillis() - startTime;
+    }
+
+    public static long globalLimitBytesPerSecond() {
+        TokenBucket bucket = global;
+        return bucket != null ? (long) bucket.rate : 0;
+    }
+
+    public static Map<String, Client> clients() {
+        return CLIENTS;
+    }
+
+    /**
+     * 一个请求占用的连接计数，响应体关闭与请求处理结束时都会调用 release，只生效一次
+     */
+    static final class Lease {
+        private final Client client;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        private Lease(Client client) {
+            this.client = client;
+        }
+
+        Client client() {
+            return client;
+        }
+
+        void release() {
+            if (released.compareAndSet(false, true)) {
+                BandwidthLimiter.release(client);
+            }
+        }
+    }
+
+    /**
+     * 单个客户端（按 IP）的限速状态与流量统计
+     */
+    public static final class Client {
+        private final String address;
+        private final TokenBucket bucket;
+        private final AtomicInteger streams = new AtomicInteger();
+        private final AtomicLong bytesSent = new AtomicLong();
+        private volatile long idleSince;
+
+        private Client(String address, TokenBucket bucket) {
+            this.address = address;
+            this.bucket = bucket;
+        }
+
+        TokenBucket bucket() {
+            return bucket;
+        }
+
+        void record(int bytes) {
+            bytesSent.addAndGet(bytes);
+            BYTES_SENT.addAndGet(bytes);
+        }
+
+        public String address() {
+            return address;
+        }
+
+        public int streams() {
+            return streams.get();
+        }
+
+        public long bytesSent() {
+            return bytesSent.get();
+        }
+    }
+
+    /**
+     * 令牌桶，容量为 0.1 秒的流量（至少 64KB）
+     * 使用公平锁，等待中的连接按到达顺序依次取得配额，持锁期间的休眠让后来者在队列中等待
+     */
+    static final class TokenBucket {
+        private final double rate;
+        private final double capacity;
+        private final ReentrantLock lock = new ReentrantLock(true);
+        private double tokens;
+        private long lastRefill;
+
+        private TokenBucket(double bytesPerSecond) {
+            this.rate = bytesPerSecond;
+            this.capacity = Math.max(64 * 1024, bytesPerSecond / 10);
+            this.tokens = capacity;
+            this.lastRefill = System.nanoTime();
+        }
+
+        /**
+         * @return 限速值不大于 0 时返回 null，表示不限速
+         */
+        static TokenBucket ofMbps(double mbps) {
+            return mbps > 0 ? new TokenBucket(mbps * 1_000_000 / 8) : null;
+        }
+
+        /**
+         * 取得最多 bytes 个字节的配额，不足时阻塞等待
+         * @return 实际取得的字节数（不超过桶容量）
+         */
+        int acquire(int bytes) throws InterruptedException {
+            int wanted = (int) Math.min(bytes, capacity);
+            lock.lockInterruptibly();
+            try {
+                refill();
+                if (tokens < wanted) {
+                    long waitNanos = (long) ((wanted - tokens) / rate * 1_000_000_000L);
+                    WAIT_NANOS.addAndGet(waitNanos);
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                    refill();
+                }
+                tokens -= wanted;
+                return wanted;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean isFullAt(long now) {
+            lock.lock();
+            try {
+                return tokens + (now - lastRefill) / 1_000_000_000.0 * rate >= capacity;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - lastRefill) / 1_000_000_000.0 * rate);
+            lastRefill = now;
+        }
+    }
+}
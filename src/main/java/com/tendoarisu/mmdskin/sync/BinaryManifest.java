@@ -0,0 +1,179 @@
+package com.tendoarisu.mmdskin.sync;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * /api/sync 的二进制清单格式，客户端在 Accept 中声明 CONTENT_TYPE 时使用，文件夹数量很多时比 JSON 小且解析快
+ * 结构（字符串均为 varint 长度 + UTF-8 字节，varint 为无符号 LEB128）：
+ *   "MMDM" 格式版本(1 字节) 算法 ID(字符串) 摘要字节数(varint)
+ *   每个区域: 区域名(字符串) 文件夹数(varint)，之后每个文件夹（按名称排序）:
+ *     与上一个名称相同的前缀字节数(varint) 剩余字节数(varint) 剩余字节 原始摘要
+ *   空的区域名表示结束
+ * 读写两端都按顺序逐条处理，不在内存中构造完整的树
+ */
+public class BinaryManifest {
+    public static final String CONTENT_TYPE = "application/x-mmdsync-manifest";
+    private static final byte[] MAGIC = {'M', 'M', 'D', 'M'};
+    private static final int FORMAT_VERSION = 1;
+    // 文件夹名与区域名的长度上限，防止损坏的数据导致分配过大的数组
+    private static final int MAX_NAME_BYTES = 65536;
+
+    /**
+     * 读取时每个文件夹回调一次，hash 为十六进制
+     */
+    public interface Visitor {
+        void folder(String zone, String name, String hash) throws IOException;
+    }
+
+    /**
+     * 请求的 Accept 头是否声明支持二进制清单
+     */
+    public static boolean accepts(String accept) {
+        if (accept == null) return false;
+        for (String range : accept.split(",")) {
+            String[] parts = range.split(";");
+            if (!parts[0].trim().equalsIgnoreCase(CONTENT_TYPE)) continue;
+            // 显式声明 q=0 表示不接受
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        if (Double.parseDouble(param.substring(2)) <= 0) return false;
+                    } catch (NumberFormatException ignored) {}
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 顺序写入清单：header 之后对每个区域调用 zone，再逐个调用 folder，最后调用 finish
+     */
+    public static class Writer {
+        private final OutputStream out;
+        private final int digestLength;
+        private byte[] previous = new byte[0];
+        private int remaining = 0;
+
+        public Writer(OutputStream out, HashAlgorithm algo) throws IOException {
+            this.out = out;
+            this.digestLength = algo.digestLength();
+            out.write(MAGIC);
+            out.write(FORMAT_VERSION);
+            writeString(out, algo.id().getBytes(StandardCharsets.UTF_8));
+            writeVarInt(out, digestLength);
+        }
+
+        public void zone(String zone, int count) throws IOException {
+            if (remaining != 0) throw new IllegalStateException("上一个区域还有 " + remaining + " 个文件夹未写入");
+            writeString(out, zone.getBytes(StandardCharsets.UTF_8));
+            writeVarInt(out, count);
+            previous = new byte[0];
+            remaining = count;
+        }
+
+        public void folder(String name, String hash) throws IOException {
+            if (remaining-- <= 0) throw new IllegalStateException("文件夹数超过声明的数量");
+            byte[] digest = Hex.decode(hash);
+            if (digest == null || digest.length != digestLength) throw new IOException("文件夹哈希格式不正确: " + name);
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            int mismatch = Arrays.mismatch(previous, bytes);
+            // 两者相同时 mismatch 为 -1；名称不应重复，但仍按完全共享处理
+            int shared = mismatch < 0 ? bytes.length : Math.min(mismatch, bytes.length);
+            writeVarInt(out, shared);
+            writeVarInt(out, bytes.length - shared);
+            out.write(bytes, shared, bytes.length - shared);
+            out.write(digest);
+            previous = bytes;
+        }
+
+        public void finish() throws IOException {
+            if (remaining != 0) throw new IllegalStateException("区域还有 " + remaining + " 个文件夹未写入");
+            writeVarInt(out, 0);
+            out.flush();
+        }
+    }
+
+    /**
+     * 顺序读取清单，每个文件夹回调一次
+     * @return 清单使用的算法 ID
+     */
+    public static String read(InputStream in, Visitor visitor) throws IOException {
+        byte[] magic = in.readNBytes(MAGIC.length);
+        if (!Arrays.equals(magic, MAGIC)) throw new IOException("不是二进制清单");
+        int format = in.read();
+        if (format != FORMAT_VERSION) throw new IOException("不支持的清单格式版本: " + format);
+        String algo = new String(readString(in), StandardCharsets.UTF_8);
+        int digestLength = readVarInt(in);
+        if (digestLength <= 0 || digestLength > 64) throw new IOException("摘要长度不正确: " + digestLength);
+
+        byte[] digest = new byte[digestLength];
+        char[] hex = new char[digestLength * 2];
+        byte[] name = new byte[256];
+        while (true) {
+            byte[] zoneBytes = readString(in);
+            if (zoneBytes.length == 0) return algo;
+            String zone = new String(zoneBytes, StandardCharsets.UTF_8);
+            int count = readVarInt(in);
+            int length = 0;
+            for (int i = 0; i < count; i++) {
+                int shared = readVarInt(in);
+                int suffix = readVarInt(in);
+                if (shared > length || shared + suffix > MAX_NAME_BYTES) throw new IOException("清单数据损坏");
+                if (shared + suffix > name.length) {
+                    name = Arrays.copyOf(name, Math.max(shared + suffix, name.length * 2));
+                }
+                readFully(in, name, shared, suffix);
+                length = shared + suffix;
+                readFully(in, digest, 0, digestLength);
+                Hex.encode(digest, hex, 0);
+                visitor.folder(zone, new String(name, 0, length, StandardCharsets.UTF_8), new String(hex));
+            }
+        }
+    }
+
+    private static void writeString(OutputStream out, byte[] bytes) throws IOException {
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readString(InputStream in) throws IOException {
+        int length = readVarInt(in);
+        if (length > MAX_NAME_BYTES) throw new IOException("清单数据损坏");
+        byte[] bytes = new byte[length];
+        readFully(in, bytes, 0, length);
+        return bytes;
+    }
+
+    private static void writeVarInt(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarInt(InputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.read();
+            if (b < 0) throw new EOFException("清单被截断");
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) throw new IOException("清单数据损坏");
+                return value;
+            }
+        }
+        throw new IOException("清单数据损坏");
+    }
+
+    private static void readFully(InputStream in, byte[] buffer, int offset, int length) throws IOException {
+        if (in.readNBytes(buffer, offset, length) != length) throw new EOFException("清单被截断");
+    }
+}
@@ -0,0 +1,115 @@
+package com.tendoarisu.mmdskin.sync;
+
+import com.opdent.mmdskin.sync.MMDSyncMod;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 大文件的数据块索引
+ * 数据块不单独保存副本，只记录每个块在模型文件中的位置，发送时直接从原文件读取；
+ * 只登记模型库中的文件，文件被修改或删除后由 LibraryIndexer 通知移除
+ */
+public class ChunkStore {
+    // 文件 -> 分块结果，文件大小或修改时间变化后重新分块
+    private static final Map<Path, Recipe> RECIPES = new ConcurrentHashMap<>();
+    // 块 id -> 所在位置，同一内容出现在多个文件中时只保留一个
+    private static final Map<String, Location> LOCATIONS = new ConcurrentHashMap<>();
+
+    public record Recipe(long size, long lastModified, List<ContentChunker.Chunk> chunks) {}
+
+    public record Location(Path file, long offset, int length, long lastModified) {}
+
+    public static boolean isEnabled() {
+        return Config.CHUNK_THRESHOLD_MB > 0;
+    }
+
+    /**
+     * 文件是否应当按块传输
+     */
+    public static boolean shouldChunk(long size) {
+        return isEnabled() && size >= Config.CHUNK_THRESHOLD_MB * 1024L * 1024L;
+    }
+
+    /**
+     * 获取文件的分块结果，必要时重新分块并登记各块位置
+     */
+    public static Recipe recipe(Path file) throws IOException {
+        if (!isInLibrary(file)) throw new IOException("不在模型库中的文件: " + file);
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        long lastModified = attrs.lastModifiedTime().toMillis();
+        Recipe cached = RECIPES.get(file);
+        if (cached != null && cached.size() == attrs.size() && cached.lastModified() == lastModified) {
+            return cached;
+        }
+
+        long start = System.currentTimeMillis();
+        // 分块需要读取并哈希整个文件，交给 CPU 线程池执行
+        Recipe recipe = new Recipe(attrs.size(), lastModified, List.copyOf(WorkerPools.compute(() -> ContentChunker.split(file))));
+        if (cached != null) {
+            // 旧版本的块如果仍指向此文件则已失效
+            for (ContentChunker.Chunk chunk : cached.chunks()) {
+                LOCATIONS.computeIfPresent(chunk.id(), (id, loc) -> loc.file().equals(file) ? null : loc);
+            }
+        }
+        for (ContentChunker.Chunk chunk : recipe.chunks()) {
+            LOCATIONS.put(chunk.id(), new Location(file, chunk.offset(), chunk.length(), lastModified));
+        }
+        RECIPES.put(file, recipe);
+        MMDSyncMod.LOGGER.debug("已分块 {}: {} 块, 耗时 {} ms", file.getFileName(), recipe.chunks().size(), System.currentTimeMillis() - start);
+        return recipe;
+    }
+
+    /**
+     * 查找数据块位置；所在文件已被修改时返回 null
+     */
+    public static Location locate(String id) {
+        Location location = LOCATIONS.get(id);
+        if (location == null) return null;
+        try {
+            if (Files.getLastModifiedTime(location.file()).toMillis() == location.lastModified()) {
+                return location;
+            }
+        } catch (IOException ignored) {}
+        LOCATIONS.remove(id, location);
+        return null;
+    }
+
+    /**
+     * 移除已被修改或删除的文件的分块结果与块位置
+     */
+    public static void forget(Collection<Path> files) {
+        for (Path file : files) {
+            Recipe recipe = RECIPES.remove(file);
+            if (recipe == null) continue;
+            for (ContentChunker.Chunk chunk : recipe.chunks()) {
+                LOCATIONS.computeIfPresent(chunk.id(), (id, loc) -> loc.file().equals(file) ? null : loc);
+            }
+        }
+    }
+
+    static int size() {
+        return RECIPES.size();
+    }
+
+    // 只允许两个区域目录之下的文件
+    private static boolean isInLibrary(Path file) {
+        Path normalized = file.normalize();
+        for (String zone : LibraryIndexer.ZONES) {
+            Path root = LibraryIndexer.zoneDir(zone).normalize();
+            if (normalized.startsWith(root) && !normalized.equals(root)) return true;
+        }
+        return false;
+    }
+
+    public static void clear() {
+        RECIPES.clear();
+        LOCATIONS.clear();
+    }
+}
@@ -0,0 +1,175 @@
+package com.tendoarisu.mmdskin.sync;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * ZIP 条目压缩策略
+ * 已压缩的格式（PNG/JPG/DDS 等）直接存储，已知可压缩的格式按类型选择压缩级别，
+ * 未知格式抽样计算字节熵后决定，enableGzip 关闭时全部直接存储
+ */
+public class CompressionPolicy {
+    private static final int SAMPLE_SIZE = 64 * 1024;
+    // 每字节熵超过此值（满值为 8）时压缩几乎没有收益
+    private static final double ENTROPY_THRESHOLD = 7.5;
+
+    private static final Set<String> COMPRESSED = Set.of(
+            "png", "jpg", "jpeg", "dds", "gif", "webp", "ktx", "ktx2",
+            "zip", "7z", "rar", "gz", "xz", "mp3", "ogg", "m4a", "mp4", "webm");
+    // 文本类文件通常很小，使用最高压缩级别的额外开销可以忽略
+    private static final Set<String> TEXT = Set.of(
+            "txt", "json", "fx", "fxsub", "fxh", "ini", "csv", "toml", "xml", "html", "md", "vpd");
+    private static final Set<String> MODEL = Set.of("pmx", "pmd", "vmd", "x", "obj", "mqo", "vac");
+    // 未压缩的图片与音频体积大、压缩率高，用最快级别即可获得大部分收益
+    private static final Set<String> RAW_MEDIA = Set.of("bmp", "tga", "wav", "tif", "tiff");
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final Map<Policy, Stats> STATS = new EnumMap<>(Policy.class);
+
+    static {
+        for (Policy policy : Policy.values()) {
+            STATS.put(policy, new Stats());
+        }
+    }
+
+    public enum Policy {
+        STORED_DISABLED(true, 0),
+        STORED_FORMAT(true, 0),
+        STORED_ENTROPY(true, 0),
+        DEFLATE_FAST(false, Deflater.BEST_SPEED),
+        DEFLATE_DEFAULT(false, Deflater.DEFAULT_COMPRESSION),
+        DEFLATE_BEST(false, Deflater.BEST_COMPRESSION),
+        GZIP_JSON(false, Deflater.DEFAULT_COMPRESSION);
+
+        private final boolean stored;
+        private final int level;
+
+        Policy(boolean stored, int level) {
+            this.stored = stored;
+            this.level = level;
+        }
+
+        public boolean stored() {
+            return stored;
+        }
+
+        public int level() {
+            return level;
+        }
+    }
+
+    /**
+     * 单个策略的累计统计：条目数、原始字节、输出字节、CPU 时间
+     */
+    public static final class Stats {
+        private final AtomicLong entries = new AtomicLong();
+        private final AtomicLong inputBytes = new AtomicLong();
+        private final AtomicLong outputBytes = new AtomicLong();
+        private final AtomicLong cpuNanos = new AtomicLong();
+
+        public long entries() {
+            return entries.get();
+        }
+
+        public long inputBytes() {
+            return inputBytes.get();
+        }
+
+        public long outputBytes() {
+            return outputBytes.get();
+        }
+
+        public long cpuNanos() {
+            return cpuNanos.get();
+        }
+    }
+
+    public static Policy decide(Path file) {
+        if (!Config.ENABLE_GZIP) return Policy.STORED_DISABLED;
+
+        String ext = extension(file);
+        if (COMPRESSED.contains(ext)) return Policy.STORED_FORMAT;
+        if (TEXT.contains(ext)) return Policy.DEFLATE_BEST;
+        if (MODEL.contains(ext)) return Policy.DEFLATE_DEFAULT;
+        if (RAW_MEDIA.contains(ext)) return Policy.DEFLATE_FAST;
+        return sampleEntropy(file) > ENTROPY_THRESHOLD ? Policy.STORED_ENTROPY : Policy.DEFLATE_DEFAULT;
+    }
+
+    /**
+     * GZIP 压缩 JSON 响应并计入统计；压缩失败时返回 null
+     */
+    public static byte[] gzipJson(byte[] json) {
+        long cpuStart = cpuTime();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(json.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bos)) {
+            gzip.write(json);
+        } catch (IOException e) {
+            return null;
+        }
+        byte[] result = bos.toByteArray();
+        record(Policy.GZIP_JSON, json.length, result.length, cpuTime() - cpuStart);
+        return result;
+    }
+
+    public static void record(Policy policy, long inputBytes, long outputBytes, long cpuNanos) {
+        Stats stats = STATS.get(policy);
+        stats.entries.incrementAndGet();
+        stats.inputBytes.addAndGet(inputBytes);
+        stats.outputBytes.addAndGet(outputBytes);
+        stats.cpuNanos.addAndGet(cpuNanos);
+    }
+
+    public static Map<Policy, Stats> stats() {
+        return STATS;
+    }
+
+    /**
+     * 当前线程已使用的 CPU 时间（纳秒），不支持时返回 0
+     */
+    public static long cpuTime() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : 0;
+    }
+
+    /**
+     * 对文件开头的一段数据计算香农熵（比特/字节）
+     */
+    static double sampleEntropy(Path file) {
+        byte[] sample;
+        try (InputStream in = Files.newInputStream(file)) {
+            sample = in.readNBytes(SAMPLE_SIZE);
+        } catch (IOException e) {
+            return 0;
+        }
+        if (sample.length == 0) return 0;
+
+        int[] counts = new int[256];
+        for (byte b : sample) {
+            counts[b & 0xFF]++;
+        }
+        double entropy = 0;
+        for (int count : counts) {
+            if (count == 0) continue;
+            double p = (double) count / sample.length;
+            entropy -= p * (Math.log(p) / Math.log(2));
+        }
+        return entropy;
+    }
+
+    private static String extension(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+}
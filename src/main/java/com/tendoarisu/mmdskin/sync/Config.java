@@ -22,7 +22,14 @@ public class Config {
     public static boolean ENABLE_SERVER = false;
     public static int SERVER_PORT = 5000;
     public static double MAX_BANDWIDTH_MBPS = 0.0;
+    public static double MAX_CLIENT_BANDWIDTH_MBPS = 0.0;
     public static boolean ENABLE_GZIP = true;
+    public static long ARTIFACT_CACHE_MAX_MB = 2048;
+    public static int HASH_THREADS = 0;
+    public static int MAX_TRANSFER_THREADS = 64;
+    public static String HASH_ALGORITHM = "xxh64";
+    public static long CHUNK_THRESHOLD_MB = 0;
+    public static int DOWNLOAD_PARALLELISM = 4;
 
     public static void load() {
         if (!Files.exists(CONFIG_FILE)) {
@@ -55,7 +62,26 @@ public class Config {
                         case "maxBandwidthMbps" -> {
                             try { MAX_BANDWIDTH_MBPS = Double.parseDouble(value); } catch (NumberFormatException ignored) {}
                         }
+                        case "maxClientBandwidthMbps" -> {
+                            try { MAX_CLIENT_BANDWIDTH_MBPS = Double.parseDouble(value); } catch (NumberFormatException ignored) {}
+                        }
                         case "enableGzip" -> ENABLE_GZIP = Boolean.parseBoolean(value);
+                        case "artifactCacheMaxMb" -> {
+                            try { ARTIFACT_CACHE_MAX_MB = Long.parseLong(value); } catch (NumberFormatException ignored) {}
+                        }
+                        case "hashThreads" -> {
+                            try { HASH_THREADS = Integer.parseInt(value); } catch (NumberFormatException ignored) {}
+                        }
+                        case "maxTransferThreads" -> {
+                            try { MAX_TRANSFER_THREADS = Integer.parseInt(value); } catch (NumberFormatException ignored) {}
+                        }
+                        case "hashAlgorithm" -> HASH_ALGORITHM = value;
+                        case "chunkThresholdMb" -> {
+                            try { CHUNK_THRESHOLD_MB = Long.parseLong(value); } catch (NumberFormatException ignored) {}
+                        }
+                        case "downloadParallelism" -> {
+                            try { DOWNLOAD_PARALLELISM = Integer.parseInt(value); } catch (NumberFormatException ignored) {}
+                        }
                     }
                 }
             }
@@ -82,8 +108,29 @@ public class Config {
         lines.add("# 内置服务器最大下行带宽 (Mbps)，0 为不限制");
         lines.add("maxBandwidthMbps = " + MAX_BANDWIDTH_MBPS);
         lines.add("");
+        lines.add("# 单个客户端 (按 IP) 的最大下行带宽 (Mbps)，0 为不限制");
+        lines.add("maxClientBandwidthMbps = " + MAX_CLIENT_BANDWIDTH_MBPS);
+        lines.add("");
         lines.add("# 是否启用 GZIP 压缩以节省带宽");
         lines.add("enableGzip = " + ENABLE_GZIP);
+        lines.add("");
+        lines.add("# 模型 ZIP 成品缓存的磁盘上限 (MB)，超出后按最久未使用淘汰，0 为关闭缓存");
+        lines.add("artifactCacheMaxMb = " + ARTIFACT_CACHE_MAX_MB);
+        lines.add("");
+        lines.add("# 计算文件哈希的线程数，0 为自动（CPU 核心数的一半）");
+        lines.add("hashThreads = " + HASH_THREADS);
+        lines.add("");
+        lines.add("# 同时发送大文件与接收上传的最大线程数，超出的传输排队等待");
+        lines.add("maxTransferThreads = " + MAX_TRANSFER_THREADS);
+        lines.add("");
+        lines.add("# 文件哈希算法: xxh64 (快速) 或 md5，旧版本客户端始终使用 md5");
+        lines.add("hashAlgorithm = " + HASH_ALGORITHM);
+        lines.add("");
+        lines.add("# 不小于此大小 (MB) 的文件按内容分块增量传输，客户端只下载缺少的数据块，0 为关闭");
+        lines.add("chunkThresholdMb = " + CHUNK_THRESHOLD_MB);
+        lines.add("");
+        lines.add("# 客户端同步时同时下载的连接数，下载、解压与校验并行进行");
+        lines.add("downloadParallelism = " + DOWNLOAD_PARALLELISM);
 
         try {
             Files.write(CONFIG_FILE, lines, StandardCharsets.UTF_8);
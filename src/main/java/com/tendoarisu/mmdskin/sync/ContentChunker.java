@@ -0,0 +1,102 @@
+package com.tendoarisu.mmdskin.sync;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 基于内容的分块（FastCDC，Gear 滚动哈希 + 归一化分块），服务端与客户端共用
+ * 切分点只取决于附近的内容，文件中间插入或修改数据时，其余数据块保持不变
+ */
+public final class ContentChunker {
+    public static final int MIN_SIZE = 16 * 1024;
+    public static final int AVG_SIZE = 64 * 1024;
+    public static final int MAX_SIZE = 256 * 1024;
+
+    // 未达到平均大小前使用更严格的掩码，超过后使用更宽松的掩码，使块大小集中在平均值附近
+    private static final long MASK_S = -1L << (64 - 18);
+    private static final long MASK_L = -1L << (64 - 14);
+    private static final long[] GEAR = new long[256];
+
+    static {
+        // 固定种子的 SplitMix64，两端必须生成完全相同的表
+        long state = 0x4D4D4453796E6321L;
+        for (int i = 0; i < GEAR.length; i++) {
+            state += 0x9E3779B97F4A7C15L;
+            long z = state;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            GEAR[i] = z ^ (z >>> 31);
+        }
+    }
+
+    /**
+     * 数据块，id 为内容的 xxh64
+     */
+    public record Chunk(long offset, int length, String id) {}
+
+    private ContentChunker() {}
+
+    public static List<Chunk> split(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return split(in);
+        }
+    }
+
+    public static List<Chunk> split(InputStream in) throws IOException {
+        List<Chunk> chunks = new ArrayList<>();
+        byte[] buffer = new byte[MAX_SIZE * 2];
+        XXHash64 hasher = new XXHash64(0);
+        int start = 0;
+        int end = 0;
+        long offset = 0;
+        boolean eof = false;
+
+        while (true) {
+            // 保证缓冲区中至少有一个最大块的数据，除非已到文件末尾
+            if (!eof && end - start < MAX_SIZE) {
+                System.arraycopy(buffer, start, buffer, 0, end - start);
+                end -= start;
+                start = 0;
+                while (end < buffer.length) {
+                    int n = in.read(buffer, end, buffer.length - end);
+                    if (n < 0) {
+                        eof = true;
+                        break;
+                    }
+                    end += n;
+                }
+            }
+            if (end == start) break;
+
+            int length = cutPoint(buffer, start, end - start);
+            hasher.reset();
+            hasher.update(buffer, start, length);
+            chunks.add(new Chunk(offset, length, Hex.encode(hasher.digest())));
+            start += length;
+            offset += length;
+        }
+        return chunks;
+    }
+
+    private static int cutPoint(byte[] data, int start, int available) {
+        if (available <= MIN_SIZE) return available;
+        int normal = Math.min(AVG_SIZE, available);
+        int limit = Math.min(MAX_SIZE, available);
+
+        long fp = 0;
+        int i = MIN_SIZE;
+        for (; i < normal; i++) {
+            fp = (fp << 1) + GEAR[data[start + i] & 0xFF];
+            if ((fp & MASK_S) == 0) return i + 1;
+        }
+        for (; i < limit; i++) {
+            fp = (fp << 1) + GEAR[data[start + i] & 0xFF];
+            if ((fp & MASK_L) == 0) return i + 1;
+        }
+        return limit;
+    }
+}
@@ -13,38 +13,53 @@ import net.neoforged.fml.loading.FMLPaths;
 import java.io.*;
 import java.net.InetSocketAddress;
 import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
-import java.security.MessageDigest;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
 import java.util.stream.Stream;
-import java.util.zip.Deflater;
-import java.util.zip.GZIPOutputStream;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 
 public class EmbeddedServer {
     private static HttpServer server;
     private static ExecutorService serverExecutor;
-    private static final Map<Path, CacheEntry> MD5_CACHE = new ConcurrentHashMap<>();
+    private static final Map<HashAlgorithm, HashCache> HASH_CACHES = new EnumMap<>(HashAlgorithm.class);
+    private static final HashJournal JOURNAL = new HashJournal(FMLPaths.CONFIGDIR.get().resolve("mmdsync_cache.bin"));
+    private static final AtomicBoolean COMPACTING = new AtomicBoolean(false);
+    static final int STREAM_BUFFER_SIZE = 65536;
+    // 小于此大小的 JSON 压缩后几乎不会变小
+    private static final int GZIP_MIN_SIZE = 1024;
+    private static final long ZIP_ENTRY_TIME = 315532800000L; // 1980-01-01，ZIP 格式可表示的最早时间
+    // 续传请求的成品仍在打包时，建议客户端等待的秒数
+    private static final int RETRY_AFTER_SECONDS = 2;
+    private static final String NODELAY_PROPERTY = "sun.net.httpserver.nodelay";
 
-    private static class CacheEntry {
-        final String md5;
-        final long lastModified;
-
-        CacheEntry(String md5, long lastModified) {
-            this.md5 = md5;
-            this.lastModified = lastModified;
+    static {
+        for (HashAlgorithm algo : HashAlgorithm.values()) {
+            HASH_CACHES.put(algo, new HashCache(algo.digestLength()));
         }
     }
 
@@ -54,19 +69,36 @@ public class EmbeddedServer {
         // 异步初始化并启动服务器，避免阻塞游戏主线程（尤其是在加载大缓存时）
         CompletableFuture.runAsync(() -> {
             loadCache();
+            HashEngine.start();
+            WorkerPools.start();
+            ArtifactCache.init();
+            UploadSessions.init();
+            LibraryIndexer.start();
+            BandwidthLimiter.start();
 
             try {
                 int port = Config.SERVER_PORT;
+                // JDK HttpServer 默认不设置 TCP_NODELAY，响应头与响应体分两次写出，
+                // 保持连接上的后续请求会因 Nagle 算法与客户端延迟确认多等约 40 ms；该属性在首次创建服务器时读取
+                if (System.getProperty(NODELAY_PROPERTY) == null) {
+                    System.setProperty(NODELAY_PROPERTY, "true");
+                }
                 server = HttpServer.create(new InetSocketAddress(port), 0);
                 
                 // 路由配置
-                server.createContext("/", new IndexHandler());
-                server.createContext("/api/sync", new SyncHandler());
-                server.createContext("/download/", new DownloadHandler());
-                server.createContext("/upload", new UploadHandler());
+                route("/", new IndexHandler());
+                route("/api/sync", new SyncHandler());
+                route("/api/files/", new FilesHandler());
+                route("/api/chunks", new ChunkHandler());
+                route("/api/stats", new StatsHandler());
+                route("/download/", new DownloadHandler());
+                route("/api/batch", new BatchHandler());
+                route("/upload", new UploadHandler());
+                route("/api/upload/", new UploadSessionHandler());
 
-                // 创建专门的线程池处理 HTTP 请求，防止单个请求阻塞
-                serverExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+                // 每个请求一个虚拟线程，慢速下载只占用一个挂起的虚拟线程，不会阻塞其他请求
+                // 压缩、分块等 CPU 密集的工作交给 WorkerPools，哈希交给 HashEngine
+                serverExecutor = Executors.newVirtualThreadPerTaskExecutor();
                 server.setExecutor(serverExecutor);
                 
                 server.start();
@@ -86,9 +118,38 @@ public class EmbeddedServer {
             serverExecutor.shutdown();
             serverExecutor = null;
         }
+        LibraryIndexer.stop();
+        BandwidthLimiter.stop();
+        ChunkStore.clear();
+        ArtifactCache.shutdown();
+        WorkerPools.stop();
+        HashEngine.stop();
         saveCache();
     }
 
+    /**
+     * 发送 JSON 响应；启用压缩且客户端声明支持 gzip 时压缩后发送
+     */
+    private static void sendJson(HttpExchange exchange, byte[] json) throws IOException {
+        byte[] bytes = json;
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (Config.ENABLE_GZIP && json.length >= GZIP_MIN_SIZE && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            byte[] gzip = WorkerPools.compute(() -> CompressionPolicy.gzipJson(json));
+            if (gzip != null) {
+                bytes = gzip;
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            }
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    // 所有响应都经过限速与流量统计
+    private static void route(String path, HttpHandler handler) {
+        server.createContext(path, handler).getFilters().add(BandwidthLimiter.filter());
+    }
+
     // 静态页面处理器
     static class IndexHandler implements HttpHandler {
         @Override
@@ -111,54 +172,301 @@ public class EmbeddedServer {
     }
 
     // 资源列表处理器
+    // GET /api/sync: 完整清单，Accept 中声明 BinaryManifest.CONTENT_TYPE 时返回二进制编码，否则为 JSON（网页与旧客户端）
+    // GET /api/sync?since=<version>&epoch=<epoch>: 只返回该版本之后变化的文件夹，
+    //   {"algo", "epoch", "since", "version", "pmx": [{name, hash}], "vmd": [...], "removed": {"pmx": [name], "vmd": [...]}}；
+    //   变更记录已不再覆盖该版本或 epoch 不一致时返回 {"algo", "epoch", "version", "resync": true}，客户端需要改为获取完整清单
     static class SyncHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            Path gameDir = FMLPaths.GAMEDIR.get();
-            JsonObject response = new JsonObject();
-            response.add("pmx", scanFolders(gameDir.resolve("3d-skin/EntityPlayer")));
-            response.add("vmd", scanFolders(gameDir.resolve("3d-skin/StageAnim")));
+            // 旧客户端不声明支持的算法，仍然得到 MD5 清单
+            HashAlgorithm algo = HashAlgorithm.negotiate(exchange.getRequestHeaders().getFirst(HashAlgorithm.HEADER), LibraryIndexer.algorithm());
+            Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+            if (params.containsKey("since")) {
+                sendChanges(exchange, algo, params);
+                return;
+            }
+            ManifestCache.Snapshot snapshot = ManifestCache.get(algo);
+            boolean binary = BinaryManifest.accepts(exchange.getRequestHeaders().getFirst("Accept"));
+            exchange.getResponseHeaders().set("ETag", snapshot.etag(binary));
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            exchange.getResponseHeaders().set("Vary", "Accept, Accept-Encoding, " + HashAlgorithm.HEADER);
+            exchange.getResponseHeaders().set("X-MMDSync-Manifest-Version", String.valueOf(snapshot.version()));
+            // 客户端据此衔接之后通过游戏网络下发的库变更
+            exchange.getResponseHeaders().set(LibraryChangeLog.EPOCH_HEADER, String.valueOf(snapshot.position().epoch()));
+            exchange.getResponseHeaders().set(LibraryChangeLog.VERSION_HEADER, String.valueOf(snapshot.position().version()));
+
+            // 客户端持有的清单仍是最新的，直接返回 304
+            if (snapshot.matches(exchange.getRequestHeaders().getFirst("If-None-Match"), binary)) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
 
-            byte[] bytes = response.toString().getBytes(StandardCharsets.UTF_8);
+            if (binary) {
+                // 名称已前缀压缩、摘要为原始字节，不再压缩
+                exchange.getResponseHeaders().set("Content-Type", BinaryManifest.CONTENT_TYPE);
+                exchange.sendResponseHeaders(200, snapshot.binary().length);
+                exchange.getResponseBody().write(snapshot.binary());
+                exchange.close();
+                return;
+            }
+
+            byte[] bytes = snapshot.json();
+            String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            if (snapshot.gzip() != null && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                bytes = snapshot.gzip();
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            }
             exchange.getResponseHeaders().set("Content-Type", "application/json");
             exchange.sendResponseHeaders(200, bytes.length);
             exchange.getResponseBody().write(bytes);
             exchange.close();
         }
 
-        private JsonArray scanFolders(Path dir) {
-            JsonArray array = new JsonArray();
-            if (!Files.exists(dir)) return array;
-            
-            try (Stream<Path> stream = Files.list(dir)) {
-                stream.filter(Files::isDirectory).forEach(folder -> {
+        private void sendChanges(HttpExchange exchange, HashAlgorithm algo, Map<String, String> params) throws IOException {
+            LibraryIndexer.awaitReady();
+            if (!LibraryIndexer.isWatching()) {
+                // 无法监听目录时，变更只在全量扫描中发现，借助清单快照的过期机制按需扫描
+                ManifestCache.get(algo);
+            }
+
+            LibraryChangeLog.Delta delta = null;
+            try {
+                delta = LibraryChangeLog.since(Long.parseLong(params.getOrDefault("epoch", "")), Long.parseLong(params.get("since")));
+            } catch (NumberFormatException ignored) {
+                // 参数无效时同样要求完整同步
+            }
+
+            JsonObject response = new JsonObject();
+            response.addProperty("algo", algo.id());
+            if (delta == null) {
+                LibraryChangeLog.Position position = LibraryChangeLog.position();
+                response.addProperty("epoch", position.epoch());
+                response.addProperty("version", position.version());
+                response.addProperty("resync", true);
+            } else {
+                response.addProperty("epoch", delta.epoch());
+                response.addProperty("since", delta.fromVersion());
+                response.addProperty("version", delta.toVersion());
+                JsonObject removed = new JsonObject();
+                for (String zone : LibraryIndexer.ZONES) {
+                    response.add(zone, new JsonArray());
+                    removed.add(zone, new JsonArray());
+                }
+                // 哈希取自当前索引：支持主算法以外的算法，且之后又发生的变化客户端重复应用也没有影响
+                for (LibraryChangeLog.Change change : delta.changes()) {
+                    LibraryIndexer.FolderIndex folder = LibraryIndexer.folder(change.zone(), change.name());
+                    if (folder == null) {
+                        removed.getAsJsonArray(change.zone()).add(change.name());
+                        continue;
+                    }
                     JsonObject obj = new JsonObject();
-                    String folderName = folder.getFileName().toString();
-                    obj.addProperty("name", folderName);
-                    // 计算文件夹内所有文件的综合 MD5
-                    obj.addProperty("md5", getFolderMD5(folder));
-                    array.add(obj);
-                });
-            } catch (IOException e) {
-                MMDSyncMod.LOGGER.error("扫描文件夹失败: {}", dir, e);
+                    obj.addProperty("name", folder.name());
+                    obj.addProperty("hash", folder.hash(algo));
+                    response.getAsJsonArray(change.zone()).add(obj);
+                }
+                response.add("removed", removed);
             }
-            return array;
+
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            exchange.getResponseHeaders().set("Vary", "Accept-Encoding, " + HashAlgorithm.HEADER);
+            sendJson(exchange, response.toString().getBytes(StandardCharsets.UTF_8));
+            exchange.close();
         }
+    }
 
-        private String getFolderMD5(Path folder) {
-            try (Stream<Path> stream = Files.walk(folder)) {
-                StringBuilder combined = new StringBuilder();
-                stream.filter(Files::isRegularFile)
-                      .sorted()
-                      .forEach(p -> combined.append(getCachedMD5(p)));
-                
-                MessageDigest digest = MessageDigest.getInstance("MD5");
-                byte[] hash = digest.digest(combined.toString().getBytes(StandardCharsets.UTF_8));
-                StringBuilder sb = new StringBuilder();
-                for (byte b : hash) sb.append(String.format("%02x", b));
-                return sb.toString();
+    // 运行状态处理器，用于确认限速是否生效以及索引进度
+    static class StatsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            JsonObject bandwidth = new JsonObject();
+            bandwidth.addProperty("limitBytesPerSecond", BandwidthLimiter.globalLimitBytesPerSecond());
+            bandwidth.addProperty("bytesSent", BandwidthLimiter.bytesSent());
+            bandwidth.addProperty("uptimeMillis", BandwidthLimiter.uptimeMillis());
+            bandwidth.addProperty("throttledMillis", BandwidthLimiter.waitMillis());
+            bandwidth.addProperty("activeStreams", BandwidthLimiter.activeStreams());
+            JsonArray clients = new JsonArray();
+            for (BandwidthLimiter.Client client : BandwidthLimiter.clients().values()) {
+                JsonObject obj = new JsonObject();
+                obj.addProperty("address", client.address());
+                obj.addProperty("streams", client.streams());
+                obj.addProperty("bytesSent", client.bytesSent());
+                clients.add(obj);
+            }
+            bandwidth.add("clients", clients);
+
+            JsonObject hash = new JsonObject();
+            hash.addProperty("completedFiles", HashEngine.completedFiles());
+            hash.addProperty("submittedFiles", HashEngine.submittedFiles());
+            hash.addProperty("completedBytes", HashEngine.completedBytes());
+            hash.addProperty("submittedBytes", HashEngine.submittedBytes());
+
+            JsonObject compression = new JsonObject();
+            for (Map.Entry<CompressionPolicy.Policy, CompressionPolicy.Stats> entry : CompressionPolicy.stats().entrySet()) {
+                CompressionPolicy.Stats stats = entry.getValue();
+                JsonObject obj = new JsonObject();
+                obj.addProperty("entries", stats.entries());
+                obj.addProperty("inputBytes", stats.inputBytes());
+                obj.addProperty("outputBytes", stats.outputBytes());
+                obj.addProperty("savedBytes", stats.inputBytes() - stats.outputBytes());
+                obj.addProperty("cpuMillis", stats.cpuNanos() / 1_000_000);
+                compression.add(entry.getKey().name().toLowerCase(), obj);
+            }
+
+            JsonObject response = new JsonObject();
+            response.add("bandwidth", bandwidth);
+            response.add("hash", hash);
+            response.add("compression", compression);
+
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            sendJson(exchange, response.toString().getBytes(StandardCharsets.UTF_8));
+            exchange.close();
+        }
+    }
+
+    // 单个文件夹的文件清单处理器，供客户端只下载有变化的文件
+    static class FilesHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String path = URLDecoder.decode(exchange.getRequestURI().getPath(), StandardCharsets.UTF_8);
+            // 路径格式: /api/files/pmx/folder_name 或 /api/files/vmd/folder_name
+            String[] parts = path.split("/", 5);
+            if (parts.length < 5) {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+                return;
+            }
+
+            String zone = parts[3];
+            String folderName = parts[4];
+            Path targetFolder = LibraryIndexer.folderDir(zone, folderName);
+            if (targetFolder == null || !Files.isDirectory(targetFolder)) {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+                return;
+            }
+
+            HashAlgorithm algo = HashAlgorithm.negotiate(exchange.getRequestHeaders().getFirst(HashAlgorithm.HEADER), LibraryIndexer.algorithm());
+            Map<Path, LibraryIndexer.FileRecord> records = LibraryIndexer.getFileRecords(zone, folderName, targetFolder, algo);
+
+            JsonArray files = new JsonArray();
+            for (Map.Entry<Path, LibraryIndexer.FileRecord> entry : records.entrySet()) {
+                JsonObject obj = new JsonObject();
+                obj.addProperty("path", entry.getKey().toString().replace(File.separatorChar, '/'));
+                obj.addProperty("size", entry.getValue().size());
+                obj.addProperty("hash", entry.getValue().hash());
+                if (ChunkStore.shouldChunk(entry.getValue().size())) {
+                    obj.addProperty("chunked", true);
+                }
+                files.add(obj);
+            }
+            JsonObject response = new JsonObject();
+            response.addProperty("algo", algo.id());
+            response.addProperty("hash", algo.combine(records.values().stream().map(LibraryIndexer.FileRecord::hash).toList()));
+            response.add("files", files);
+
+            exchange.getResponseHeaders().set("Vary", "Accept-Encoding, " + HashAlgorithm.HEADER);
+            sendJson(exchange, response.toString().getBytes(StandardCharsets.UTF_8));
+            exchange.close();
+        }
+    }
+
+    // 数据块处理器
+    // GET /api/chunks?zone=&folder=&path= 返回文件的分块列表，POST /api/chunks 按请求顺序返回数据块内容
+    static class ChunkHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!ChunkStore.isEnabled()) {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+                return;
+            }
+            if ("POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+                sendChunks(exchange);
+            } else {
+                sendRecipe(exchange);
+            }
+            exchange.close();
+        }
+
+        private void sendRecipe(HttpExchange exchange) throws IOException {
+            Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+            Path folder = LibraryIndexer.folderDir(params.getOrDefault("zone", "pmx"), params.get("folder"));
+            Path file = folder != null ? folder.resolve(params.getOrDefault("path", "")).normalize() : null;
+            if (file == null || !file.startsWith(folder) || file.equals(folder) || !Files.isRegularFile(file)) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            ChunkStore.Recipe recipe = ChunkStore.recipe(file);
+            JsonArray chunks = new JsonArray();
+            for (ContentChunker.Chunk chunk : recipe.chunks()) {
+                JsonObject obj = new JsonObject();
+                obj.addProperty("id", chunk.id());
+                obj.addProperty("size", chunk.length());
+                chunks.add(obj);
+            }
+            JsonObject response = new JsonObject();
+            response.addProperty("size", recipe.size());
+            response.add("chunks", chunks);
+
+            exchange.getResponseHeaders().set("Vary", "Accept-Encoding");
+            sendJson(exchange, response.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        // 请求体格式: {"ids": ["块 id", ...]}，响应为各块内容按顺序直接拼接
+        private void sendChunks(HttpExchange exchange) throws IOException {
+            List<ChunkStore.Location> locations = new ArrayList<>();
+            try (Reader reader = new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8)) {
+                for (JsonElement id : JsonParser.parseReader(reader).getAsJsonObject().getAsJsonArray("ids")) {
+                    locations.add(ChunkStore.locate(id.getAsString()));
+                }
             } catch (Exception e) {
-                return "";
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+            // 任意一块已失效时客户端需重新获取分块列表
+            if (locations.contains(null)) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            long total = 0;
+            for (ChunkStore.Location location : locations) {
+                total += location.length();
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+            exchange.sendResponseHeaders(200, total);
+
+            Map<Path, FileChannel> channels = new java.util.HashMap<>();
+            try {
+                WorkerPools.transfer(() -> {
+                    try (OutputStream os = exchange.getResponseBody()) {
+                        WritableByteChannel target = Channels.newChannel(os);
+                        for (ChunkStore.Location location : locations) {
+                            FileChannel channel = channels.get(location.file());
+                            if (channel == null) {
+                                channel = FileChannel.open(location.file(), StandardOpenOption.READ);
+                                channels.put(location.file(), channel);
+                            }
+                            long position = location.offset();
+                            long end = position + location.length();
+                            while (position < end) {
+                                long n = channel.transferTo(position, end - position, target);
+                                if (n <= 0) throw new IOException("数据块所在文件已被截断: " + location.file());
+                                position += n;
+                            }
+                        }
+                    }
+                    return null;
+                });
+            } catch (IOException e) {
+                MMDSyncMod.LOGGER.debug("发送数据块中断", e);
+            } finally {
+                for (FileChannel channel : channels.values()) {
+                    channel.close();
+                }
             }
         }
     }
@@ -179,34 +487,490 @@ public class EmbeddedServer {
             String zone = parts[2];
             String folderName = parts[3];
 
-            Path baseDir = FMLPaths.GAMEDIR.get().resolve(zone.equals("pmx") ? "3d-skin/EntityPlayer" : "3d-skin/StageAnim");
-            Path targetFolder = baseDir.resolve(folderName);
-
-            if (Files.exists(targetFolder) && Files.isDirectory(targetFolder)) {
-                // 将文件夹打包为 ZIP
-                ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                try (java.util.zip.ZipOutputStream zos = new java.util.zip.ZipOutputStream(bos)) {
-                    zos.setLevel(java.util.zip.Deflater.DEFAULT_COMPRESSION);
-                    Files.walk(targetFolder).forEach(p -> {
-                        if (Files.isRegularFile(p)) {
-                            String rel = targetFolder.relativize(p).toString().replace(File.separatorChar, '/');
-                            try {
-                                zos.putNextEntry(new java.util.zip.ZipEntry(rel));
-                                Files.copy(p, zos);
-                                zos.closeEntry();
-                            } catch (IOException ignored) {}
+            Path targetFolder = LibraryIndexer.folderDir(zone, folderName);
+
+            if (targetFolder == null || !Files.isDirectory(targetFolder)) {
+                exchange.sendResponseHeaders(404, 0);
+            } else if ("POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+                // POST 请求体中列出需要的文件，只打包这些文件
+                sendFileSubset(exchange, targetFolder);
+            } else {
+                // 优先发送已打包好的成品，尚未打包时在后台安排打包，本次请求不等待
+                String hash = LibraryIndexer.getFolderHash(zone, folderName, targetFolder);
+                ArtifactCache.Artifact artifact = ArtifactCache.lookup(zone, folderName, targetFolder, hash);
+                if (artifact != null && sendArtifact(exchange, artifact)) {
+                    exchange.close();
+                    return;
+                }
+
+                // 续传必须基于固定的成品，成品仍在打包时让客户端稍后重试
+                if (exchange.getRequestHeaders().containsKey("Range") && ArtifactCache.isBuilding(hash)) {
+                    exchange.getResponseHeaders().set("Retry-After", String.valueOf(RETRY_AFTER_SECONDS));
+                    exchange.sendResponseHeaders(503, -1);
+                    exchange.close();
+                    return;
+                }
+
+                // 成品缓存未启用、尚未打包好或打包失败
+                sendZip(exchange, targetFolder, listFiles(targetFolder));
+            }
+            exchange.close();
+        }
+    }
+
+    /**
+     * 批量下载多个文件夹，请求体格式: {"folders": [{"zone": "pmx", "name": "文件夹名"}, ...]}
+     * 响应为连续的帧，客户端可以边接收边解压，省去每个文件夹一次请求的往返延迟:
+     * 每帧依次为 UTF 区域、UTF 文件夹名、long 长度，随后是该文件夹的 ZIP 数据；
+     * 长度为 -1 表示文件夹不存在或打包失败，最后以空区域名结束；重复的文件夹只发送一次
+     */
+    static class BatchHandler implements HttpHandler {
+        static final String CONTENT_TYPE = "application/x-mmdsync-batch";
+        // 单个请求最多包含的文件夹数（客户端每批 16 个）
+        private static final int MAX_FOLDERS = 64;
+        // 正在发送的帧之后提前打包的文件夹数
+        private static final int PREFETCH_FRAMES = 2;
+
+        record Item(String zone, String name, Path folder) {}
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                exchange.close();
+                return;
+            }
+
+            List<Item> items = new ArrayList<>();
+            try (Reader reader = new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8)) {
+                JsonArray folders = JsonParser.parseReader(reader).getAsJsonObject().getAsJsonArray("folders");
+                if (folders.size() > MAX_FOLDERS) {
+                    // 客户端收到非 200 时会逐个下载
+                    exchange.sendResponseHeaders(413, -1);
+                    exchange.close();
+                    return;
+                }
+                Set<String> seen = new HashSet<>();
+                for (JsonElement element : folders) {
+                    JsonObject folder = element.getAsJsonObject();
+                    String zone = folder.get("zone").getAsString();
+                    String name = folder.get("name").getAsString();
+                    if (!seen.add(zone + "/" + name)) continue;
+                    // 不合法的区域或文件夹名按不存在处理
+                    items.add(new Item(zone, name, LibraryIndexer.folderDir(zone, name)));
+                }
+            } catch (Exception e) {
+                exchange.sendResponseHeaders(400, -1);
+                exchange.close();
+                return;
+            }
+
+            // 先为最前面的几个文件夹安排后台打包，之后每发送一帧再安排后面一个，
+            // 发送前面的文件夹时后面的已在并行打包，客户端中途断开也不会留下整批打包任务
+            for (int i = 0; i < Math.min(PREFETCH_FRAMES, items.size()); i++) {
+                prepare(items.get(i));
+            }
+
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, 0);
+            try {
+                WorkerPools.transfer(() -> {
+                    try (DataOutputStream out = new DataOutputStream(exchange.getResponseBody())) {
+                        WritableByteChannel target = Channels.newChannel(out);
+                        for (int i = 0; i < items.size(); i++) {
+                            if (i + PREFETCH_FRAMES < items.size()) {
+                                prepare(items.get(i + PREFETCH_FRAMES));
+                            }
+                            Item item = items.get(i);
+                            out.writeUTF(item.zone());
+                            out.writeUTF(item.name());
+                            writeFrame(item, out, target);
                         }
-                    });
+                        out.writeUTF("");
+                    }
+                    return null;
+                });
+            } catch (IOException e) {
+                MMDSyncMod.LOGGER.debug("批量发送中断", e);
+            }
+            exchange.close();
+        }
+
+        private void writeFrame(Item item, DataOutputStream out, WritableByteChannel target) throws IOException {
+            if (item.folder() == null || !Files.isDirectory(item.folder())) {
+                out.writeLong(-1);
+                return;
+            }
+
+            // 批量响应已经开始，等待该文件夹自己的打包完成后再发送
+            CompletableFuture<ArtifactCache.Artifact> future = prepare(item);
+            ArtifactCache.Artifact artifact = future != null ? future.join() : null;
+            Path temp = null;
+            FileChannel channel = null;
+            try {
+                if (artifact != null) {
+                    try {
+                        channel = FileChannel.open(artifact.file(), StandardOpenOption.READ);
+                    } catch (NoSuchFileException ignored) {
+                        // 成品刚被淘汰，改为临时打包
+                    }
                 }
-                
-                byte[] zipBytes = bos.toByteArray();
-                exchange.getResponseHeaders().set("Content-Type", "application/zip");
-                exchange.sendResponseHeaders(200, zipBytes.length);
-                exchange.getResponseBody().write(zipBytes);
+                if (channel == null) {
+                    try {
+                        temp = buildTempZip(item.folder(), listFiles(item.folder()));
+                    } catch (IOException e) {
+                        MMDSyncMod.LOGGER.error("打包资源失败: {}", item.folder(), e);
+                        out.writeLong(-1);
+                        return;
+                    }
+                    channel = FileChannel.open(temp, StandardOpenOption.READ);
+                }
+
+                long size = channel.size();
+                out.writeLong(size);
+                out.flush();
+                long position = 0;
+                while (position < size) {
+                    long n = channel.transferTo(position, size - position, target);
+                    if (n <= 0) throw new IOException("资源包已被截断: " + item.name());
+                    position += n;
+                }
+            } finally {
+                if (channel != null) channel.close();
+                if (temp != null) Files.deleteIfExists(temp);
+            }
+        }
+
+        // 安排后台打包；文件夹不存在或缓存未启用时返回 null
+        private static CompletableFuture<ArtifactCache.Artifact> prepare(Item item) {
+            if (item.folder() == null || !Files.isDirectory(item.folder())) return null;
+            return ArtifactCache.prepare(item.zone(), item.name(), item.folder(),
+                    LibraryIndexer.getFolderHash(item.zone(), item.name(), item.folder()));
+        }
+    }
+
+    /**
+     * 发送文件夹中的部分文件，请求体格式: {"files": ["相对路径", ...]}
+     * 不存在或越出文件夹范围的路径会被忽略，客户端需自行校验结果；folder 须已经过 LibraryIndexer.folderDir 校验
+     */
+    private static void sendFileSubset(HttpExchange exchange, Path folder) throws IOException {
+        JsonObject request;
+        try (Reader reader = new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8)) {
+            request = JsonParser.parseReader(reader).getAsJsonObject();
+        } catch (Exception e) {
+            exchange.sendResponseHeaders(400, -1);
+            return;
+        }
+
+        Path root = folder.normalize();
+        List<Path> files = new ArrayList<>();
+        JsonArray requested = request.getAsJsonArray("files");
+        if (requested != null) {
+            for (JsonElement element : requested) {
+                Path file;
+                try {
+                    file = root.resolve(element.getAsString()).normalize();
+                } catch (InvalidPathException e) {
+                    continue;
+                }
+                if (file.startsWith(root) && !file.equals(root) && Files.isRegularFile(file)) {
+                    files.add(file);
+                }
+            }
+        }
+        files.sort(null);
+        sendZip(exchange, root, files);
+    }
+
+    /**
+     * 以分块传输编码边打包边发送，第一个字节不必等待整个文件夹打包完成，也不写临时文件
+     * 压缩在 CPU 线程池中分段进行，每段约一个缓冲区；发送在传输线程中进行，
+     * 慢速客户端只会让传输线程等待而不会占住 CPU 线程，每个下载在内存中只保留一段数据
+     */
+    private static void sendZip(HttpExchange exchange, Path root, List<Path> files) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/zip");
+        exchange.sendResponseHeaders(200, 0);
+        try (ZipSegments zip = new ZipSegments(root, files)) {
+            WorkerPools.transfer(() -> {
+                try (OutputStream os = exchange.getResponseBody()) {
+                    byte[] segment;
+                    while ((segment = WorkerPools.compute(zip::next)) != null) {
+                        os.write(segment);
+                    }
+                }
+                return null;
+            });
+        } catch (IOException e) {
+            // 响应头已发出，无法再返回错误码，通常是客户端中途断开；客户端按文件夹哈希校验，不会安装不完整的包
+            MMDSyncMod.LOGGER.debug("发送资源包中断: {}", root, e);
+        }
+    }
+
+    /**
+     * 在 CPU 线程池中将文件打包到临时文件，调用方负责删除
+     * 只用于批量响应：帧头需要先写出长度，成品缓存不可用时才会走到这里
+     */
+    private static Path buildTempZip(Path root, List<Path> files) throws IOException {
+        return WorkerPools.compute(() -> {
+            Path file = Files.createTempFile("mmdsync_", ".zip");
+            try (ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(file), STREAM_BUFFER_SIZE))) {
+                writeFilesZip(root, files, zos);
+            } catch (IOException e) {
+                Files.deleteIfExists(file);
+                throw e;
+            }
+            return file;
+        });
+    }
+
+    /**
+     * 通过 FileChannel.transferTo 发送成品文件，支持 Range / If-Range 断点续传
+     * 若文件已被淘汰则返回 false，由调用方回退到临时打包
+     */
+    private static boolean sendArtifact(HttpExchange exchange, ArtifactCache.Artifact artifact) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(artifact.file(), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+
+        try (channel) {
+            long size = channel.size();
+            // 成品以文件夹哈希命名且内容固定，哈希即可作为强 ETag
+            String etag = "\"" + artifact.hash() + "\"";
+            exchange.getResponseHeaders().set("Content-Type", "application/zip");
+            exchange.getResponseHeaders().set("ETag", etag);
+            exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+
+            long[] range = requestedRange(exchange.getRequestHeaders().getFirst("Range"),
+                    exchange.getRequestHeaders().getFirst("If-Range"), etag, size);
+            if (range == null) {
+                exchange.getResponseHeaders().set("Content-Range", "bytes */" + size);
+                exchange.sendResponseHeaders(416, -1);
+                return true;
+            }
+            long start = range[0];
+            long end = range[1];
+
+            long length = end - start + 1;
+            if (length == size) {
+                exchange.sendResponseHeaders(200, size);
             } else {
-                exchange.sendResponseHeaders(404, 0);
+                exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + size);
+                exchange.sendResponseHeaders(206, length);
+            }
+
+            long from = start;
+            long to = end;
+            try {
+                WorkerPools.transfer(() -> {
+                    try (OutputStream os = exchange.getResponseBody()) {
+                        WritableByteChannel target = Channels.newChannel(os);
+                        long position = from;
+                        while (position <= to) {
+                            long n = channel.transferTo(position, to - position + 1, target);
+                            if (n <= 0) throw new IOException("资源包已被截断: " + artifact.file());
+                            position += n;
+                        }
+                    }
+                    return null;
+                });
+            } catch (IOException e) {
+                MMDSyncMod.LOGGER.debug("发送资源包中断: {}", artifact.file(), e);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 根据 Range 与 If-Range 头决定发送的字节范围 [start, end]（含 end）；范围无法满足时返回 null（416）
+     * If-Range 不匹配说明客户端手里的是旧版本，应当完整重新发送
+     */
+    static long[] requestedRange(String range, String ifRange, String etag, long size) {
+        if (range == null || (ifRange != null && !ifRange.equals(etag))) {
+            return new long[]{0, size - 1};
+        }
+        return parseRange(range, size);
+    }
+
+    /**
+     * 解析单段 Range 头，返回 [start, end]（含 end）；无法满足时返回 null
+     * 多段范围按规范可以忽略，此时返回整个文件
+     */
+    static long[] parseRange(String header, long size) {
+        if (!header.startsWith("bytes=") || header.contains(",")) {
+            return new long[]{0, size - 1};
+        }
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) return new long[]{0, size - 1};
+
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                // bytes=-N 表示最后 N 个字节
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0) return null;
+                start = Math.max(0, size - suffix);
+                end = size - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? size - 1 : Math.min(Long.parseLong(last), size - 1);
+            }
+            if (start >= size || start > end) return null;
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return new long[]{0, size - 1};
+        }
+    }
+
+    /**
+     * 将文件夹内的所有文件按相对路径顺序写入 ZIP 流，每次只读取一个缓冲区的数据
+     */
+    static void writeFolderZip(Path folder, ZipOutputStream zos) throws IOException {
+        writeFilesZip(folder, listFiles(folder), zos);
+    }
+
+    private static List<Path> listFiles(Path folder) throws IOException {
+        try (Stream<Path> stream = Files.walk(folder)) {
+            return stream.filter(Files::isRegularFile).sorted().toList();
+        }
+    }
+
+    /**
+     * 将指定文件按给定顺序写入 ZIP 流，条目名为相对于 folder 的路径
+     */
+    static void writeFilesZip(Path folder, List<Path> files, ZipOutputStream zos) throws IOException {
+        try (ZipWriter writer = new ZipWriter(folder, files)) {
+            while (writer.step(zos)) {
+                // 逐个缓冲区写入
+            }
+        }
+    }
+
+    /**
+     * 按顺序把文件写入 ZIP 流，每次 step 只处理一个缓冲区的数据，
+     * 调用方可以在任意两步之间取走已生成的数据，也可以在不同线程中继续（但不能并发）
+     */
+    private static final class ZipWriter implements Closeable {
+        private final Path folder;
+        private final Iterator<Path> files;
+        private final byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+        private InputStream in;
+        private ZipEntry entry;
+        private CompressionPolicy.Policy policy;
+        // 当前条目累计的 CPU 时间，各步骤可能在不同线程中执行，按步骤分别计时
+        private long cpuNanos;
+
+        ZipWriter(Path folder, List<Path> files) {
+            this.folder = folder;
+            this.files = files.iterator();
+        }
+
+        /**
+         * @return 所有文件都已写入时返回 false
+         */
+        boolean step(ZipOutputStream zos) throws IOException {
+            long cpuStart = CompressionPolicy.cpuTime();
+            try {
+                if (in == null) {
+                    if (!files.hasNext()) return false;
+                    open(files.next(), zos);
+                    return true;
+                }
+                int n = in.read(buffer);
+                if (n >= 0) {
+                    zos.write(buffer, 0, n);
+                    return true;
+                }
+                in.close();
+                in = null;
+                zos.closeEntry();
+            } finally {
+                cpuNanos += CompressionPolicy.cpuTime() - cpuStart;
+            }
+            CompressionPolicy.record(policy, entry.getSize(), entry.getCompressedSize(), cpuNanos);
+            return true;
+        }
+
+        private void open(Path p, ZipOutputStream zos) throws IOException {
+            String rel = folder.relativize(p).toString().replace(File.separatorChar, '/');
+            entry = new ZipEntry(rel);
+            // 固定时间戳，保证同一内容每次打包得到完全相同的字节，断点续传才能安全拼接
+            entry.setTime(ZIP_ENTRY_TIME);
+            cpuNanos = 0;
+
+            policy = CompressionPolicy.decide(p);
+            if (policy.stored()) {
+                // 直接存储的条目需要在写入前给出大小和 CRC
+                CRC32 crc = new CRC32();
+                long size = 0;
+                try (InputStream in = Files.newInputStream(p)) {
+                    int n;
+                    while ((n = in.read(buffer)) != -1) {
+                        crc.update(buffer, 0, n);
+                        size += n;
+                    }
+                }
+                entry.setMethod(ZipEntry.STORED);
+                entry.setSize(size);
+                entry.setCompressedSize(size);
+                entry.setCrc(crc.getValue());
+            } else {
+                entry.setMethod(ZipEntry.DEFLATED);
+                zos.setLevel(policy.level());
+            }
+            zos.putNextEntry(entry);
+            in = Files.newInputStream(p);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (in != null) {
+                in.close();
+                in = null;
             }
-            exchange.close();
+        }
+    }
+
+    /**
+     * 分段生成 ZIP 数据：每次 next 写入至少一个缓冲区大小的输出（最后一段除外）并取走
+     */
+    private static final class ZipSegments implements Closeable {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream(STREAM_BUFFER_SIZE * 2);
+        private final ZipOutputStream zos = new ZipOutputStream(out);
+        private final ZipWriter writer;
+        private boolean finished;
+
+        ZipSegments(Path folder, List<Path> files) {
+            writer = new ZipWriter(folder, files);
+        }
+
+        /**
+         * @return 下一段数据，全部取走后返回 null
+         */
+        byte[] next() throws IOException {
+            if (finished) return null;
+            while (out.size() < STREAM_BUFFER_SIZE) {
+                if (!writer.step(zos)) {
+                    // 写入中央目录
+                    zos.finish();
+                    finished = true;
+                    break;
+                }
+            }
+            byte[] segment = out.toByteArray();
+            out.reset();
+            return segment;
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
         }
     }
 
@@ -221,7 +985,7 @@ public class EmbeddedServer {
             }
 
             // 获取上传类型和文件名（通过 Query 参数或 Header）
-            Map<String, String> params = parseQuery(exchange.getRequestURI().getQuery());
+            Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
             String zone = params.getOrDefault("zone", "pmx"); // pmx 或 vmd
             String originalName = params.getOrDefault("name", "upload.zip");
 
@@ -232,49 +996,13 @@ public class EmbeddedServer {
             Files.createDirectories(baseDir);
 
             try (InputStream is = exchange.getRequestBody()) {
-                if (originalName.toLowerCase().endsWith(".zip")) {
-                    processZipUpload(is, baseDir, datePrefix, originalName);
-                } else {
-                    // 处理单文件或目录上传
-                    Path targetFile;
-                    String normalizedName = originalName.replace('\\', '/');
-                    
-                    if (normalizedName.contains("/")) {
-                        // 如果是目录上传 (由 webkitRelativePath 传入)
-                        // 格式通常是: TopDir/SubDir/file.ext
-                        int firstSlash = normalizedName.indexOf('/');
-                        String topDir = normalizedName.substring(0, firstSlash);
-                        String remaining = normalizedName.substring(firstSlash + 1);
-                        
-                        // 使用 "日期_顶级目录" 作为模型文件夹
-                        String folderName = datePrefix + "_" + topDir;
-                        targetFile = baseDir.resolve(folderName).resolve(remaining.replace('/', File.separatorChar));
-                    } else {
-                        // 真正的单文件上传 (没有文件夹结构)
-                        // 必须包裹在文件夹中，否则 MMDSkin 无法识别
-                        String nameWithoutExt = originalName;
-                        int lastDot = originalName.lastIndexOf('.');
-                        if (lastDot != -1) {
-                            nameWithoutExt = originalName.substring(0, lastDot);
-                        }
-                        
-                        String folderName = datePrefix + "_" + nameWithoutExt;
-                        Path targetFolder = baseDir.resolve(folderName);
-                        
-                        // 如果文件夹已存在，则尝试添加短随机后缀（仅对单文件包裹有效，目录上传不加后缀以保持一致性）
-                        if (Files.exists(targetFolder)) {
-                            String suffix = Integer.toHexString(new java.util.Random().nextInt(0x10000));
-                            targetFolder = baseDir.resolve(folderName + "_" + suffix);
-                        }
-                        
-                        targetFile = targetFolder.resolve(originalName);
-                    }
-                    
-                    // 核心修复：确保父目录存在
-                    Files.createDirectories(targetFile.getParent());
-                    Files.copy(is, targetFile, StandardCopyOption.REPLACE_EXISTING);
-                }
+                // 读取请求体时可能长时间阻塞在慢速客户端上，与下载一样交给平台线程
+                WorkerPools.transfer(() -> {
+                    receiveUpload(is, baseDir, datePrefix, originalName);
+                    return null;
+                });
             } catch (Exception e) {
+                ManifestCache.invalidate();
                 MMDSyncMod.LOGGER.error("处理上传文件失败", e);
                 String error = "Upload failed: " + e.getMessage();
                 exchange.sendResponseHeaders(500, error.length());
@@ -283,239 +1011,534 @@ public class EmbeddedServer {
                 return;
             }
 
+            ManifestCache.invalidate();
+
             String response = "Upload successful";
             exchange.sendResponseHeaders(200, response.length());
             exchange.getResponseBody().write(response.getBytes());
             exchange.close();
         }
 
-        private void processZipUpload(InputStream is, Path targetBaseDir, String datePrefix, String originalName) throws IOException {
-            // 先保存到临时文件以便遍历分析
-            Path tempZip = Files.createTempFile("mmdsync_", ".zip");
-            Files.copy(is, tempZip, StandardCopyOption.REPLACE_EXISTING);
+        private static void receiveUpload(InputStream is, Path baseDir, String datePrefix, String originalName) throws IOException {
+            if (originalName.toLowerCase().endsWith(".zip")) {
+                processZipUpload(is, baseDir, datePrefix, originalName);
+            } else {
+                Path targetFile = uploadTarget(baseDir, datePrefix, originalName);
+                if (targetFile == null) throw new IOException("非法的文件名: " + originalName);
+                // 核心修复：确保父目录存在
+                Files.createDirectories(targetFile.getParent());
+                UploadIngest.writeHashed(is, targetFile);
+            }
+        }
 
+        /**
+         * 单文件或目录上传（非 ZIP）时文件的目标路径
+         * @return 规范化后的路径；不在 baseDir 下的某个模型文件夹中时（例如 "X/../../../mods/evil.jar"）返回 null
+         */
+        static Path uploadTarget(Path baseDir, String datePrefix, String originalName) {
             try {
-                // 1. 获取所有有效的 ZipEntry 路径
-                List<String> entryNames = new ArrayList<>();
-                try (ZipInputStream zis = new ZipInputStream(Files.newInputStream(tempZip))) {
-                    ZipEntry entry;
-                    while ((entry = zis.getNextEntry()) != null) {
-                        entryNames.add(entry.getName());
-                    }
+                Path root = baseDir.normalize();
+                Path target = resolveUploadTarget(baseDir, datePrefix, originalName).normalize();
+                return target.startsWith(root) && target.getNameCount() >= root.getNameCount() + 2 ? target : null;
+            } catch (InvalidPathException e) {
+                return null;
+            }
+        }
+
+        private static Path resolveUploadTarget(Path baseDir, String datePrefix, String originalName) {
+            // 处理单文件或目录上传
+            Path targetFile;
+            String normalizedName = originalName.replace('\\', '/');
+            
+            if (normalizedName.contains("/")) {
+                // 如果是目录上传 (由 webkitRelativePath 传入)
+                // 格式通常是: TopDir/SubDir/file.ext
+                int firstSlash = normalizedName.indexOf('/');
+                String topDir = normalizedName.substring(0, firstSlash);
+                String remaining = normalizedName.substring(firstSlash + 1);
+                
+                // 使用 "日期_顶级目录" 作为模型文件夹
+                String folderName = datePrefix + "_" + topDir;
+                targetFile = baseDir.resolve(folderName).resolve(remaining.replace('/', File.separatorChar));
+            } else {
+                // 真正的单文件上传 (没有文件夹结构)
+                // 必须包裹在文件夹中，否则 MMDSkin 无法识别
+                String nameWithoutExt = originalName;
+                int lastDot = originalName.lastIndexOf('.');
+                if (lastDot != -1) {
+                    nameWithoutExt = originalName.substring(0, lastDot);
                 }
+                
+                String folderName = datePrefix + "_" + nameWithoutExt;
+                Path targetFolder = baseDir.resolve(folderName);
+                
+                // 如果文件夹已存在，则尝试添加短随机后缀（仅对单文件包裹有效，目录上传不加后缀以保持一致性）
+                if (Files.exists(targetFolder)) {
+                    String suffix = Integer.toHexString(new java.util.Random().nextInt(0x10000));
+                    targetFolder = baseDir.resolve(folderName + "_" + suffix);
+                }
+                
+                targetFile = targetFolder.resolve(originalName);
+            }
+            return targetFile;
+        }
 
-                // 2. 递归寻找资源根目录
-                String commonPrefix = "";
-                while (true) {
-                    String currentPrefix = commonPrefix;
-                    String firstTopDir = null;
-                    boolean allMatch = true;
-                    boolean hasFileInCurrentLevel = false;
-
-                    for (String name : entryNames) {
-                        if (!name.startsWith(currentPrefix)) continue;
-                        String relative = name.substring(currentPrefix.length());
-                        if (relative.isEmpty()) continue;
-
-                        int slashIndex = relative.indexOf('/');
-                        if (slashIndex == -1) {
-                            hasFileInCurrentLevel = true;
-                        } else {
-                            String topDir = relative.substring(0, slashIndex + 1);
-                            if (firstTopDir == null) {
-                                firstTopDir = topDir;
-                            } else if (!firstTopDir.equals(topDir)) {
-                                allMatch = false;
-                            }
-                        }
-                    }
+        private static void processZipUpload(InputStream is, Path targetBaseDir, String datePrefix, String originalName) throws IOException {
+            // 先保存到临时文件，以便通过中央目录规划并随机访问各条目
+            Path tempZip = Files.createTempFile("mmdsync_", ".zip");
+            try {
+                Files.copy(is, tempZip, StandardCopyOption.REPLACE_EXISTING);
+                UploadIngest.ingestZip(tempZip, targetBaseDir, datePrefix, originalName);
+            } finally {
+                Files.deleteIfExists(tempZip);
+            }
+        }
+    }
 
-                    if (!hasFileInCurrentLevel && firstTopDir != null && allMatch) {
-                        commonPrefix += firstTopDir;
-                    } else {
-                        break;
-                    }
+    /**
+     * 分块断点续传上传
+     * POST   /api/upload/start?zone=&name=&size=[&chunkSize=]  创建会话
+     * GET    /api/upload/{id}                                  查询已确认的块
+     * PUT    /api/upload/{id}/{index}  (X-Chunk-CRC32: 十六进制) 上传一个块
+     * POST   /api/upload/{id}/commit                           全部确认后提交
+     * DELETE /api/upload/{id}                                  取消
+     * POST   /api/upload/check                                 上传前去重，见 {@link #check}
+     */
+    static class UploadSessionHandler implements HttpHandler {
+        private static final String CRC_HEADER = "X-Chunk-CRC32";
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String[] parts = exchange.getRequestURI().getPath().substring("/api/upload/".length()).split("/");
+            String method = exchange.getRequestMethod().toUpperCase();
+            if (parts.length == 1 && parts[0].equals("start") && method.equals("POST")) {
+                start(exchange);
+                exchange.close();
+                return;
+            }
+            if (parts.length == 1 && parts[0].equals("check") && method.equals("POST")) {
+                check(exchange);
+                exchange.close();
+                return;
+            }
+
+            UploadSessions.Session session = UploadSessions.get(parts[0]);
+            if (session == null) {
+                exchange.sendResponseHeaders(404, -1);
+            } else if (parts.length == 1 && method.equals("GET")) {
+                sendStatus(exchange, session);
+            } else if (parts.length == 1 && method.equals("DELETE")) {
+                if (!session.isCommitting()) UploadSessions.remove(session);
+                exchange.sendResponseHeaders(204, -1);
+            } else if (parts.length == 2 && parts[1].equals("commit") && method.equals("POST")) {
+                commit(exchange, session);
+            } else if (parts.length == 2 && method.equals("PUT")) {
+                receiveChunk(exchange, session, parts[1]);
+            } else {
+                exchange.sendResponseHeaders(405, -1);
+            }
+            exchange.close();
+        }
+
+        private void start(HttpExchange exchange) throws IOException {
+            Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+            String zone = params.getOrDefault("zone", "pmx");
+            String name = params.get("name");
+            long size;
+            int chunkSize;
+            try {
+                size = Long.parseLong(params.getOrDefault("size", "-1"));
+                chunkSize = Integer.parseInt(params.getOrDefault("chunkSize", String.valueOf(UploadSessions.DEFAULT_CHUNK_SIZE)));
+            } catch (NumberFormatException e) {
+                size = -1;
+                chunkSize = -1;
+            }
+            if (name == null || name.isEmpty() || size <= 0 || chunkSize <= 0 || chunkSize > UploadSessions.MAX_CHUNK_SIZE
+                    || (size + chunkSize - 1) / chunkSize > Integer.MAX_VALUE) {
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+            zone = zone.equals("vmd") ? "vmd" : "pmx";
+            // 提交时才确定最终路径，这里先拒绝会越出区域目录的文件名，避免白白接收整个文件
+            if (!name.toLowerCase().endsWith(".zip") && UploadHandler.uploadTarget(LibraryIndexer.zoneDir(zone), "", name) == null) {
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+            UploadSessions.Session session = UploadSessions.create(zone, name, size, chunkSize);
+            MMDSyncMod.LOGGER.info("开始分块上传: {} ({} MB, {} 块)", name, size / (1024 * 1024), session.chunkCount());
+            sendStatus(exchange, session);
+        }
+
+        /**
+         * 请求体格式: {"zone": "pmx", "algorithm": "xxh64", "files": [{"name", "size", "hash"}, ...]}
+         * 不带 algorithm 与 hash 时只按大小筛选，返回 {"algorithm", "candidates": [需要计算哈希的文件名]}；
+         * 带哈希时把模型库中已有的文件复制到位，返回 {"placed": [无需上传的文件名]}
+         */
+        private void check(HttpExchange exchange) throws IOException {
+            String zone;
+            String algorithm;
+            List<UploadIngest.Candidate> files = new ArrayList<>();
+            try (Reader reader = new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8)) {
+                JsonObject body = JsonParser.parseReader(reader).getAsJsonObject();
+                zone = body.has("zone") ? body.get("zone").getAsString() : "pmx";
+                algorithm = body.has("algorithm") ? body.get("algorithm").getAsString() : null;
+                for (JsonElement element : body.getAsJsonArray("files")) {
+                    JsonObject file = element.getAsJsonObject();
+                    files.add(new UploadIngest.Candidate(
+                            file.get("name").getAsString(),
+                            file.get("size").getAsLong(),
+                            file.has("hash") ? file.get("hash").getAsString() : null));
                 }
+            } catch (Exception e) {
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
 
-                // 3. 决定是否需要额外的包裹层
-                // 如果剥离后的根层级有多个项，或者只有一个项且是文件，则需要用 ZIP 名包裹
-                boolean needsExtraWrap = false;
-                String firstItem = null;
-                int itemCount = 0;
-                for (String name : entryNames) {
-                    if (!name.startsWith(commonPrefix)) continue;
-                    String relative = name.substring(commonPrefix.length());
-                    if (relative.isEmpty()) continue;
-                    
-                    int slashIndex = relative.indexOf('/');
-                    String item = (slashIndex == -1) ? relative : relative.substring(0, slashIndex);
-                    if (firstItem == null) {
-                        firstItem = item;
-                        itemCount = 1;
-                    } else if (!firstItem.equals(item)) {
-                        itemCount++;
-                        break;
-                    }
+            HashAlgorithm algo = LibraryIndexer.algorithm();
+            JsonObject response = new JsonObject();
+            JsonArray names = new JsonArray();
+            if (algorithm == null) {
+                UploadIngest.sizeMatches(files).forEach(names::add);
+                response.addProperty("algorithm", algo.id());
+                response.add("candidates", names);
+            } else {
+                // 哈希必须与模型库索引使用同一算法
+                if (HashAlgorithm.fromId(algorithm) != algo) {
+                    exchange.sendResponseHeaders(409, -1);
+                    return;
                 }
-                
-                // 如果有多个顶级项，或者顶级项是一个文件（没有斜杠），则需要包裹
-                final String finalCommonPrefix = commonPrefix;
-                final String finalFirstItem = firstItem;
-                if (itemCount > 1 || (finalFirstItem != null && !entryNames.stream().anyMatch(n -> n.equals(finalCommonPrefix + finalFirstItem + "/")))) {
-                    needsExtraWrap = true;
+                String datePrefix = new SimpleDateFormat("yyyy-MM-dd").format(new Date());
+                Path baseDir = LibraryIndexer.zoneDir(zone.equals("vmd") ? "vmd" : "pmx");
+                Set<String> placed = UploadIngest.placeExisting(baseDir, datePrefix, files);
+                placed.forEach(names::add);
+                if (!placed.isEmpty()) {
+                    ManifestCache.invalidate();
+                    MMDSyncMod.LOGGER.info("上传去重: {} 个文件已从模型库复制，无需上传", placed.size());
                 }
+                response.add("placed", names);
+            }
+            sendJson(exchange, response.toString().getBytes(StandardCharsets.UTF_8));
+        }
 
-                final String wrapNameBase = originalName.toLowerCase().endsWith(".zip") 
-                        ? originalName.substring(0, originalName.length() - 4) 
-                        : originalName;
-
-                // 4. 执行解压
-                try (ZipInputStream zis = new ZipInputStream(Files.newInputStream(tempZip))) {
-                    ZipEntry entry;
-                    Map<String, String> dirRenames = new java.util.HashMap<>();
-                    
-                    while ((entry = zis.getNextEntry()) != null) {
-                        String name = entry.getName();
-                        if (!name.startsWith(finalCommonPrefix)) continue;
-                        
-                        String relativePath = name.substring(finalCommonPrefix.length());
-                        if (relativePath.isEmpty()) continue;
-
-                        String finalPath;
-                        if (needsExtraWrap) {
-                            // 使用 wrapName 作为顶级目录
-                            String topName = dirRenames.computeIfAbsent("_wrap_", k -> {
-                                String target = datePrefix + "_" + wrapNameBase;
-                                while (Files.exists(targetBaseDir.resolve(target))) {
-                                    String suffix = Integer.toHexString(new java.util.Random().nextInt(0x10000));
-                                    target = datePrefix + "_" + wrapNameBase + "_" + suffix;
-                                }
-                                return target;
-                            });
-                            finalPath = topName + "/" + relativePath;
-                        } else {
-                            // 原有的逻辑：处理顶级文件夹冲突
-                            int firstSlash = relativePath.indexOf('/');
-                            String topName = (firstSlash == -1) ? relativePath : relativePath.substring(0, firstSlash);
-                            String remaining = (firstSlash == -1) ? "" : relativePath.substring(firstSlash);
-                            
-                            String newTopName = dirRenames.computeIfAbsent(topName, k -> {
-                                String target = datePrefix + "_" + k;
-                                while (Files.exists(targetBaseDir.resolve(target))) {
-                                    String suffix = Integer.toHexString(new java.util.Random().nextInt(0x10000));
-                                    target = datePrefix + "_" + k + "_" + suffix;
-                                }
-                                return target;
-                            });
-                            finalPath = newTopName + remaining;
-                        }
+        private void sendStatus(HttpExchange exchange, UploadSessions.Session session) throws IOException {
+            JsonObject response = new JsonObject();
+            response.addProperty("id", session.id());
+            response.addProperty("name", session.name());
+            response.addProperty("size", session.size());
+            response.addProperty("chunkSize", session.chunkSize());
+            JsonArray received = new JsonArray();
+            for (int index : session.receivedChunks()) {
+                received.add(index);
+            }
+            response.add("received", received);
+            sendJson(exchange, response.toString().getBytes(StandardCharsets.UTF_8));
+        }
 
-                        Path targetFile = targetBaseDir.resolve(finalPath.replace('/', File.separatorChar));
-                        if (entry.isDirectory()) {
-                            Files.createDirectories(targetFile);
-                        } else {
-                            Files.createDirectories(targetFile.getParent());
-                            Files.copy(zis, targetFile, StandardCopyOption.REPLACE_EXISTING);
-                        }
-                        zis.closeEntry();
-                    }
+        private void receiveChunk(HttpExchange exchange, UploadSessions.Session session, String indexText) throws IOException {
+            int index;
+            long crc;
+            try {
+                index = Integer.parseInt(indexText);
+                crc = Long.parseLong(exchange.getRequestHeaders().getFirst(CRC_HEADER), 16);
+            } catch (NumberFormatException e) {
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+            if (index < 0 || index >= session.chunkCount()) {
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+            if (session.isCommitting()) {
+                exchange.sendResponseHeaders(409, -1);
+                return;
+            }
+
+            // 请求体来自可能很慢的浏览器连接，与下载一样在平台线程上读取
+            boolean accepted;
+            try (InputStream in = exchange.getRequestBody()) {
+                accepted = WorkerPools.transfer(() -> UploadSessions.writeChunk(session, index, crc, in));
+            }
+            // 长度或校验值不符时客户端需要重传该块
+            exchange.sendResponseHeaders(accepted ? 204 : 422, -1);
+        }
+
+        private void commit(HttpExchange exchange, UploadSessions.Session session) throws IOException {
+            if (!UploadSessions.beginCommit(session)) {
+                exchange.sendResponseHeaders(409, -1);
+                return;
+            }
+
+            String datePrefix = new SimpleDateFormat("yyyy-MM-dd").format(new Date());
+            Path baseDir = LibraryIndexer.zoneDir(session.zone());
+            try {
+                Files.createDirectories(baseDir);
+                if (session.name().toLowerCase().endsWith(".zip")) {
+                    UploadIngest.ingestZip(session.file(), baseDir, datePrefix, session.name());
+                } else {
+                    Path targetFile = UploadHandler.uploadTarget(baseDir, datePrefix, session.name());
+                    if (targetFile == null) throw new IOException("非法的文件名: " + session.name());
+                    Files.createDirectories(targetFile.getParent());
+                    Files.move(session.file(), targetFile, StandardCopyOption.REPLACE_EXISTING);
+                    // 分块乱序到达，无法边写边算，移动到位后在 CPU 线程池中计算一次并写入缓存
+                    WorkerPools.compute(() -> computeHash(targetFile, LibraryIndexer.algorithm()));
                 }
-            } finally {
-                Files.deleteIfExists(tempZip);
+            } catch (Exception e) {
+                UploadSessions.abortCommit(session);
+                ManifestCache.invalidate();
+                MMDSyncMod.LOGGER.error("提交分块上传失败: {}", session.name(), e);
+                String error = "Upload failed: " + e.getMessage();
+                byte[] bytes = error.getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(500, bytes.length);
+                exchange.getResponseBody().write(bytes);
+                return;
             }
+
+            UploadSessions.remove(session);
+            ManifestCache.invalidate();
+            MMDSyncMod.LOGGER.info("分块上传完成: {}", session.name());
+            String response = "Upload successful";
+            exchange.sendResponseHeaders(200, response.length());
+            exchange.getResponseBody().write(response.getBytes());
         }
+    }
 
-        private Map<String, String> parseQuery(String query) {
-            Map<String, String> result = new java.util.HashMap<>();
-            if (query != null) {
-                for (String param : query.split("&")) {
-                    String[] pair = param.split("=");
-                    if (pair.length > 1) {
-                        result.put(pair[0], URLDecoder.decode(pair[1], StandardCharsets.UTF_8));
-                    }
+    /**
+     * 解析未解码的查询字符串（URI.getRawQuery()），先按 & 与 = 拆分再解码，参数值中编码过的 & = + % 保持原样
+     */
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> result = new java.util.HashMap<>();
+        if (rawQuery != null) {
+            for (String param : rawQuery.split("&")) {
+                String[] pair = param.split("=", 2);
+                if (pair.length > 1) {
+                    result.put(URLDecoder.decode(pair[0], StandardCharsets.UTF_8), URLDecoder.decode(pair[1], StandardCharsets.UTF_8));
                 }
             }
-            return result;
         }
+        return result;
     }
 
-    private static String getCachedMD5(Path path) {
+    static String getFolderHash(Path folder, HashAlgorithm algo) {
+        try (Stream<Path> stream = Files.walk(folder)) {
+            List<String> hashes = stream.filter(Files::isRegularFile)
+                    .sorted()
+                    .map(p -> getCachedHash(p, algo))
+                    .toList();
+            return algo.combine(hashes);
+        } catch (Exception e) {
+            return "";
+        }
+    }
+
+    static String getCachedHash(Path path, HashAlgorithm algo) {
         try {
             if (!Files.exists(path)) return "";
-            long lastModified = Files.getLastModifiedTime(path).toMillis();
-            CacheEntry entry = MD5_CACHE.get(path);
-            
-            if (entry != null && entry.lastModified == lastModified) {
-                return entry.md5;
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            String cached = lookupCachedHash(path, attrs.size(), attrs.lastModifiedTime().toMillis(), algo);
+            if (cached != null) {
+                return cached;
             }
-            
-            // 缓存失效或不存在，重新计算
-            String md5 = getFileMD5(path.toFile());
-            if (!md5.isEmpty()) {
-                MD5_CACHE.put(path, new CacheEntry(md5, lastModified));
-                // 异步保存，避免阻塞当前请求
-                CompletableFuture.runAsync(EmbeddedServer::saveCache);
-            }
-            return md5;
+            // 缓存失效或不存在，交给哈希引擎计算（与预热中的同一文件共享结果）
+            return HashEngine.hash(path, algo).join();
+        } catch (Exception e) {
+            return "";
+        }
+    }
+
+    /**
+     * 仅查询缓存，大小或修改时间不一致、不存在时返回 null
+     */
+    static String lookupCachedHash(Path path, long size, long lastModified, HashAlgorithm algo) {
+        byte[] digest = HASH_CACHES.get(algo).get(path, size, lastModified);
+        return digest != null ? Hex.encode(digest) : null;
+    }
+
+    /**
+     * 重新计算文件哈希并写入缓存，由 HashEngine 在哈希线程中调用
+     */
+    static String computeHash(Path path, HashAlgorithm algo) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            long lastModified = attrs.lastModifiedTime().toMillis();
+            String hash = algo.hashFile(path);
+            cacheHash(path, algo, attrs.size(), lastModified, Hex.decode(hash));
+            return hash;
         } catch (IOException e) {
             return "";
         }
     }
 
+    /**
+     * 写入已知的文件哈希（例如上传时边写入边计算得到的哈希）
+     */
+    static void cacheHash(Path path, HashAlgorithm algo, long size, long lastModified, byte[] digest) {
+        HASH_CACHES.get(algo).put(path, size, lastModified, digest);
+        // 只在日志末尾追加一条记录
+        try {
+            JOURNAL.put(path, algo, size, lastModified, digest);
+        } catch (IOException e) {
+            MMDSyncMod.LOGGER.warn("写入哈希日志失败", e);
+        }
+        compactIfNeeded();
+    }
+
+    /**
+     * 从缓存中移除已删除的文件，并在日志中记录删除
+     */
+    static void forgetHashes(Iterable<Path> paths) {
+        for (Path path : paths) {
+            for (HashAlgorithm algo : HashAlgorithm.values()) {
+                if (HASH_CACHES.get(algo).remove(path)) {
+                    journalRemove(path, algo);
+                }
+            }
+        }
+        compactIfNeeded();
+    }
+
+    /**
+     * 清除不再属于任何资源库文件的缓存条目（例如服务器关闭期间被删除的文件）
+     * @param live 判断路径是否仍是资源库中的文件
+     */
+    static void retainHashes(Predicate<Path> live) {
+        int evicted = 0;
+        for (HashAlgorithm algo : HashAlgorithm.values()) {
+            List<Path> removed = HASH_CACHES.get(algo).removeIf(live.negate());
+            for (Path path : removed) {
+                journalRemove(path, algo);
+            }
+            evicted += removed.size();
+        }
+        if (evicted > 0) {
+            MMDSyncMod.LOGGER.debug("已清除 {} 条失效的哈希缓存", evicted);
+            compactIfNeeded();
+        }
+    }
+
+    private static void journalRemove(Path path, HashAlgorithm algo) {
+        try {
+            JOURNAL.remove(path, algo);
+        } catch (IOException e) {
+            MMDSyncMod.LOGGER.warn("写入哈希日志失败", e);
+        }
+    }
+
+    private static long cacheSize() {
+        long size = 0;
+        for (HashCache cache : HASH_CACHES.values()) {
+            size += cache.size();
+        }
+        return size;
+    }
+
+    // 失效记录过多时在后台压缩日志，同一时间只进行一次
+    private static void compactIfNeeded() {
+        if (JOURNAL.needsCompaction(cacheSize()) && COMPACTING.compareAndSet(false, true)) {
+            CompletableFuture.runAsync(() -> {
+                try {
+                    compactJournal();
+                } finally {
+                    COMPACTING.set(false);
+                }
+            });
+        }
+    }
+
+    private static void compactJournal() {
+        long before = JOURNAL.records();
+        try {
+            JOURNAL.compact(EmbeddedServer::journalEntries);
+            MMDSyncMod.LOGGER.debug("哈希日志已压缩: {} -> {} 条记录", before, JOURNAL.records());
+        } catch (IOException e) {
+            MMDSyncMod.LOGGER.warn("压缩哈希日志失败", e);
+        }
+    }
+
+    // 在日志锁内调用，见 HashJournal.compact
+    private static List<HashJournal.Entry> journalEntries() {
+        List<HashJournal.Entry> entries = new ArrayList<>();
+        for (Map.Entry<HashAlgorithm, HashCache> cache : HASH_CACHES.entrySet()) {
+            HashAlgorithm algo = cache.getKey();
+            cache.getValue().forEach((path, size, lastModified, digest) ->
+                    entries.add(new HashJournal.Entry(path, algo, size, lastModified, digest)));
+        }
+        return entries;
+    }
+
+    // 旧版本按算法分别保存的 JSON 缓存，仅在首次使用日志时迁移
+    private static Path legacyCacheFile(HashAlgorithm algo) {
+        String name = algo == HashAlgorithm.MD5 ? "mmdsync_cache.json" : "mmdsync_cache_" + algo.id() + ".json";
+        return FMLPaths.CONFIGDIR.get().resolve(name);
+    }
+
     private static void loadCache() {
-        Path cacheFile = FMLPaths.CONFIGDIR.get().resolve("mmdsync_cache.json");
-        if (!Files.exists(cacheFile)) return;
+        long start = System.currentTimeMillis();
+        try {
+            JOURNAL.open(new HashJournal.Visitor() {
+                @Override
+                public void put(Path path, HashAlgorithm algo, long size, long lastModified, byte[] digest) {
+                    HASH_CACHES.get(algo).put(path, size, lastModified, digest);
+                }
+
+                @Override
+                public void remove(Path path, HashAlgorithm algo) {
+                    HASH_CACHES.get(algo).remove(path);
+                }
+            });
+        } catch (IOException e) {
+            MMDSyncMod.LOGGER.error("打开哈希日志失败，本次运行不保存哈希缓存", e);
+            return;
+        }
+
+        boolean migrated = false;
+        if (JOURNAL.records() == 0) {
+            for (HashAlgorithm algo : HashAlgorithm.values()) {
+                migrated |= loadLegacyCache(algo);
+            }
+        }
+        if (migrated || JOURNAL.needsCompaction(cacheSize())) {
+            compactJournal();
+        }
+        if (migrated) {
+            for (HashAlgorithm algo : HashAlgorithm.values()) {
+                try {
+                    Files.deleteIfExists(legacyCacheFile(algo));
+                } catch (IOException ignored) {}
+            }
+        }
+        MMDSyncMod.LOGGER.info("已加载 {} 条哈希缓存记录，耗时 {} ms", cacheSize(), System.currentTimeMillis() - start);
+    }
 
+    private static boolean loadLegacyCache(HashAlgorithm algo) {
+        Path cacheFile = legacyCacheFile(algo);
+        if (!Files.exists(cacheFile)) return false;
+
+        HashCache cache = HASH_CACHES.get(algo);
         try (Reader reader = Files.newBufferedReader(cacheFile, StandardCharsets.UTF_8)) {
             JsonObject json = JsonParser.parseReader(reader).getAsJsonObject();
             for (Map.Entry<String, JsonElement> entry : json.entrySet()) {
                 try {
                     Path path = Path.of(entry.getKey());
                     JsonObject data = entry.getValue().getAsJsonObject();
-                    String md5 = data.get("md5").getAsString();
+                    String hash = data.get(algo.id()).getAsString();
                     long lastModified = data.get("lastModified").getAsLong();
-                    MD5_CACHE.put(path, new CacheEntry(md5, lastModified));
+                    // 旧版缓存没有记录大小，记为 -1，只校验修改时间
+                    cache.put(path, -1, lastModified, Hex.decode(hash));
                 } catch (Exception ignored) {}
             }
-            MMDSyncMod.LOGGER.info("已加载 {} 条 MD5 缓存记录", MD5_CACHE.size());
-        } catch (Exception e) {
-            MMDSyncMod.LOGGER.error("加载 MD5 缓存失败", e);
-        }
-    }
-
-    private static synchronized void saveCache() {
-        Path cacheFile = FMLPaths.CONFIGDIR.get().resolve("mmdsync_cache.json");
-        JsonObject json = new JsonObject();
-        for (Map.Entry<Path, CacheEntry> entry : MD5_CACHE.entrySet()) {
-            JsonObject data = new JsonObject();
-            data.addProperty("md5", entry.getValue().md5);
-            data.addProperty("lastModified", entry.getValue().lastModified);
-            json.add(entry.getKey().toString(), data);
-        }
-
-        try (Writer writer = Files.newBufferedWriter(cacheFile, StandardCharsets.UTF_8)) {
-            writer.write(json.toString());
+            MMDSyncMod.LOGGER.info("已从旧版缓存迁移 {} 条 {} 记录", cache.size(), algo.id());
+            return true;
         } catch (Exception e) {
-            MMDSyncMod.LOGGER.error("保存 MD5 缓存失败", e);
+            MMDSyncMod.LOGGER.error("迁移 {} 缓存失败", algo.id(), e);
+            return false;
         }
     }
 
-    private static String getFileMD5(File file) {
-        try (InputStream fis = Files.newInputStream(file.toPath())) {
-            MessageDigest digest = MessageDigest.getInstance("MD5");
-            byte[] buffer = new byte[65536]; // 提升至 64KB 缓冲区，更适合 100MB+ 大文件
-            int n;
-            while ((n = fis.read(buffer)) != -1) {
-                digest.update(buffer, 0, n);
-            }
-            byte[] digestBytes = digest.digest();
-            StringBuilder sb = new StringBuilder();
-            for (byte b : digestBytes) {
-                sb.append(String.format("%02x", b));
-            }
-            return sb.toString();
-        } catch (Exception e) {
-            return "";
+    private static void saveCache() {
+        try {
+            JOURNAL.close();
+        } catch (IOException e) {
+            MMDSyncMod.LOGGER.error("关闭哈希日志失败", e);
         }
     }
 }
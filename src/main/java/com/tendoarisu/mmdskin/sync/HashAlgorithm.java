@@ -0,0 +1,136 @@
+package com.tendoarisu.mmdskin.sync;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * 可选的内容哈希算法，服务端与客户端共用
+ * MD5 为旧版本的默认算法，xxh64 为纯 Java 实现的快速非加密哈希
+ * 哈希日志按声明顺序记录算法，新算法只能追加在末尾
+ */
+public enum HashAlgorithm {
+    MD5("md5", 16) {
+        @Override
+        public Hasher newHasher() {
+            MessageDigest md;
+            try {
+                md = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+            return new Hasher() {
+                @Override
+                public void update(byte[] data, int offset, int length) {
+                    md.update(data, offset, length);
+                }
+
+                @Override
+                public byte[] digest() {
+                    return md.digest();
+                }
+            };
+        }
+    },
+    XXH64("xxh64", 8) {
+        @Override
+        public Hasher newHasher() {
+            XXHash64 xxh = new XXHash64(0);
+            return new Hasher() {
+                @Override
+                public void update(byte[] data, int offset, int length) {
+                    xxh.update(data, offset, length);
+                }
+
+                @Override
+                public byte[] digest() {
+                    return xxh.digest();
+                }
+            };
+        }
+    };
+
+    /**
+     * 客户端在请求头中声明自己支持的算法，旧客户端不会发送此头
+     */
+    public static final String HEADER = "X-MMDSync-Hash";
+
+    private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[65536]);
+
+    private final String id;
+    private final int digestLength;
+
+    HashAlgorithm(String id, int digestLength) {
+        this.id = id;
+        this.digestLength = digestLength;
+    }
+
+    public interface Hasher {
+        void update(byte[] data, int offset, int length);
+
+        byte[] digest();
+    }
+
+    public abstract Hasher newHasher();
+
+    public String id() {
+        return id;
+    }
+
+    public int digestLength() {
+        return digestLength;
+    }
+
+    public static HashAlgorithm fromId(String id) {
+        if (id == null) return null;
+        for (HashAlgorithm algo : values()) {
+            if (algo.id.equalsIgnoreCase(id.trim())) return algo;
+        }
+        return null;
+    }
+
+    /**
+     * 根据客户端声明的算法列表选择清单使用的算法
+     * 客户端支持服务器首选算法时使用首选算法，否则（包括旧客户端）回退到 MD5
+     */
+    public static HashAlgorithm negotiate(String header, HashAlgorithm preferred) {
+        if (header == null || header.isEmpty()) return MD5;
+        for (String id : header.split(",")) {
+            if (fromId(id) == preferred) return preferred;
+        }
+        return MD5;
+    }
+
+    /**
+     * 以 64KB 缓冲区（每个线程复用）计算文件哈希，返回十六进制字符串
+     */
+    public String hashFile(Path file) throws IOException {
+        Hasher hasher = newHasher();
+        byte[] buffer = BUFFER.get();
+        try (InputStream in = Files.newInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                hasher.update(buffer, 0, n);
+            }
+        }
+        return Hex.encode(hasher.digest());
+    }
+
+    /**
+     * 文件夹哈希：按相对路径顺序拼接各文件的十六进制哈希后再次计算哈希
+     */
+    public String combine(Iterable<String> fileHashes) {
+        StringBuilder combined = new StringBuilder();
+        for (String hash : fileHashes) {
+            combined.append(hash);
+        }
+        byte[] bytes = combined.toString().getBytes(StandardCharsets.UTF_8);
+        Hasher hasher = newHasher();
+        hasher.update(bytes, 0, bytes.length);
+        return Hex.encode(hasher.digest());
+    }
+}
@@ -0,0 +1,332 @@
+package com.tendoarisu.mmdskin.sync;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * 紧凑的文件哈希缓存（每种算法一个实例）
+ * 路径拆分为目录与文件名两部分分别驻留为整数 id，条目保存在开放寻址表的基本类型数组中，
+ * 摘要以原始字节连续存放，每个条目只占几十字节，不再为每个文件创建 Path、String 和包装对象
+ * 驻留表按引用计数，不再被任何条目使用的目录与文件名（已删除或改名的文件夹、上传暂存路径）随条目一起移除
+ */
+public final class HashCache {
+    private static final float LOAD_FACTOR = 0.6f;
+    private static final long EMPTY = 0;
+
+    // 目录与文件名的驻留表，所有实例共用，访问时持有 INTERN_LOCK
+    // 每个条目对其目录与文件名各持有一个引用；id 从 1 开始递增且不复用，保证键不为 0，查询中途被移除的 id 也不会指向其他路径
+    private static final Object INTERN_LOCK = new Object();
+    private static final Interner DIRS = new Interner();
+    private static final Interner NAMES = new Interner();
+
+    private final int digestLength;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private long[] keys;
+    private long[] sizes;
+    private long[] lastModified;
+    private byte[] digests;
+    private int count;
+
+    public interface EntryConsumer {
+        void accept(Path path, long size, long lastModified, byte[] digest);
+    }
+
+    public HashCache(int digestLength) {
+        this.digestLength = digestLength;
+        allocate(1024);
+    }
+
+    /**
+     * 大小与修改时间都一致时返回摘要，否则返回 null；size 为 -1 的条目（旧版缓存迁移）只校验修改时间
+     */
+    public byte[] get(Path path, long size, long lastModified) {
+        long key = lookupKey(path);
+        if (key == EMPTY) return null;
+        lock.readLock().lock();
+        try {
+            int slot = find(key);
+            if (slot < 0 || this.lastModified[slot] != lastModified) return null;
+            if (sizes[slot] >= 0 && sizes[slot] != size) return null;
+            byte[] digest = new byte[digestLength];
+            System.arraycopy(digests, slot * digestLength, digest, 0, digestLength);
+            return digest;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void put(Path path, long size, long lastModified, byte[] digest) {
+        if (digest.length != digestLength) return;
+        // 先取得引用，插入前驻留的 id 不会被其他线程移除
+        long key = acquireKey(path);
+        boolean inserted = false;
+        lock.writeLock().lock();
+        try {
+            int slot = find(key);
+            if (slot < 0) {
+                if (count + 1 > keys.length * LOAD_FACTOR) {
+                    resize(keys.length * 2);
+                }
+                slot = insertionSlot(key);
+                keys[slot] = key;
+                count++;
+                inserted = true;
+            }
+            sizes[slot] = size;
+            this.lastModified[slot] = lastModified;
+            System.arraycopy(digest, 0, digests, slot * digestLength, digestLength);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        // 条目已存在，它已经持有引用
+        if (!inserted) releaseKey(key);
+    }
+
+    public boolean remove(Path path) {
+        long key = lookupKey(path);
+        if (key == EMPTY) return false;
+        lock.writeLock().lock();
+        try {
+            int slot = find(key);
+            if (slot < 0) return false;
+            deleteSlot(slot);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 移除所有满足条件的条目
+     * @return 被移除条目的路径
+     */
+    public List<Path> removeIf(Predicate<Path> filter) {
+        List<Path> removed = new ArrayList<>();
+        lock.writeLock().lock();
+        try {
+            int slot = 0;
+            while (slot < keys.length) {
+                if (keys[slot] != EMPTY) {
+                    Path path = toPath(keys[slot]);
+                    if (filter.test(path)) {
+                        removed.add(path);
+                        // 删除后后续条目可能前移到当前位置，需要重新检查
+                        deleteSlot(slot);
+                        continue;
+                    }
+                }
+                slot++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return removed;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void forEach(EntryConsumer consumer) {
+        lock.readLock().lock();
+        try {
+            for (int slot = 0; slot < keys.length; slot++) {
+                if (keys[slot] == EMPTY) continue;
+                byte[] digest = new byte[digestLength];
+                System.arraycopy(digests, slot * digestLength, digest, 0, digestLength);
+                consumer.accept(toPath(keys[slot]), sizes[slot], lastModified[slot], digest);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        sizes = new long[capacity];
+        lastModified = new long[capacity];
+        digests = new byte[capacity * digestLength];
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        long[] oldSizes = sizes;
+        long[] oldLastModified = lastModified;
+        byte[] oldDigests = digests;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == EMPTY) continue;
+            int slot = insertionSlot(oldKeys[i]);
+            keys[slot] = oldKeys[i];
+            sizes[slot] = oldSizes[i];
+            lastModified[slot] = oldLastModified[i];
+            System.arraycopy(oldDigests, i * digestLength, digests, slot * digestLength, digestLength);
+        }
+    }
+
+    private int find(long key) {
+        int mask = keys.length - 1;
+        for (int slot = mix(key) & mask; ; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) return slot;
+            if (keys[slot] == EMPTY) return -1;
+        }
+    }
+
+    private int insertionSlot(long key) {
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (keys[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    // 线性探测的回移删除，不留墓碑
+    private void deleteSlot(int slot) {
+        long key = keys[slot];
+        int mask = keys.length - 1;
+        int hole = slot;
+        for (int next = (hole + 1) & mask; keys[next] != EMPTY; next = (next + 1) & mask) {
+            int home = mix(keys[next]) & mask;
+            // home 不在 (hole, next] 区间内时，该条目可以移动到空位
+            if (hole <= next ? (home <= hole || home > next) : (home <= hole && home > next)) {
+                keys[hole] = keys[next];
+                sizes[hole] = sizes[next];
+                lastModified[hole] = lastModified[next];
+                System.arraycopy(digests, next * digestLength, digests, hole * digestLength, digestLength);
+                hole = next;
+            }
+        }
+        keys[hole] = EMPTY;
+        count--;
+        releaseKey(key);
+    }
+
+    private static int mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xFF51AFD7ED558CCDL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    // 查询时不新增驻留字符串，未出现过的目录或文件名必然不在缓存中
+    private static long lookupKey(Path path) {
+        String dir = dirOf(path);
+        String name = nameOf(path);
+        synchronized (INTERN_LOCK) {
+            int dirId = DIRS.id(dir);
+            int nameId = NAMES.id(name);
+            if (dirId == 0 || nameId == 0) return EMPTY;
+            return ((long) dirId << 32) | (nameId & 0xFFFFFFFFL);
+        }
+    }
+
+    private static long acquireKey(Path path) {
+        String dir = dirOf(path);
+        String name = nameOf(path);
+        synchronized (INTERN_LOCK) {
+            return ((long) DIRS.acquire(dir) << 32) | (NAMES.acquire(name) & 0xFFFFFFFFL);
+        }
+    }
+
+    private static void releaseKey(long key) {
+        synchronized (INTERN_LOCK) {
+            DIRS.release((int) (key >>> 32));
+            NAMES.release((int) key);
+        }
+    }
+
+    private static Path toPath(long key) {
+        String dir;
+        String name;
+        synchronized (INTERN_LOCK) {
+            dir = DIRS.value((int) (key >>> 32));
+            name = NAMES.value((int) key);
+        }
+        return dir.isEmpty() ? Path.of(name) : Path.of(dir, name);
+    }
+
+    /**
+     * 当前驻留的目录与文件名总数
+     */
+    static int internedCount() {
+        synchronized (INTERN_LOCK) {
+            return DIRS.size() + NAMES.size();
+        }
+    }
+
+    private static String dirOf(Path path) {
+        Path parent = path.getParent();
+        return parent != null ? parent.toString() : "";
+    }
+
+    private static String nameOf(Path path) {
+        Path name = path.getFileName();
+        return name != null ? name.toString() : "";
+    }
+
+    /**
+     * 带引用计数的字符串驻留表，调用方需持有 INTERN_LOCK
+     */
+    private static final class Interner {
+        private final Map<String, Interned> byValue = new HashMap<>();
+        private final Map<Integer, Interned> byId = new HashMap<>();
+        private int nextId = 1;
+
+        private static final class Interned {
+            final int id;
+            final String value;
+            int refs;
+
+            Interned(int id, String value) {
+                this.id = id;
+                this.value = value;
+            }
+        }
+
+        /**
+         * @return 未驻留时返回 0
+         */
+        int id(String value) {
+            Interned interned = byValue.get(value);
+            return interned != null ? interned.id : 0;
+        }
+
+        int acquire(String value) {
+            Interned interned = byValue.get(value);
+            if (interned == null) {
+                interned = new Interned(nextId++, value);
+                byValue.put(value, interned);
+                byId.put(interned.id, interned);
+            }
+            interned.refs++;
+            return interned.id;
+        }
+
+        void release(int id) {
+            Interned interned = byId.get(id);
+            if (interned != null && --interned.refs <= 0) {
+                byId.remove(id);
+                byValue.remove(interned.value);
+            }
+        }
+
+        String value(int id) {
+            return byId.get(id).value;
+        }
+
+        int size() {
+            return byValue.size();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.tendoarisu.mmdskin.sync;
+
+import com.opdent.mmdskin.sync.MMDSyncMod;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 专用的并行哈希计算引擎
+ * 使用固定大小的 ForkJoinPool，同一文件的并发请求共享同一个 Future，避免重复读取
+ */
+public class HashEngine {
+    private static final Map<Key, CompletableFuture<String>> IN_FLIGHT = new ConcurrentHashMap<>();
+    private static final AtomicLong SUBMITTED_FILES = new AtomicLong();
+    private static final AtomicLong COMPLETED_FILES = new AtomicLong();
+    private static final AtomicLong SUBMITTED_BYTES = new AtomicLong();
+    private static final AtomicLong COMPLETED_BYTES = new AtomicLong();
+    private static volatile ForkJoinPool pool;
+
+    private record Key(Path path, HashAlgorithm algo) {}
+
+    public static void start() {
+        int threads = Config.HASH_THREADS > 0
+                ? Config.HASH_THREADS
+                : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        pool = new ForkJoinPool(threads, p -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            t.setName("MMDSync-Hash-" + t.getPoolIndex());
+            t.setDaemon(true);
+            return t;
+        }, null, false);
+        resetProgress();
+        MMDSyncMod.LOGGER.info("哈希计算线程数: {}", threads);
+    }
+
+    public static void stop() {
+        ForkJoinPool p = pool;
+        pool = null;
+        if (p != null) {
+            p.shutdownNow();
+        }
+        IN_FLIGHT.values().forEach(f -> f.cancel(false));
+        IN_FLIGHT.clear();
+    }
+
+    /**
+     * 在哈希线程池中计算文件哈希并写入缓存；若同一文件已在计算中则直接返回已有的 Future
+     */
+    public static CompletableFuture<String> hash(Path path, HashAlgorithm algo) {
+        Key key = new Key(path, algo);
+        CompletableFuture<String> created = new CompletableFuture<>();
+        CompletableFuture<String> existing = IN_FLIGHT.putIfAbsent(key, created);
+        if (existing != null) {
+            return existing;
+        }
+
+        long size = sizeOrZero(path);
+        SUBMITTED_FILES.incrementAndGet();
+        SUBMITTED_BYTES.addAndGet(size);
+        Runnable task = () -> {
+            try {
+                created.complete(EmbeddedServer.computeHash(path, algo));
+            } catch (Throwable t) {
+                created.completeExceptionally(t);
+            } finally {
+                IN_FLIGHT.remove(key, created);
+                COMPLETED_FILES.incrementAndGet();
+                COMPLETED_BYTES.addAndGet(size);
+            }
+        };
+
+        ForkJoinPool p = pool;
+        if (p == null) {
+            // 引擎未启动（例如服务器正在关闭），直接在当前线程计算
+            task.run();
+            return created;
+        }
+        try {
+            p.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run();
+        }
+        return created;
+    }
+
+    public static void resetProgress() {
+        SUBMITTED_FILES.set(0);
+        COMPLETED_FILES.set(0);
+        SUBMITTED_BYTES.set(0);
+        COMPLETED_BYTES.set(0);
+    }
+
+    public static long completedFiles() {
+        return COMPLETED_FILES.get();
+    }
+
+    public static long submittedFiles() {
+        return SUBMITTED_FILES.get();
+    }
+
+    public static long completedBytes() {
+        return COMPLETED_BYTES.get();
+    }
+
+    public static long submittedBytes() {
+        return SUBMITTED_BYTES.get();
+    }
+
+    public static String progress() {
+        return String.format("%d/%d 个文件, %.1f/%.1f MB",
+                COMPLETED_FILES.get(), SUBMITTED_FILES.get(),
+                COMPLETED_BYTES.get() / 1048576.0, SUBMITTED_BYTES.get() / 1048576.0);
+    }
+
+    private static long sizeOrZero(Path path) {
+        try {
+            return Files.size(path);
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+}
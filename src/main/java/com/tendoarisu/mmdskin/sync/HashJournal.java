@@ -0,0 +1,259 @@
+package com.tendoarisu.mmdskin.sync;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * 只追加的二进制哈希日志
+ * 每次计算出新哈希只在末尾追加一条记录，不再整体重写缓存文件；
+ * 失效记录积累过多时整体压缩一次。启动时通过内存映射顺序扫描回放。
+ *
+ * 文件格式: "MMDJ" + 版本(1 字节)，之后为连续的记录:
+ *   长度(4) | 类型(1) | 算法(1) | 路径长度(2) | 路径(UTF-8) | [大小(8) | 修改时间(8) | 摘要长度(1) | 摘要] | CRC32(4)
+ * 长度与 CRC32 均只覆盖中间的记录内容。写入中途崩溃时，末尾残缺或校验失败的记录在下次打开时被截掉。
+ */
+public class HashJournal implements Closeable {
+    private static final byte[] MAGIC = {'M', 'M', 'D', 'J'};
+    private static final byte VERSION = 1;
+    private static final int HEADER_SIZE = MAGIC.length + 1;
+    private static final byte TYPE_PUT = 1;
+    private static final byte TYPE_REMOVE = 2;
+    // 单条记录内容的上限，超过说明长度字段已损坏
+    private static final int MAX_RECORD_SIZE = 64 * 1024;
+    // 至少积累这么多条记录后才考虑压缩
+    private static final long COMPACT_MIN_RECORDS = 1000;
+
+    private final Path file;
+    private final CRC32 crc = new CRC32();
+    private FileChannel channel;
+    private long records;
+
+    /**
+     * 回放日志时的回调
+     */
+    public interface Visitor {
+        void put(Path path, HashAlgorithm algo, long size, long lastModified, byte[] digest);
+
+        void remove(Path path, HashAlgorithm algo);
+    }
+
+    /**
+     * 压缩时写入的有效记录
+     */
+    public record Entry(Path path, HashAlgorithm algo, long size, long lastModified, byte[] digest) {}
+
+    public HashJournal(Path file) {
+        this.file = file;
+    }
+
+    public Path file() {
+        return file;
+    }
+
+    public long records() {
+        return records;
+    }
+
+    /**
+     * 回放已有记录并打开日志用于追加
+     */
+    public synchronized void open(Visitor visitor) throws IOException {
+        Files.createDirectories(file.getParent());
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        long valid = size >= HEADER_SIZE ? replay(visitor, size) : 0;
+
+        if (valid < HEADER_SIZE) {
+            // 新文件或文件头损坏，从头开始
+            channel.write(ByteBuffer.wrap(header()), 0);
+            records = 0;
+            valid = HEADER_SIZE;
+        }
+        if (valid < channel.size()) {
+            try {
+                channel.truncate(valid);
+            } catch (IOException e) {
+                // Windows 上仍处于内存映射中的文件无法截断，之后的记录直接覆盖残缺部分，
+                // 覆盖不到的剩余字节无法通过校验，下次回放时同样会被丢弃
+            }
+        }
+        channel.position(valid);
+    }
+
+    public synchronized void put(Path path, HashAlgorithm algo, long size, long lastModified, byte[] digest) throws IOException {
+        if (channel == null) return;
+        write(channel, encode(TYPE_PUT, path, algo, size, lastModified, digest));
+        records++;
+    }
+
+    public synchronized void remove(Path path, HashAlgorithm algo) throws IOException {
+        if (channel == null) return;
+        write(channel, encode(TYPE_REMOVE, path, algo, 0, 0, null));
+        records++;
+    }
+
+    /**
+     * 记录数明显多于有效条目时需要压缩
+     */
+    public synchronized boolean needsCompaction(long liveEntries) {
+        return channel != null && records >= COMPACT_MIN_RECORDS && records > liveEntries * 2;
+    }
+
+    /**
+     * 只写入当前有效的条目到新文件，完成后原子替换旧日志
+     * snapshot 在日志锁内调用，期间的 put / remove 会等待替换完成后追加到新文件，不会写入即将被替换的旧文件而丢失；
+     * 调用方需先更新内存中的条目再写日志，快照才不会漏掉已写入旧文件的记录
+     */
+    public synchronized void compact(Supplier<? extends Iterable<Entry>> snapshot) throws IOException {
+        if (channel == null) return;
+        Iterable<Entry> entries = snapshot.get();
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        long count = 0;
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(256 * 1024);
+            buffer.put(header());
+            for (Entry entry : entries) {
+                byte[] record = encode(TYPE_PUT, entry.path(), entry.algo(), entry.size(), entry.lastModified(), entry.digest());
+                if (buffer.remaining() < record.length) {
+                    buffer.flip();
+                    write(out, buffer);
+                    buffer.clear();
+                }
+                buffer.put(record);
+                count++;
+            }
+            buffer.flip();
+            write(out, buffer);
+            out.force(true);
+        }
+
+        channel.close();
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // 替换失败（例如旧文件仍被映射）时继续使用旧日志，下次再尝试压缩
+            Files.deleteIfExists(temp);
+            channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            channel.position(channel.size());
+            throw e;
+        }
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        records = count;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel == null) return;
+        try {
+            channel.force(false);
+        } finally {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * 通过内存映射顺序读取全部记录
+     * @return 最后一条完整且校验通过的记录之后的位置
+     */
+    private long replay(Visitor visitor, long size) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        for (byte b : MAGIC) {
+            if (buffer.get() != b) return 0;
+        }
+        if (buffer.get() != VERSION) return 0;
+
+        long count = 0;
+        byte[] payload = new byte[256];
+        while (buffer.remaining() >= 4) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            if (length <= 0 || length > MAX_RECORD_SIZE || buffer.remaining() < length + 4) {
+                buffer.position(start);
+                break;
+            }
+            if (payload.length < length) payload = new byte[length];
+            buffer.get(payload, 0, length);
+            crc.reset();
+            crc.update(payload, 0, length);
+            if ((int) crc.getValue() != buffer.getInt()) {
+                buffer.position(start);
+                break;
+            }
+            try {
+                decode(ByteBuffer.wrap(payload, 0, length), visitor);
+            } catch (RuntimeException ignored) {
+                // 校验通过但内容无法识别（例如来自更新版本的算法），跳过该记录
+            }
+            count++;
+        }
+        records = count;
+        return buffer.position();
+    }
+
+    private static void decode(ByteBuffer payload, Visitor visitor) {
+        byte type = payload.get();
+        HashAlgorithm algo = HashAlgorithm.values()[payload.get()];
+        byte[] pathBytes = new byte[Short.toUnsignedInt(payload.getShort())];
+        payload.get(pathBytes);
+        Path path = Path.of(new String(pathBytes, StandardCharsets.UTF_8));
+        if (type == TYPE_PUT) {
+            long size = payload.getLong();
+            long lastModified = payload.getLong();
+            byte[] digest = new byte[Byte.toUnsignedInt(payload.get())];
+            payload.get(digest);
+            visitor.put(path, algo, size, lastModified, digest);
+        } else if (type == TYPE_REMOVE) {
+            visitor.remove(path, algo);
+        }
+    }
+
+    private byte[] encode(byte type, Path path, HashAlgorithm algo, long size, long lastModified, byte[] digest) {
+        byte[] pathBytes = path.toString().getBytes(StandardCharsets.UTF_8);
+        int length = 1 + 1 + 2 + pathBytes.length + (type == TYPE_PUT ? 8 + 8 + 1 + digest.length : 0);
+        ByteBuffer buffer = ByteBuffer.allocate(4 + length + 4);
+        buffer.putInt(length);
+        buffer.put(type);
+        buffer.put((byte) algo.ordinal());
+        buffer.putShort((short) pathBytes.length);
+        buffer.put(pathBytes);
+        if (type == TYPE_PUT) {
+            buffer.putLong(size);
+            buffer.putLong(lastModified);
+            buffer.put((byte) digest.length);
+            buffer.put(digest);
+        }
+        crc.reset();
+        crc.update(buffer.array(), 4, length);
+        buffer.putInt((int) crc.getValue());
+        return buffer.array();
+    }
+
+    private static byte[] header() {
+        byte[] header = new byte[HEADER_SIZE];
+        System.arraycopy(MAGIC, 0, header, 0, MAGIC.length);
+        header[MAGIC.length] = VERSION;
+        return header;
+    }
+
+    private static void write(FileChannel target, byte[] data) throws IOException {
+        write(target, ByteBuffer.wrap(data));
+    }
+
+    private static void write(FileChannel target, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+    }
+}
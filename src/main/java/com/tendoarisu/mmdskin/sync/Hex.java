@@ -0,0 +1,49 @@
+package com.tendoarisu.mmdskin.sync;
+
+/**
+ * 十六进制编解码，替代逐字节 String.format("%02x")
+ */
+public final class Hex {
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+    private Hex() {}
+
+    public static String encode(byte[] bytes) {
+        char[] out = new char[bytes.length * 2];
+        encode(bytes, out, 0);
+        return new String(out);
+    }
+
+    /**
+     * 写入调用方提供的字符数组，热路径中可以复用同一个数组而不产生临时对象
+     */
+    public static void encode(byte[] bytes, char[] out, int offset) {
+        for (int i = 0; i < bytes.length; i++) {
+            int v = bytes[i] & 0xFF;
+            out[offset + i * 2] = DIGITS[v >>> 4];
+            out[offset + i * 2 + 1] = DIGITS[v & 0x0F];
+        }
+    }
+
+    public static void appendTo(StringBuilder sb, byte[] bytes) {
+        for (byte b : bytes) {
+            int v = b & 0xFF;
+            sb.append(DIGITS[v >>> 4]).append(DIGITS[v & 0x0F]);
+        }
+    }
+
+    /**
+     * 解析十六进制字符串，格式不正确时返回 null
+     */
+    public static byte[] decode(String hex) {
+        if (hex == null || (hex.length() & 1) != 0) return null;
+        byte[] out = new byte[hex.length() / 2];
+        for (int i = 0; i < out.length; i++) {
+            int hi = Character.digit(hex.charAt(i * 2), 16);
+            int lo = Character.digit(hex.charAt(i * 2 + 1), 16);
+            if (hi < 0 || lo < 0) return null;
+            out[i] = (byte) ((hi << 4) | lo);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,88 @@
+package com.tendoarisu.mmdskin.sync;
+
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 模型库变更记录
+ * 每次文件夹新增、内容变化或删除，版本号加一并记录一条变更，只在内存中保留最近的 MAX_ENTRIES 条。
+ * 版本号只在同一 epoch 内有意义：epoch 在服务器启动完成首次索引时随机生成，重启后客户端持有的版本一律失效。
+ */
+public class LibraryChangeLog {
+    // /api/sync 响应中清单对应的库版本
+    public static final String EPOCH_HEADER = "X-MMDSync-Library-Epoch";
+    public static final String VERSION_HEADER = "X-MMDSync-Library-Version";
+    private static final int MAX_ENTRIES = 4096;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private static final Deque<Change> LOG = new ArrayDeque<>();
+    private static long epoch = 0;
+    private static long version = 0;
+
+    /**
+     * 单条变更，hash 为索引主算法的文件夹哈希，文件夹被删除时为 null
+     */
+    public record Change(long version, String zone, String name, String hash) {}
+
+    /**
+     * 清单对应的库版本
+     */
+    public record Position(long epoch, long version) {}
+
+    /**
+     * 从 fromVersion（不含）到 toVersion 的变更，同一文件夹只保留最后一条
+     */
+    public record Delta(long epoch, long fromVersion, long toVersion, List<Change> changes) {}
+
+    /**
+     * 开始新的 epoch 并清空记录，首次全量索引完成后调用，启动时的扫描结果不作为变更下发
+     */
+    public static synchronized void reset() {
+        long next;
+        do {
+            next = RANDOM.nextLong();
+        } while (next == 0 || next == epoch);
+        epoch = next;
+        version = 0;
+        LOG.clear();
+    }
+
+    public static synchronized void record(String zone, String name, String hash) {
+        // 首次索引完成前没有可以衔接的版本
+        if (epoch == 0) return;
+        version++;
+        LOG.addLast(new Change(version, zone, name, hash));
+        while (LOG.size() > MAX_ENTRIES) {
+            LOG.removeFirst();
+        }
+    }
+
+    public static synchronized Position position() {
+        return new Position(epoch, version);
+    }
+
+    /**
+     * @return fromVersion 之后的变更；尚未开始 epoch、epoch 不一致、版本超前或记录已不再覆盖 fromVersion 时返回 null，调用方需要完整清单
+     */
+    public static synchronized Delta since(long fromEpoch, long fromVersion) {
+        // 首次索引完成前 epoch 为 0，缺少版本头的客户端也会带 0，两者不能衔接
+        if (epoch == 0 || fromEpoch != epoch || fromVersion < 0 || fromVersion > version) return null;
+        // 最早一条之前的变更已被丢弃
+        long oldest = LOG.isEmpty() ? version + 1 : LOG.peekFirst().version();
+        if (fromVersion < oldest - 1) return null;
+
+        Map<String, Change> latest = new LinkedHashMap<>();
+        for (Change change : LOG) {
+            if (change.version() <= fromVersion) continue;
+            String key = change.zone() + "/" + change.name();
+            latest.remove(key);
+            latest.put(key, change);
+        }
+        return new Delta(epoch, fromVersion, version, new ArrayList<>(latest.values()));
+    }
+}
@@ -0,0 +1,521 @@
+package com.tendoarisu.mmdskin.sync;
+
+import com.opdent.mmdskin.sync.MMDSyncMod;
+import net.neoforged.fml.loading.FMLPaths;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * 模型库增量索引
+ * 启动时扫描一次 EntityPlayer / StageAnim，之后通过 WatchService 监听变化，
+ * 合并短时间内的连续事件，只重新计算被改动的文件夹
+ */
+public class LibraryIndexer {
+    public static final String[] ZONES = {"pmx", "vmd"};
+    private static final long DEBOUNCE_MILLIS = 500;
+    private static final long PROGRESS_LOG_MILLIS = 5000;
+
+    // zone -> 文件夹名 -> 索引
+    private static final Map<String, Map<String, FolderIndex>> INDEX = new ConcurrentHashMap<>();
+    // zone -> 待重新索引的文件夹名
+    private static final Map<String, Set<String>> DIRTY = new ConcurrentHashMap<>();
+    private static final Map<WatchKey, Path> WATCH_KEYS = new ConcurrentHashMap<>();
+
+    private static WatchService watcher;
+    private static Thread watchThread;
+    private static ScheduledExecutorService scheduler;
+    private static volatile boolean watching = false;
+    private static volatile long lastEventTime = 0;
+    private static volatile CompletableFuture<Void> ready = CompletableFuture.completedFuture(null);
+    // 索引使用的主算法，其他算法的文件夹哈希在有旧客户端请求时才按需计算
+    private static volatile HashAlgorithm algorithm = HashAlgorithm.MD5;
+
+    /**
+     * 单个文件的索引记录，size 与 lastModified 用于判断是否需要重新计算哈希
+     */
+    public record FileRecord(long size, long lastModified, String hash) {}
+
+    /**
+     * 文件夹索引，files 按相对路径排序，与原先 Files.walk().sorted() 的顺序一致
+     * hash 为主算法的文件夹哈希，其他算法的结果缓存在 otherHashes 中，文件夹变化时整个索引对象被替换
+     */
+    public record FolderIndex(String name, Path dir, Map<Path, FileRecord> files, String hash, Map<HashAlgorithm, String> otherHashes) {
+        public String hash(HashAlgorithm algo) {
+            if (algo == algorithm) return hash;
+            return otherHashes.computeIfAbsent(algo, a -> a.combine(files.keySet().stream()
+                    .map(rel -> EmbeddedServer.getCachedHash(dir.resolve(rel), a))
+                    .toList()));
+        }
+    }
+
+    public static Path zoneDir(String zone) {
+        return FMLPaths.GAMEDIR.get().resolve(zone.equals("pmx") ? "3d-skin/EntityPlayer" : "3d-skin/StageAnim");
+    }
+
+    public static boolean isZone(String zone) {
+        return "pmx".equals(zone) || "vmd".equals(zone);
+    }
+
+    /**
+     * 请求中的区域与文件夹名对应的目录，所有按名称访问文件夹的接口都先经过这里
+     * 区域只能是 pmx 或 vmd，文件夹名只能是区域目录下的一级名称，"../world" 之类的名称不会越出资源目录
+     * @return 不合法时返回 null，不检查目录是否存在
+     */
+    public static Path folderDir(String zone, String name) {
+        if (!isZone(zone) || name == null || name.isEmpty() || name.equals(".") || name.equals("..")) return null;
+        Path root = zoneDir(zone).normalize();
+        try {
+            Path target = root.resolve(name).normalize();
+            return root.equals(target.getParent()) ? target : null;
+        } catch (InvalidPathException e) {
+            return null;
+        }
+    }
+
+    public static void start() {
+        HashAlgorithm configured = HashAlgorithm.fromId(Config.HASH_ALGORITHM);
+        algorithm = configured != null ? configured : HashAlgorithm.MD5;
+
+        for (String zone : ZONES) {
+            INDEX.put(zone, new ConcurrentHashMap<>());
+            DIRTY.put(zone, ConcurrentHashMap.newKeySet());
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "MMDSync-Indexer");
+            t.setDaemon(true);
+            return t;
+        });
+
+        try {
+            watcher = FileSystems.getDefault().newWatchService();
+            for (String zone : ZONES) {
+                Path root = zoneDir(zone);
+                Files.createDirectories(root);
+                registerRecursive(root);
+            }
+            watching = true;
+        } catch (IOException e) {
+            // 例如 inotify 监听数量达到上限，此时退回到定期全量扫描
+            MMDSyncMod.LOGGER.warn("无法监听模型目录变化，将退回定期全量扫描", e);
+            closeWatcher();
+        }
+
+        ready = CompletableFuture.runAsync(() -> {
+            rescanAll();
+            // 启动时的扫描结果即为初始状态，之后的改动才记为变更
+            LibraryChangeLog.reset();
+        }, scheduler);
+
+        if (watching) {
+            watchThread = new Thread(LibraryIndexer::watchLoop, "MMDSync-Watcher");
+            watchThread.setDaemon(true);
+            watchThread.start();
+        }
+    }
+
+    public static void stop() {
+        watching = false;
+        closeWatcher();
+        if (watchThread != null) {
+            watchThread.interrupt();
+            watchThread = null;
+        }
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        WATCH_KEYS.clear();
+    }
+
+    public static HashAlgorithm algorithm() {
+        return algorithm;
+    }
+
+    public static boolean isWatching() {
+        return watching;
+    }
+
+    /**
+     * 等待启动时的首次扫描完成
+     */
+    public static void awaitReady() {
+        try {
+            ready.join();
+        } catch (Exception e) {
+            MMDSyncMod.LOGGER.error("模型库首次索引失败", e);
+        }
+    }
+
+    /**
+     * 返回某个区域内所有文件夹的索引，按文件夹名排序
+     */
+    public static List<FolderIndex> folders(String zone) {
+        Map<String, FolderIndex> zoneIndex = INDEX.get(zone);
+        if (zoneIndex == null) return Collections.emptyList();
+        List<FolderIndex> result = new ArrayList<>(zoneIndex.values());
+        result.sort((a, b) -> a.name().compareTo(b.name()));
+        return result;
+    }
+
+    /**
+     * 返回单个文件夹的索引，不存在时返回 null
+     */
+    public static FolderIndex folder(String zone, String name) {
+        Map<String, FolderIndex> zoneIndex = INDEX.get(zone);
+        return zoneIndex != null ? zoneIndex.get(name) : null;
+    }
+
+    /**
+     * 获取主算法的文件夹哈希
+     */
+    public static String getFolderHash(String zone, String folderName, Path folder) {
+        return getFolderHash(zone, folderName, folder, algorithm);
+    }
+
+    /**
+     * 获取文件夹哈希；索引中没有时（刚刚创建尚未索引）直接计算
+     */
+    public static String getFolderHash(String zone, String folderName, Path folder, HashAlgorithm algo) {
+        // 预热期间不单独计算，等待预热结果
+        awaitReady();
+        Map<String, FolderIndex> zoneIndex = INDEX.get(zone);
+        FolderIndex index = zoneIndex != null ? zoneIndex.get(folderName) : null;
+        if (index != null && !isDirty(zone, folderName)) {
+            return index.hash(algo);
+        }
+        return EmbeddedServer.getFolderHash(folder, algo);
+    }
+
+    /**
+     * 获取文件夹内每个文件的记录（相对路径 -> 大小、修改时间、哈希），按相对路径排序
+     * 索引中没有或请求的不是主算法时，逐个文件读取哈希缓存
+     */
+    public static Map<Path, FileRecord> getFileRecords(String zone, String folderName, Path folder, HashAlgorithm algo) throws IOException {
+        awaitReady();
+        Map<String, FolderIndex> zoneIndex = INDEX.get(zone);
+        FolderIndex index = zoneIndex != null ? zoneIndex.get(folderName) : null;
+        if (index != null && !isDirty(zone, folderName)) {
+            if (algo == algorithm) return index.files();
+            Map<Path, FileRecord> result = new TreeMap<>();
+            index.files().forEach((rel, record) -> result.put(rel,
+                    new FileRecord(record.size(), record.lastModified(), EmbeddedServer.getCachedHash(folder.resolve(rel), algo))));
+            return result;
+        }
+
+        Map<Path, FileRecord> result = new TreeMap<>();
+        try (Stream<Path> stream = Files.walk(folder)) {
+            for (Path p : (Iterable<Path>) stream::iterator) {
+                BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class);
+                if (!attrs.isRegularFile()) continue;
+                result.put(folder.relativize(p), new FileRecord(attrs.size(), attrs.lastModifiedTime().toMillis(), EmbeddedServer.getCachedHash(p, algo)));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 全量扫描两个区域，未变化的文件直接复用内存中的记录
+     * 先遍历所有文件夹并把需要计算的文件一次性交给 HashEngine 并行处理，再逐个汇总
+     */
+    public static synchronized void rescanAll() {
+        long start = System.currentTimeMillis();
+        HashEngine.resetProgress();
+
+        List<PendingFolder> pending = new ArrayList<>();
+        for (String zone : ZONES) {
+            Path root = zoneDir(zone);
+            Set<String> present = ConcurrentHashMap.newKeySet();
+            if (Files.isDirectory(root)) {
+                try (Stream<Path> stream = Files.list(root)) {
+                    stream.filter(Files::isDirectory).forEach(folder -> present.add(folder.getFileName().toString()));
+                } catch (IOException e) {
+                    MMDSyncMod.LOGGER.error("扫描文件夹失败: {}", root, e);
+                }
+            }
+            INDEX.get(zone).values().removeIf(index -> {
+                if (present.contains(index.name())) return false;
+                forgetRemoved(index, Collections.emptyMap());
+                LibraryChangeLog.record(zone, index.name(), null);
+                return true;
+            });
+            for (String name : present) {
+                PendingFolder folder = scanFolder(zone, name);
+                if (folder != null) pending.add(folder);
+            }
+            DIRTY.get(zone).clear();
+        }
+
+        long lastLog = System.currentTimeMillis();
+        for (PendingFolder folder : pending) {
+            completeFolder(folder);
+            if (System.currentTimeMillis() - lastLog >= PROGRESS_LOG_MILLIS) {
+                lastLog = System.currentTimeMillis();
+                MMDSyncMod.LOGGER.info("正在预热哈希缓存: {}", HashEngine.progress());
+            }
+        }
+
+        // 全量扫描后清除服务器关闭期间被删除或移走的文件的哈希缓存
+        EmbeddedServer.retainHashes(LibraryIndexer::isIndexed);
+        ManifestCache.invalidate();
+        MMDSyncMod.LOGGER.info("模型库索引完成: {} 个模型, {} 个动作, 计算哈希 {}, 耗时 {} ms",
+                INDEX.get("pmx").size(), INDEX.get("vmd").size(), HashEngine.progress(), System.currentTimeMillis() - start);
+    }
+
+    private static boolean isDirty(String zone, String folderName) {
+        Set<String> dirty = DIRTY.get(zone);
+        return dirty != null && dirty.contains(folderName);
+    }
+
+    private static void watchLoop() {
+        WatchService service = watcher;
+        while (watching) {
+            WatchKey key;
+            try {
+                key = service.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            Path dir = WATCH_KEYS.get(key);
+            if (dir != null) {
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        // 事件丢失，无法判断具体改动，标记全部文件夹
+                        markAllDirty();
+                        continue;
+                    }
+                    Path child = dir.resolve((Path) event.context());
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(child)) {
+                        try {
+                            registerRecursive(child);
+                        } catch (IOException e) {
+                            MMDSyncMod.LOGGER.warn("无法监听新目录: {}", child, e);
+                        }
+                    }
+                    markDirty(child);
+                }
+            }
+
+            if (!key.reset()) {
+                WATCH_KEYS.remove(key);
+            }
+        }
+    }
+
+    private static void markDirty(Path changed) {
+        for (String zone : ZONES) {
+            Path root = zoneDir(zone);
+            if (!changed.startsWith(root) || changed.equals(root)) continue;
+
+            Path rel = root.relativize(changed);
+            // 根目录下的散文件不属于任何模型文件夹，但同名文件夹可能被删除，统一交给重新索引判断
+            DIRTY.get(zone).add(rel.getName(0).toString());
+            scheduleFlush();
+            return;
+        }
+    }
+
+    private static void markAllDirty() {
+        for (String zone : ZONES) {
+            DIRTY.get(zone).addAll(INDEX.get(zone).keySet());
+            Path root = zoneDir(zone);
+            try (Stream<Path> stream = Files.list(root)) {
+                stream.filter(Files::isDirectory).forEach(folder -> DIRTY.get(zone).add(folder.getFileName().toString()));
+            } catch (IOException ignored) {}
+        }
+        scheduleFlush();
+    }
+
+    private static void scheduleFlush() {
+        lastEventTime = System.currentTimeMillis();
+        ScheduledExecutorService s = scheduler;
+        if (s != null && !s.isShutdown()) {
+            s.schedule(LibraryIndexer::flush, DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // 最后一个事件之后静默 DEBOUNCE_MILLIS 才开始处理，上传大文件时不会被反复触发
+    private static synchronized void flush() {
+        if (System.currentTimeMillis() - lastEventTime < DEBOUNCE_MILLIS) return;
+
+        List<PendingFolder> pending = new ArrayList<>();
+        boolean changed = false;
+        for (String zone : ZONES) {
+            Set<String> dirty = DIRTY.get(zone);
+            for (String name : new ArrayList<>(dirty)) {
+                dirty.remove(name);
+                if (!Files.isDirectory(zoneDir(zone).resolve(name))) {
+                    FolderIndex removed = INDEX.get(zone).remove(name);
+                    if (removed != null) {
+                        forgetRemoved(removed, Collections.emptyMap());
+                        LibraryChangeLog.record(zone, name, null);
+                        changed = true;
+                    }
+                    continue;
+                }
+                PendingFolder folder = scanFolder(zone, name);
+                if (folder != null) pending.add(folder);
+            }
+        }
+        for (PendingFolder folder : pending) {
+            changed |= completeFolder(folder);
+        }
+        if (changed) {
+            ManifestCache.invalidate();
+        }
+    }
+
+    /**
+     * 正在索引的文件夹，每个文件对应一个 Future，未变化的文件是已完成的 Future
+     */
+    private record PendingFolder(String zone, String name, Path dir, FolderIndex previous, Map<Path, CompletableFuture<FileRecord>> files) {}
+
+    /**
+     * 遍历单个文件夹，只对大小或修改时间变化且缓存中没有的文件提交哈希计算
+     * @return 文件夹不存在或遍历失败时返回 null
+     */
+    private static PendingFolder scanFolder(String zone, String name) {
+        Path folder = zoneDir(zone).resolve(name);
+        FolderIndex previous = INDEX.get(zone).get(name);
+        if (!Files.isDirectory(folder)) return null;
+
+        Map<Path, CompletableFuture<FileRecord>> files = new TreeMap<>();
+        try (Stream<Path> stream = Files.walk(folder)) {
+            for (Path p : (Iterable<Path>) stream::iterator) {
+                BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class);
+                if (!attrs.isRegularFile()) continue;
+
+                Path rel = folder.relativize(p);
+                long size = attrs.size();
+                long lastModified = attrs.lastModifiedTime().toMillis();
+                FileRecord old = previous != null ? previous.files().get(rel) : null;
+                if (old != null && old.size() == size && old.lastModified() == lastModified) {
+                    files.put(rel, CompletableFuture.completedFuture(old));
+                    continue;
+                }
+
+                String cached = EmbeddedServer.lookupCachedHash(p, size, lastModified, algorithm);
+                files.put(rel, cached != null
+                        ? CompletableFuture.completedFuture(new FileRecord(size, lastModified, cached))
+                        : HashEngine.hash(p, algorithm).thenApply(hash -> new FileRecord(size, lastModified, hash)));
+            }
+        } catch (IOException e) {
+            // 文件夹正在被修改，稍后由下一批事件重新处理
+            MMDSyncMod.LOGGER.debug("索引文件夹失败: {}", folder, e);
+            if (watching) {
+                DIRTY.get(zone).add(name);
+                scheduleFlush();
+            }
+            return null;
+        }
+        return new PendingFolder(zone, name, folder, previous, files);
+    }
+
+    /**
+     * 等待文件夹内所有哈希计算完成并更新索引
+     * @return 文件夹哈希是否发生变化
+     */
+    private static boolean completeFolder(PendingFolder pending) {
+        Map<Path, FileRecord> files = new TreeMap<>();
+        for (Map.Entry<Path, CompletableFuture<FileRecord>> entry : pending.files().entrySet()) {
+            try {
+                files.put(entry.getKey(), entry.getValue().join());
+            } catch (Exception e) {
+                // 与 getCachedHash 一致，读取失败的文件以空哈希参与计算
+                files.put(entry.getKey(), new FileRecord(-1, -1, ""));
+            }
+        }
+
+        if (pending.previous() != null) {
+            forgetRemoved(pending.previous(), files);
+        }
+
+        // 与 EmbeddedServer.getFolderHash 相同的算法，但直接使用内存中的文件哈希
+        String hash = algorithm.combine(files.values().stream().map(FileRecord::hash).toList());
+        INDEX.get(pending.zone()).put(pending.name(), new FolderIndex(pending.name(), pending.dir(),
+                Collections.unmodifiableMap(files), hash, new ConcurrentHashMap<>()));
+        boolean changed = pending.previous() == null || !pending.previous().hash().equals(hash);
+        // 先更新索引再记录变更，按某个版本生成的清单一定包含该版本之前的所有变更
+        if (changed) {
+            LibraryChangeLog.record(pending.zone(), pending.name(), hash);
+        }
+        return changed;
+    }
+
+    // 已被删除的文件不再保留哈希缓存，已被删除或修改的文件不再保留分块结果
+    private static void forgetRemoved(FolderIndex previous, Map<Path, FileRecord> current) {
+        List<Path> removed = new ArrayList<>();
+        List<Path> stale = new ArrayList<>();
+        for (Map.Entry<Path, FileRecord> entry : previous.files().entrySet()) {
+            FileRecord now = current.get(entry.getKey());
+            Path file = previous.dir().resolve(entry.getKey());
+            if (now == null) {
+                removed.add(file);
+                stale.add(file);
+            } else if (now.size() != entry.getValue().size() || now.lastModified() != entry.getValue().lastModified()) {
+                stale.add(file);
+            }
+        }
+        if (!removed.isEmpty()) {
+            EmbeddedServer.forgetHashes(removed);
+        }
+        if (!stale.isEmpty()) {
+            ChunkStore.forget(stale);
+        }
+    }
+
+    // 文件是否属于当前索引中的某个文件夹
+    private static boolean isIndexed(Path path) {
+        for (String zone : ZONES) {
+            Path root = zoneDir(zone);
+            if (!path.startsWith(root) || path.getNameCount() <= root.getNameCount() + 1) continue;
+            FolderIndex index = INDEX.get(zone).get(path.getName(root.getNameCount()).toString());
+            return index != null && index.files().containsKey(index.dir().relativize(path));
+        }
+        return false;
+    }
+
+    private static void registerRecursive(Path root) throws IOException {
+        try (Stream<Path> stream = Files.walk(root)) {
+            for (Path dir : (Iterable<Path>) stream.filter(Files::isDirectory)::iterator) {
+                WatchKey key = dir.register(watcher,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+                WATCH_KEYS.put(key, dir);
+            }
+        }
+    }
+
+    private static void closeWatcher() {
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException ignored) {}
+            watcher = null;
+        }
+    }
+}
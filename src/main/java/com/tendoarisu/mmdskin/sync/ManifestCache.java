@@ -0,0 +1,144 @@
+package com.tendoarisu.mmdskin.sync;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.opdent.mmdskin.sync.MMDSyncMod;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * /api/sync 清单快照
+ * 清单在内存中以预先序列化（可选 GZIP）的字节保存，并带有基于内容的 ETag，
+ * 内容直接取自 LibraryIndexer 的内存索引，请求本身不再访问磁盘
+ * 同一快照同时保存 JSON 与二进制两种编码（见 BinaryManifest），两者的 ETag 不同
+ */
+public class ManifestCache {
+    // 无法监听目录变化时，最多复用快照的时长（用于感知直接放入目录、未经上传接口的文件）
+    private static final long MAX_AGE_MILLIS = 30_000;
+
+    private static final Map<HashAlgorithm, Snapshot> SNAPSHOTS = new ConcurrentHashMap<>();
+    // 每次 invalidate 递增，快照记录生成时的值，不一致即视为过期
+    private static volatile long generation = 0;
+
+    /**
+     * position 为生成清单前读取的库版本，清单包含该版本及之前的所有变更
+     */
+    public record Snapshot(long version, HashAlgorithm algo, byte[] json, byte[] gzip, byte[] binary, String etag, long builtAt, long generation,
+                           LibraryChangeLog.Position position) {
+        /**
+         * 二进制编码的 ETag 在 JSON 的基础上加后缀，同一 URL 的两种编码不会互相命中
+         */
+        public String etag(boolean binaryEncoding) {
+            return binaryEncoding ? etag.substring(0, etag.length() - 1) + "-bin\"" : etag;
+        }
+
+        public boolean matches(String ifNoneMatch, boolean binaryEncoding) {
+            if (ifNoneMatch == null) return false;
+            String current = etag(binaryEncoding);
+            for (String tag : ifNoneMatch.split(",")) {
+                String t = tag.trim();
+                if (t.equals("*") || t.equals(current) || ("W/" + t).equals(current)) return true;
+            }
+            return false;
+        }
+    }
+
+    public static Snapshot get(HashAlgorithm algo) throws IOException {
+        Snapshot snapshot = SNAPSHOTS.get(algo);
+        if (isFresh(snapshot)) {
+            return snapshot;
+        }
+        // 生成清单（必要时包括全量扫描）在 CPU 线程池中进行，请求线程只等待结果
+        return WorkerPools.compute(() -> rebuild(algo));
+    }
+
+    /**
+     * 标记清单已过期，下次请求时重新生成
+     */
+    public static void invalidate() {
+        generation++;
+    }
+
+    private static boolean isFresh(Snapshot snapshot) {
+        if (snapshot == null || snapshot.generation() != generation) return false;
+        // 目录监听正常工作时，所有变化都会通过 invalidate 通知，快照无需过期
+        return LibraryIndexer.isWatching() || System.currentTimeMillis() - snapshot.builtAt() < MAX_AGE_MILLIS;
+    }
+
+    // 同一时间只允许一个线程生成清单，其余请求等待后直接复用新快照
+    private static synchronized Snapshot rebuild(HashAlgorithm algo) {
+        Snapshot snapshot = SNAPSHOTS.get(algo);
+        if (isFresh(snapshot)) {
+            return snapshot;
+        }
+
+        // 首次请求需等待启动时的索引完成；无法监听目录时改为主动全量扫描
+        LibraryIndexer.awaitReady();
+        if (!LibraryIndexer.isWatching()) {
+            LibraryIndexer.rescanAll();
+        }
+        long currentGeneration = generation;
+        LibraryChangeLog.Position position = LibraryChangeLog.position();
+
+        // 两种编码取自同一份文件夹列表
+        Map<String, List<LibraryIndexer.FolderIndex>> zones = new LinkedHashMap<>();
+        for (String zone : LibraryIndexer.ZONES) {
+            zones.put(zone, LibraryIndexer.folders(zone));
+        }
+        JsonObject response = new JsonObject();
+        response.addProperty("algo", algo.id());
+        zones.forEach((zone, folders) -> response.add(zone, buildZone(folders, algo)));
+        byte[] json = response.toString().getBytes(StandardCharsets.UTF_8);
+
+        // ETag 只取决于清单内容，服务器重启后内容未变时客户端依然可以得到 304
+        String etag = "W/\"" + HashAlgorithm.XXH64.combine(List.of(new String(json, StandardCharsets.UTF_8))) + "\"";
+        Snapshot result;
+        if (snapshot != null && snapshot.etag().equals(etag)) {
+            result = new Snapshot(snapshot.version(), algo, snapshot.json(), snapshot.gzip(), snapshot.binary(), etag, System.currentTimeMillis(), currentGeneration, position);
+        } else {
+            long version = snapshot != null ? snapshot.version() + 1 : 1;
+            result = new Snapshot(version, algo, json, Config.ENABLE_GZIP ? CompressionPolicy.gzipJson(json) : null, buildBinary(zones, algo), etag, System.currentTimeMillis(), currentGeneration, position);
+            MMDSyncMod.LOGGER.debug("{} 清单已更新至版本 {}，{} 字节", algo.id(), version, json.length);
+        }
+        SNAPSHOTS.put(algo, result);
+        return result;
+    }
+
+    private static JsonArray buildZone(List<LibraryIndexer.FolderIndex> folders, HashAlgorithm algo) {
+        // 旧客户端只认识 md5 字段
+        String key = algo == HashAlgorithm.MD5 ? "md5" : "hash";
+        JsonArray array = new JsonArray();
+        for (LibraryIndexer.FolderIndex folder : folders) {
+            JsonObject obj = new JsonObject();
+            obj.addProperty("name", folder.name());
+            obj.addProperty(key, folder.hash(algo));
+            array.add(obj);
+        }
+        return array;
+    }
+
+    private static byte[] buildBinary(Map<String, List<LibraryIndexer.FolderIndex>> zones, HashAlgorithm algo) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            BinaryManifest.Writer writer = new BinaryManifest.Writer(out, algo);
+            for (Map.Entry<String, List<LibraryIndexer.FolderIndex>> zone : zones.entrySet()) {
+                writer.zone(zone.getKey(), zone.getValue().size());
+                for (LibraryIndexer.FolderIndex folder : zone.getValue()) {
+                    writer.folder(folder.name(), folder.hash(algo));
+                }
+            }
+            writer.finish();
+        } catch (IOException e) {
+            // 写入内存不会失败，哈希格式不正确属于程序错误
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+}
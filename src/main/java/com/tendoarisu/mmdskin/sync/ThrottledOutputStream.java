@@ -0,0 +1,64 @@
+package com.tendoarisu.mmdskin.sync;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * 限速输出流，每次最多写出一个分片，写出前依次从客户端令牌桶和全局令牌桶取得配额
+ * 全局令牌桶按先来先得排队，多个连接以分片为单位轮流发送，从而平分带宽
+ */
+public class ThrottledOutputStream extends FilterOutputStream {
+    private static final int SLICE_SIZE = 16 * 1024;
+
+    private final BandwidthLimiter.Lease lease;
+    private final BandwidthLimiter.Client client;
+    private boolean closed = false;
+
+    ThrottledOutputStream(OutputStream out, BandwidthLimiter.Lease lease) {
+        super(out);
+        this.lease = lease;
+        this.client = lease.client();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        acquire(1);
+        out.write(b);
+        client.record(1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = acquire(Math.min(len, SLICE_SIZE));
+            out.write(b, off, n);
+            client.record(n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            super.close();
+        } finally {
+            lease.release();
+        }
+    }
+
+    private int acquire(int bytes) throws IOException {
+        try {
+            int granted = client.bucket() != null ? client.bucket().acquire(bytes) : bytes;
+            BandwidthLimiter.TokenBucket global = BandwidthLimiter.global();
+            return global != null ? global.acquire(granted) : granted;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("限速等待被中断");
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package com.tendoarisu.mmdskin.sync;
+
+import com.opdent.mmdskin.sync.MMDSyncMod;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * 上传内容落盘
+ * ZIP 上传只读取一次中央目录即可规划好所有条目的目标路径，之后在 CPU 线程池中并行解压，
+ * 同时只占用一半的 CPU 线程，上传期间的清单生成与 /api/sync 不必等待整个 ZIP 解压完；
+ * 写入文件的同时计算哈希并直接写入哈希缓存，随后的索引与 /api/sync 不必再读取刚上传的文件
+ */
+public class UploadIngest {
+    private static final int BUFFER_SIZE = 65536;
+
+    /**
+     * 浏览器准备上传的文件；hash 为空表示尚未计算
+     */
+    public record Candidate(String name, long size, String hash) {}
+
+    /**
+     * 解压上传的 ZIP 到资源目录
+     * 自动剥离共同的顶级目录；剥离后根层级有多个项或只有文件时，以 ZIP 文件名包裹一层
+     * @return 写入的文件数
+     */
+    public static int ingestZip(Path zip, Path targetBaseDir, String datePrefix, String originalName) throws IOException {
+        long start = System.currentTimeMillis();
+        try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+            List<? extends ZipEntry> entries = Collections.list(zipFile.entries());
+            List<String> entryNames = new ArrayList<>(entries.size());
+            for (ZipEntry entry : entries) {
+                entryNames.add(entry.getName());
+            }
+            Map<String, String> layout = planLayout(entryNames, targetBaseDir, datePrefix, originalName);
+
+            // 目录在规划阶段按顺序创建，并行解压时只写文件；同名条目以最后一个为准
+            Path root = targetBaseDir.normalize();
+            Map<Path, ZipEntry> files = new LinkedHashMap<>();
+            for (ZipEntry entry : entries) {
+                String finalPath = layout.get(entry.getName());
+                if (finalPath == null) continue;
+                Path target = targetBaseDir.resolve(finalPath.replace('/', File.separatorChar));
+                Path normalized = target.normalize();
+                if (!normalized.startsWith(root) || normalized.equals(root)) {
+                    MMDSyncMod.LOGGER.warn("忽略越出资源目录的 ZIP 条目: {}", entry.getName());
+                    continue;
+                }
+                if (entry.isDirectory()) {
+                    Files.createDirectories(target);
+                } else {
+                    Files.createDirectories(target.getParent());
+                    files.put(target, entry);
+                }
+            }
+
+            List<WorkerPools.Task<Void>> tasks = new ArrayList<>(files.size());
+            for (Map.Entry<Path, ZipEntry> file : files.entrySet()) {
+                tasks.add(() -> {
+                    try (InputStream in = zipFile.getInputStream(file.getValue())) {
+                        writeHashed(in, file.getKey());
+                    }
+                    return null;
+                });
+            }
+            WorkerPools.computeAll(tasks, WorkerPools.batchParallelism());
+
+            MMDSyncMod.LOGGER.debug("已解压 {}: {} 个文件, 耗时 {} ms", originalName, files.size(), System.currentTimeMillis() - start);
+            return files.size();
+        }
+    }
+
+    /**
+     * 写入文件的同时计算哈希，完成后直接写入哈希缓存
+     */
+    public static void writeHashed(InputStream in, Path target) throws IOException {
+        HashAlgorithm algo = LibraryIndexer.algorithm();
+        HashAlgorithm.Hasher hasher = algo.newHasher();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (OutputStream out = Files.newOutputStream(target)) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                hasher.update(buffer, 0, n);
+                out.write(buffer, 0, n);
+            }
+        }
+        BasicFileAttributes attrs = Files.readAttributes(target, BasicFileAttributes.class);
+        EmbeddedServer.cacheHash(target, algo, attrs.size(), attrs.lastModifiedTime().toMillis(), hasher.digest());
+    }
+
+    /**
+     * 上传前去重的第一步：返回模型库中存在相同大小文件的候选文件名
+     * 大小不同的文件内容必然不同，浏览器只需为这些文件计算哈希
+     */
+    public static List<String> sizeMatches(List<Candidate> files) {
+        Set<Long> sizes = new HashSet<>();
+        forEachIndexed((file, record) -> sizes.add(record.size()));
+        List<String> result = new ArrayList<>();
+        for (Candidate candidate : files) {
+            if (sizes.contains(candidate.size())) result.add(candidate.name());
+        }
+        return result;
+    }
+
+    /**
+     * 上传前去重的第二步：模型库中已有相同内容的文件直接复制到上传的目标位置，哈希写入缓存
+     * @return 已放置的文件名，其余文件仍需上传
+     */
+    public static Set<String> placeExisting(Path targetBaseDir, String datePrefix, List<Candidate> files) throws IOException {
+        Map<String, List<Candidate>> wanted = new HashMap<>();
+        for (Candidate candidate : files) {
+            if (candidate.hash() == null || candidate.hash().isEmpty()) continue;
+            wanted.computeIfAbsent(candidate.hash().toLowerCase(), k -> new ArrayList<>()).add(candidate);
+        }
+        if (wanted.isEmpty()) return Collections.emptySet();
+
+        // 每个哈希只需要一个来源文件
+        Map<Candidate, Path> sources = new LinkedHashMap<>();
+        Map<Path, LibraryIndexer.FileRecord> records = new HashMap<>();
+        forEachIndexed((file, record) -> {
+            List<Candidate> matches = wanted.get(record.hash());
+            if (matches == null) return;
+            for (Candidate candidate : matches) {
+                if (candidate.size() == record.size()) sources.putIfAbsent(candidate, file);
+            }
+            records.putIfAbsent(file, record);
+        });
+
+        HashAlgorithm algo = LibraryIndexer.algorithm();
+        Set<String> placed = ConcurrentHashMap.newKeySet();
+        List<WorkerPools.Task<Void>> tasks = new ArrayList<>(sources.size());
+        for (Map.Entry<Candidate, Path> entry : sources.entrySet()) {
+            Candidate candidate = entry.getKey();
+            Path source = entry.getValue();
+            LibraryIndexer.FileRecord record = records.get(source);
+            Path target = EmbeddedServer.UploadHandler.uploadTarget(targetBaseDir, datePrefix, candidate.name());
+            if (target == null || target.equals(source.normalize())) continue;
+            tasks.add(() -> {
+                // 索引中的记录可能已过时，复制前后都确认来源文件未被修改
+                if (!isUnchanged(source, record)) return null;
+                Files.createDirectories(target.getParent());
+                Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+                if (!isUnchanged(source, record)) {
+                    Files.deleteIfExists(target);
+                    return null;
+                }
+                BasicFileAttributes attrs = Files.readAttributes(target, BasicFileAttributes.class);
+                EmbeddedServer.cacheHash(target, algo, attrs.size(), attrs.lastModifiedTime().toMillis(), Hex.decode(record.hash()));
+                placed.add(candidate.name());
+                return null;
+            });
+        }
+        WorkerPools.computeAll(tasks, WorkerPools.batchParallelism());
+        return placed;
+    }
+
+    private static boolean isUnchanged(Path file, LibraryIndexer.FileRecord record) throws IOException {
+        if (!Files.isRegularFile(file)) return false;
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        return attrs.size() == record.size() && attrs.lastModifiedTime().toMillis() == record.lastModified();
+    }
+
+    // 遍历两个区域索引中的所有文件（绝对路径与主算法记录）
+    private static void forEachIndexed(BiConsumer<Path, LibraryIndexer.FileRecord> consumer) {
+        LibraryIndexer.awaitReady();
+        for (String zone : LibraryIndexer.ZONES) {
+            for (LibraryIndexer.FolderIndex folder : LibraryIndexer.folders(zone)) {
+                folder.files().forEach((rel, record) -> consumer.accept(folder.dir().resolve(rel), record));
+            }
+        }
+    }
+
+    /**
+     * 根据条目名称规划解压后的相对路径（以 / 分隔），不需要解压的条目不在结果中
+     */
+    static Map<String, String> planLayout(List<String> entryNames, Path targetBaseDir, String datePrefix, String originalName) {
+        // 1. 递归寻找资源根目录
+        String commonPrefix = "";
+        while (true) {
+            String currentPrefix = commonPrefix;
+            String firstTopDir = null;
+            boolean allMatch = true;
+            boolean hasFileInCurrentLevel = false;
+
+            for (String name : entryNames) {
+                if (!name.startsWith(currentPrefix)) continue;
+                String relative = name.substring(currentPrefix.length());
+                if (relative.isEmpty()) continue;
+
+                int slashIndex = relative.indexOf('/');
+                if (slashIndex == -1) {
+                    hasFileInCurrentLevel = true;
+                } else {
+                    String topDir = relative.substring(0, slashIndex + 1);
+                    if (firstTopDir == null) {
+                        firstTopDir = topDir;
+                    } else if (!firstTopDir.equals(topDir)) {
+                        allMatch = false;
+                    }
+                }
+            }
+
+            if (!hasFileInCurrentLevel && firstTopDir != null && allMatch) {
+                commonPrefix += firstTopDir;
+            } else {
+                break;
+            }
+        }
+
+        // 2. 决定是否需要额外的包裹层
+        // 如果剥离后的根层级有多个项，或者只有一个项且是文件，则需要用 ZIP 名包裹
+        String firstItem = null;
+        int itemCount = 0;
+        for (String name : entryNames) {
+            if (!name.startsWith(commonPrefix)) continue;
+            String relative = name.substring(commonPrefix.length());
+            if (relative.isEmpty()) continue;
+
+            int slashIndex = relative.indexOf('/');
+            String item = (slashIndex == -1) ? relative : relative.substring(0, slashIndex);
+            if (firstItem == null) {
+                firstItem = item;
+                itemCount = 1;
+            } else if (!firstItem.equals(item)) {
+                itemCount++;
+                break;
+            }
+        }
+        String directoryEntry = commonPrefix + firstItem + "/";
+        boolean needsExtraWrap = itemCount > 1 || (firstItem != null && !entryNames.contains(directoryEntry));
+
+        String wrapNameBase = originalName.toLowerCase().endsWith(".zip")
+                ? originalName.substring(0, originalName.length() - 4)
+                : originalName;
+
+        // 3. 为每个条目确定目标路径，顶级文件夹与已有文件夹重名时添加随机后缀
+        Map<String, String> layout = new HashMap<>();
+        Map<String, String> dirRenames = new HashMap<>();
+        for (String name : entryNames) {
+            if (!name.startsWith(commonPrefix)) continue;
+            String relativePath = name.substring(commonPrefix.length());
+            if (relativePath.isEmpty()) continue;
+
+            if (needsExtraWrap) {
+                String topName = dirRenames.computeIfAbsent("_wrap_", k -> uniqueFolderName(targetBaseDir, datePrefix + "_" + wrapNameBase));
+                layout.put(name, topName + "/" + relativePath);
+            } else {
+                int firstSlash = relativePath.indexOf('/');
+                String topName = (firstSlash == -1) ? relativePath : relativePath.substring(0, firstSlash);
+                String remaining = (firstSlash == -1) ? "" : relativePath.substring(firstSlash);
+                String newTopName = dirRenames.computeIfAbsent(topName, k -> uniqueFolderName(targetBaseDir, datePrefix + "_" + k));
+                layout.put(name, newTopName + remaining);
+            }
+        }
+        return layout;
+    }
+
+    private static String uniqueFolderName(Path targetBaseDir, String base) {
+        String target = base;
+        Random random = new Random();
+        while (Files.exists(targetBaseDir.resolve(target))) {
+            target = base + "_" + Integer.toHexString(random.nextInt(0x10000));
+        }
+        return target;
+    }
+}
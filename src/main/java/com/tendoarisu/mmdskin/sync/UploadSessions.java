@@ -0,0 +1,301 @@
+package com.tendoarisu.mmdskin.sync;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.opdent.mmdskin.sync.MMDSyncMod;
+import net.neoforged.fml.loading.FMLPaths;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.BitSet;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * 分块断点续传上传的会话
+ * 文件按固定大小切块，每块带 CRC32 校验，可以乱序、并行到达，全部确认后由客户端提交。
+ * 数据写入 config/mmdsync_uploads 下的临时文件，已确认的块记录在同名的 .json 中，
+ * 连接中断甚至服务器重启后，客户端查询已确认的块即可从断点继续。
+ */
+public class UploadSessions {
+    private static final Path DIR = FMLPaths.CONFIGDIR.get().resolve("mmdsync_uploads");
+    private static final String DATA_SUFFIX = ".part";
+    private static final String STATE_SUFFIX = ".json";
+    public static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+    public static final int MAX_CHUNK_SIZE = 32 * 1024 * 1024;
+    // 超过此时长没有收到新块的会话视为已放弃
+    private static final long EXPIRE_MILLIS = TimeUnit.HOURS.toMillis(24);
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private static final Map<String, Session> SESSIONS = new ConcurrentHashMap<>();
+
+    /**
+     * 单次上传的状态；received 与 lastUpdate 的读写需要持有会话本身的锁
+     */
+    public static final class Session {
+        private final String id;
+        private final String zone;
+        private final String name;
+        private final long size;
+        private final int chunkSize;
+        private final BitSet received;
+        private long lastUpdate;
+        private boolean committing = false;
+
+        private Session(String id, String zone, String name, long size, int chunkSize, BitSet received, long lastUpdate) {
+            this.id = id;
+            this.zone = zone;
+            this.name = name;
+            this.size = size;
+            this.chunkSize = chunkSize;
+            this.received = received;
+            this.lastUpdate = lastUpdate;
+        }
+
+        public String id() {
+            return id;
+        }
+
+        public String zone() {
+            return zone;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public long size() {
+            return size;
+        }
+
+        public int chunkSize() {
+            return chunkSize;
+        }
+
+        public Path file() {
+            return DIR.resolve(id + DATA_SUFFIX);
+        }
+
+        public int chunkCount() {
+            return (int) ((size + chunkSize - 1) / chunkSize);
+        }
+
+        public long chunkLength(int index) {
+            return Math.min(chunkSize, size - (long) index * chunkSize);
+        }
+
+        public synchronized int[] receivedChunks() {
+            return received.stream().toArray();
+        }
+
+        public synchronized boolean isCommitting() {
+            return committing;
+        }
+
+        public synchronized boolean isComplete() {
+            return received.cardinality() == chunkCount();
+        }
+
+        public synchronized long receivedBytes() {
+            long total = 0;
+            for (int i = received.nextSetBit(0); i >= 0; i = received.nextSetBit(i + 1)) {
+                total += chunkLength(i);
+            }
+            return total;
+        }
+    }
+
+    /**
+     * 恢复上次运行留下的会话，并清理过期或不完整的文件
+     */
+    public static void init() {
+        SESSIONS.clear();
+        if (!Files.isDirectory(DIR)) return;
+        try (Stream<Path> stream = Files.list(DIR)) {
+            for (Path file : stream.toList()) {
+                String fileName = file.getFileName().toString();
+                if (!fileName.endsWith(STATE_SUFFIX)) continue;
+                String id = fileName.substring(0, fileName.length() - STATE_SUFFIX.length());
+                Session session = load(id);
+                if (session != null) {
+                    SESSIONS.put(id, session);
+                }
+            }
+        } catch (IOException e) {
+            MMDSyncMod.LOGGER.error("读取上传会话失败", e);
+        }
+        pruneExpired();
+        if (!SESSIONS.isEmpty()) {
+            MMDSyncMod.LOGGER.info("已恢复 {} 个未完成的上传", SESSIONS.size());
+        }
+    }
+
+    public static Session create(String zone, String name, long size, int chunkSize) throws IOException {
+        pruneExpired();
+        Files.createDirectories(DIR);
+        byte[] bytes = new byte[16];
+        RANDOM.nextBytes(bytes);
+        Session session = new Session(Hex.encode(bytes), zone, name, size, chunkSize, new BitSet(), System.currentTimeMillis());
+        // 先登记再创建文件，避免被同时进行的清理当作残留文件删除
+        SESSIONS.put(session.id, session);
+        try {
+            try (FileChannel ignored = FileChannel.open(session.file(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                // 只创建空文件，各块按偏移写入
+            }
+            save(session);
+        } catch (IOException e) {
+            remove(session);
+            throw e;
+        }
+        return session;
+    }
+
+    public static Session get(String id) {
+        return SESSIONS.get(id);
+    }
+
+    /**
+     * 写入一个块：一边写入对应偏移一边计算 CRC32，长度与校验值都一致才记为已确认
+     * 不同块写入文件的不同区域，同一会话的多个块可以并行写入
+     * @return 是否确认成功；失败时该块保持未确认状态，客户端重传即可
+     */
+    public static boolean writeChunk(Session session, int index, long expectedCrc, InputStream in) throws IOException {
+        long length = session.chunkLength(index);
+        long position = (long) index * session.chunkSize;
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[EmbeddedServer.STREAM_BUFFER_SIZE];
+        long written = 0;
+        try (FileChannel channel = FileChannel.open(session.file(), StandardOpenOption.WRITE)) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                if (written + n > length) return false;
+                crc.update(buffer, 0, n);
+                ByteBuffer data = ByteBuffer.wrap(buffer, 0, n);
+                while (data.hasRemaining()) {
+                    channel.write(data, position + written + data.position());
+                }
+                written += n;
+            }
+        }
+        if (written != length || crc.getValue() != expectedCrc) return false;
+
+        synchronized (session) {
+            session.received.set(index);
+            session.lastUpdate = System.currentTimeMillis();
+        }
+        save(session);
+        return true;
+    }
+
+    /**
+     * 标记会话开始提交，防止重复提交；未收齐或已在提交中时返回 false
+     */
+    public static boolean beginCommit(Session session) {
+        synchronized (session) {
+            if (session.committing || !session.isComplete()) return false;
+            session.committing = true;
+            return true;
+        }
+    }
+
+    /**
+     * 提交失败时允许客户端重试
+     */
+    public static void abortCommit(Session session) {
+        synchronized (session) {
+            session.committing = false;
+        }
+    }
+
+    public static void remove(Session session) {
+        synchronized (session) {
+            SESSIONS.remove(session.id, session);
+            try {
+                Files.deleteIfExists(session.file());
+                Files.deleteIfExists(stateFile(session.id));
+            } catch (IOException e) {
+                MMDSyncMod.LOGGER.warn("删除上传会话文件失败: {}", session.id, e);
+            }
+        }
+    }
+
+    private static void pruneExpired() {
+        long now = System.currentTimeMillis();
+        for (Session session : SESSIONS.values()) {
+            boolean expired;
+            synchronized (session) {
+                expired = !session.committing && now - session.lastUpdate > EXPIRE_MILLIS;
+            }
+            if (expired) {
+                MMDSyncMod.LOGGER.info("上传会话已过期: {} ({})", session.name, session.id);
+                remove(session);
+            }
+        }
+        // 只剩数据或只剩状态的残留文件
+        if (!Files.isDirectory(DIR)) return;
+        try (Stream<Path> stream = Files.list(DIR)) {
+            for (Path file : stream.toList()) {
+                String fileName = file.getFileName().toString();
+                int dot = fileName.indexOf('.');
+                if (dot < 0 || !SESSIONS.containsKey(fileName.substring(0, dot))) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            MMDSyncMod.LOGGER.warn("清理上传会话失败", e);
+        }
+    }
+
+    private static Path stateFile(String id) {
+        return DIR.resolve(id + STATE_SUFFIX);
+    }
+
+    // 状态先写入临时文件再替换，中途崩溃时保留上一次的完整状态；
+    // 整个过程持有会话锁，并发确认的块不会被较旧的状态覆盖
+    private static void save(Session session) throws IOException {
+        synchronized (session) {
+            // 会话已被取消或提交，不再写回状态
+            if (SESSIONS.get(session.id) != session) return;
+            JsonObject json = new JsonObject();
+            json.addProperty("zone", session.zone);
+            json.addProperty("name", session.name);
+            json.addProperty("size", session.size);
+            json.addProperty("chunkSize", session.chunkSize);
+            json.addProperty("received", Base64.getEncoder().encodeToString(session.received.toByteArray()));
+            json.addProperty("lastUpdate", session.lastUpdate);
+            Path temp = DIR.resolve(session.id + STATE_SUFFIX + ".tmp");
+            Files.writeString(temp, json.toString(), StandardCharsets.UTF_8);
+            Files.move(temp, stateFile(session.id), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private static Session load(String id) {
+        try {
+            JsonObject json = JsonParser.parseString(Files.readString(stateFile(id), StandardCharsets.UTF_8)).getAsJsonObject();
+            Session session = new Session(id,
+                    json.get("zone").getAsString(),
+                    json.get("name").getAsString(),
+                    json.get("size").getAsLong(),
+                    json.get("chunkSize").getAsInt(),
+                    BitSet.valueOf(Base64.getDecoder().decode(json.get("received").getAsString())),
+                    json.get("lastUpdate").getAsLong());
+            if (!Files.exists(session.file())) return null;
+            return session;
+        } catch (Exception e) {
+            MMDSyncMod.LOGGER.warn("忽略损坏的上传会话: {}", id);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.tendoarisu.mmdskin.sync;
+
+import com.opdent.mmdskin.sync.MMDSyncMod;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 内置服务器请求线程之外的工作线程
+ * HTTP 请求运行在虚拟线程上，以下两类工作交给平台线程，请求线程只挂起等待结果：
+ * - compute: CPU 密集的工作（ZIP 压缩与上传解压、清单生成、内容分块），固定线程数，不会占满虚拟线程的载体线程
+ * - transfer: 大响应体的发送与上传请求体的接收。JDK 21 的 HttpServer 在 synchronized 方法中读写套接字，
+ *   虚拟线程在慢速客户端上阻塞时会占住载体线程，因此交给平台线程，每个慢速传输只占用自己的线程；
+ *   线程数上限为 maxTransferThreads，超出的传输排队，请求所在的虚拟线程挂起等待，大量慢速客户端不会耗尽服务器线程
+ */
+public class WorkerPools {
+    // 当前线程所属的线程池，同一线程池内提交的任务直接在当前线程执行，避免固定大小的线程池互相等待而死锁
+    private static final ThreadLocal<String> OWNER = new ThreadLocal<>();
+    private static final String COMPUTE = "MMDSync-CPU-";
+    private static final String TRANSFER = "MMDSync-Transfer-";
+    private static volatile ExecutorService compute;
+    private static volatile ExecutorService transfer;
+    private static volatile int computeThreads = 1;
+
+    /**
+     * 可抛出 IOException 的任务
+     */
+    public interface Task<T> {
+        T call() throws IOException;
+    }
+
+    public static void start() {
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        computeThreads = threads;
+        compute = Executors.newFixedThreadPool(threads, factory(COMPUTE));
+        int transfers = Math.max(1, Config.MAX_TRANSFER_THREADS);
+        ThreadPoolExecutor transferPool = new ThreadPoolExecutor(transfers, transfers, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), factory(TRANSFER));
+        // 空闲的传输线程一分钟后退出，没有下载时不保留线程
+        transferPool.allowCoreThreadTimeOut(true);
+        transfer = transferPool;
+        MMDSyncMod.LOGGER.info("CPU 任务线程数: {}，传输线程上限: {}", threads, transfers);
+    }
+
+    public static void stop() {
+        ExecutorService c = compute;
+        ExecutorService t = transfer;
+        compute = null;
+        transfer = null;
+        if (c != null) c.shutdownNow();
+        if (t != null) t.shutdownNow();
+    }
+
+    /**
+     * 在 CPU 线程池中执行任务并等待结果
+     */
+    public static <T> T compute(Task<T> task) throws IOException {
+        return run(compute, COMPUTE, task);
+    }
+
+    /**
+     * 在 CPU 线程池中并行执行一组任务并等待全部完成；任一任务失败时取消其余任务并抛出其异常
+     */
+    public static void computeAll(List<Task<Void>> tasks) throws IOException {
+        computeAll(tasks, tasks.size());
+    }
+
+    /**
+     * 同 computeAll，但同一时间最多有 maxInFlight 个任务在线程池中排队或执行，完成一个再提交下一个
+     * 线程池按提交顺序执行，大批任务一次全部提交时，之后提交的清单生成等任务要等整批完成
+     */
+    public static void computeAll(List<Task<Void>> tasks, int maxInFlight) throws IOException {
+        ExecutorService pool = compute;
+        if (pool == null || COMPUTE.equals(OWNER.get()) || tasks.size() <= 1) {
+            for (Task<Void> task : tasks) {
+                task.call();
+            }
+            return;
+        }
+
+        CompletionService<Void> completion = new ExecutorCompletionService<>(pool);
+        int limit = Math.max(1, maxInFlight);
+        List<Future<Void>> futures = new ArrayList<>(tasks.size());
+        int next = 0;
+        int running = 0;
+        try {
+            while (next < tasks.size() || running > 0) {
+                while (running < limit && next < tasks.size()) {
+                    Task<Void> task = tasks.get(next++);
+                    futures.add(completion.submit(task::call));
+                    running++;
+                }
+                Future<Void> done;
+                try {
+                    done = completion.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("等待工作线程被中断");
+                }
+                running--;
+                await(done);
+            }
+        } catch (RejectedExecutionException e) {
+            throw new IOException("服务器正在关闭", e);
+        } finally {
+            for (Future<Void> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * 批量后台任务（如上传解压）同时占用的 CPU 线程数，留出其余线程给请求路径上的清单生成与哈希计算
+     */
+    public static int batchParallelism() {
+        return Math.max(1, computeThreads / 2);
+    }
+
+    /**
+     * 在独立的平台线程中收发请求体或响应体并等待结束
+     */
+    public static <T> T transfer(Task<T> task) throws IOException {
+        return run(transfer, TRANSFER, task);
+    }
+
+    // 线程池未启动、已关闭或当前已在该线程池中时直接在当前线程执行
+    private static <T> T run(ExecutorService pool, String name, Task<T> task) throws IOException {
+        if (pool == null || name.equals(OWNER.get())) {
+            return task.call();
+        }
+
+        Future<T> future;
+        try {
+            future = pool.submit(task::call);
+        } catch (RejectedExecutionException e) {
+            return task.call();
+        }
+        return await(future);
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("等待工作线程被中断");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) throw io;
+            if (cause instanceof RuntimeException runtime) throw runtime;
+            if (cause instanceof Error error) throw error;
+            throw new IOException(cause);
+        }
+    }
+
+    private static ThreadFactory factory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(() -> {
+                OWNER.set(prefix);
+                r.run();
+            }, prefix + counter.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
@@ -0,0 +1,143 @@
+package com.tendoarisu.mmdskin.sync;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * 纯 Java 实现的流式 xxHash64（非加密哈希，仅用于内容比对）
+ * 输出按规范的大端序排列，与 xxhsum 命令行工具的结果一致
+ */
+public final class XXHash64 {
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+    private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME5 = 0x27D4EB2F165667C5L;
+
+    private static final VarHandle LONG_LE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INT_LE = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final long seed;
+    private final byte[] buffer = new byte[32];
+    private int bufferLength;
+    private long totalLength;
+    private long v1;
+    private long v2;
+    private long v3;
+    private long v4;
+
+    public XXHash64(long seed) {
+        this.seed = seed;
+        reset();
+    }
+
+    public void reset() {
+        v1 = seed + PRIME1 + PRIME2;
+        v2 = seed + PRIME2;
+        v3 = seed;
+        v4 = seed - PRIME1;
+        bufferLength = 0;
+        totalLength = 0;
+    }
+
+    public void update(byte[] data, int offset, int length) {
+        totalLength += length;
+
+        if (bufferLength + length < 32) {
+            System.arraycopy(data, offset, buffer, bufferLength, length);
+            bufferLength += length;
+            return;
+        }
+
+        if (bufferLength > 0) {
+            int fill = 32 - bufferLength;
+            System.arraycopy(data, offset, buffer, bufferLength, fill);
+            processStripe(buffer, 0);
+            offset += fill;
+            length -= fill;
+            bufferLength = 0;
+        }
+
+        int limit = offset + length - 32;
+        while (offset <= limit) {
+            processStripe(data, offset);
+            offset += 32;
+        }
+
+        int remaining = limit + 32 - offset;
+        if (remaining > 0) {
+            System.arraycopy(data, offset, buffer, 0, remaining);
+            bufferLength = remaining;
+        }
+    }
+
+    public long getValue() {
+        long h;
+        if (totalLength >= 32) {
+            h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            h = mergeRound(h, v1);
+            h = mergeRound(h, v2);
+            h = mergeRound(h, v3);
+            h = mergeRound(h, v4);
+        } else {
+            h = seed + PRIME5;
+        }
+        h += totalLength;
+
+        int i = 0;
+        while (i + 8 <= bufferLength) {
+            h ^= round(0, (long) LONG_LE.get(buffer, i));
+            h = Long.rotateLeft(h, 27) * PRIME1 + PRIME4;
+            i += 8;
+        }
+        if (i + 4 <= bufferLength) {
+            h ^= ((int) INT_LE.get(buffer, i) & 0xFFFFFFFFL) * PRIME1;
+            h = Long.rotateLeft(h, 23) * PRIME2 + PRIME3;
+            i += 4;
+        }
+        while (i < bufferLength) {
+            h ^= (buffer[i] & 0xFFL) * PRIME5;
+            h = Long.rotateLeft(h, 11) * PRIME1;
+            i++;
+        }
+
+        h ^= h >>> 33;
+        h *= PRIME2;
+        h ^= h >>> 29;
+        h *= PRIME3;
+        h ^= h >>> 32;
+        return h;
+    }
+
+    /**
+     * 以大端序返回 8 字节摘要
+     */
+    public byte[] digest() {
+        long value = getValue();
+        byte[] out = new byte[8];
+        for (int i = 7; i >= 0; i--) {
+            out[i] = (byte) value;
+            value >>>= 8;
+        }
+        return out;
+    }
+
+    private void processStripe(byte[] data, int offset) {
+        v1 = round(v1, (long) LONG_LE.get(data, offset));
+        v2 = round(v2, (long) LONG_LE.get(data, offset + 8));
+        v3 = round(v3, (long) LONG_LE.get(data, offset + 16));
+        v4 = round(v4, (long) LONG_LE.get(data, offset + 24));
+    }
+
+    private static long round(long acc, long input) {
+        acc += input * PRIME2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * PRIME1;
+    }
+
+    private static long mergeRound(long acc, long value) {
+        acc ^= round(0, value);
+        return acc * PRIME1 + PRIME4;
+    }
+}
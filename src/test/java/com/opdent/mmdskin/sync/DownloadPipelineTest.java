@@ -0,0 +1,151 @@
+package com.opdent.mmdskin.sync;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DownloadPipelineTest {
+    private record Frame(String zone, String name, byte[] data) {}
+
+    // 与服务端 BatchHandler 相同的帧格式：区域、名称、长度（-1 表示打包失败）、数据，以空区域名结束
+    private static final class BatchWriter {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        BatchWriter frame(String zone, String name, byte[] data) throws IOException {
+            out.writeUTF(zone);
+            out.writeUTF(name);
+            out.writeLong(data == null ? -1 : data.length);
+            if (data != null) out.write(data);
+            return this;
+        }
+
+        byte[] end() throws IOException {
+            out.writeUTF("");
+            return bytes.toByteArray();
+        }
+
+        byte[] truncated() {
+            return bytes.toByteArray();
+        }
+    }
+
+    private static byte[] random(int size, long seed) {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private static List<Frame> readAll(byte[] batch) throws Exception {
+        List<Frame> frames = new ArrayList<>();
+        DownloadPipeline.readBatch(new ByteArrayInputStream(batch),
+                (zone, name, data) -> frames.add(new Frame(zone, name, data.readAllBytes())));
+        return frames;
+    }
+
+    @Test
+    void readsFramesInOrder() throws Exception {
+        byte[] first = random(200_000, 1);
+        byte[] second = random(10, 2);
+        byte[] batch = new BatchWriter()
+                .frame("pmx", "Miku", first)
+                .frame("vmd", "dance 01", second)
+                .frame("pmx", "empty", new byte[0])
+                .end();
+
+        List<Frame> frames = readAll(batch);
+        assertEquals(3, frames.size());
+        assertEquals("pmx", frames.get(0).zone());
+        assertEquals("Miku", frames.get(0).name());
+        assertArrayEquals(first, frames.get(0).data());
+        assertEquals("dance 01", frames.get(1).name());
+        assertArrayEquals(second, frames.get(1).data());
+        assertEquals(0, frames.get(2).data().length);
+    }
+
+    @Test
+    void skipsFailedFrames() throws Exception {
+        byte[] data = random(1000, 3);
+        byte[] batch = new BatchWriter()
+                .frame("pmx", "broken", null)
+                .frame("pmx", "ok", data)
+                .end();
+
+        List<Frame> frames = readAll(batch);
+        assertEquals(1, frames.size());
+        assertEquals("ok", frames.get(0).name());
+        assertArrayEquals(data, frames.get(0).data());
+    }
+
+    @Test
+    void skipsUnreadPartOfFrame() throws Exception {
+        byte[] first = random(100_000, 4);
+        byte[] second = random(5000, 5);
+        byte[] batch = new BatchWriter()
+                .frame("pmx", "unwanted", first)
+                .frame("pmx", "partial", first)
+                .frame("pmx", "wanted", second)
+                .end();
+
+        List<Frame> frames = new ArrayList<>();
+        DownloadPipeline.readBatch(new ByteArrayInputStream(batch), (zone, name, data) -> {
+            // 未知的文件夹不读取，另一帧只读一部分
+            if (name.equals("unwanted")) return;
+            byte[] head = data.readNBytes(name.equals("partial") ? 777 : Integer.MAX_VALUE);
+            frames.add(new Frame(zone, name, head));
+        });
+        assertEquals(2, frames.size());
+        assertArrayEquals(Arrays.copyOf(first, 777), frames.get(0).data());
+        assertArrayEquals(second, frames.get(1).data());
+    }
+
+    @Test
+    void truncatedResponseFails() throws IOException {
+        byte[] complete = new BatchWriter().frame("pmx", "Miku", random(1000, 6)).truncated();
+        // 帧数据不完整
+        assertThrows(EOFException.class, () -> readAll(Arrays.copyOf(complete, complete.length - 10)));
+        // 帧完整但缺少结束标记
+        assertThrows(EOFException.class, () -> readAll(complete));
+    }
+
+    @Test
+    void frameStreamStopsAtFrameBoundary() throws IOException {
+        byte[] data = random(64, 7);
+        InputStream underlying = new ByteArrayInputStream(data);
+        try (InputStream frame = new DownloadPipeline.FrameInputStream(underlying, 40)) {
+            assertEquals(data[0] & 0xFF, frame.read());
+            assertEquals(39, frame.available());
+            assertEquals(10, frame.skip(10));
+            byte[] rest = frame.readAllBytes();
+            assertArrayEquals(Arrays.copyOfRange(data, 11, 40), rest);
+            assertEquals(-1, frame.read());
+            assertEquals(-1, frame.read(new byte[8], 0, 8));
+        }
+        // 关闭帧不关闭底层流
+        assertEquals(data[40] & 0xFF, underlying.read());
+    }
+
+    @Test
+    void frameStreamCloseSkipsRemainder() throws IOException {
+        byte[] data = random(64, 8);
+        InputStream underlying = new ByteArrayInputStream(data);
+        new DownloadPipeline.FrameInputStream(underlying, 50).close();
+        assertEquals(data[50] & 0xFF, underlying.read());
+
+        InputStream shortStream = new ByteArrayInputStream(data);
+        assertThrows(EOFException.class, () -> new DownloadPipeline.FrameInputStream(shortStream, 100).readAllBytes());
+    }
+}
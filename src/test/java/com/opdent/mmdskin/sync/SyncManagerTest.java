@@ -0,0 +1,37 @@
+package com.opdent.mmdskin.sync;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class SyncManagerTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void resolvesPlainFolderNames() {
+        assertEquals(dir.resolve("Miku"), SyncManager.resolveFolder(dir, "Miku"));
+        assertEquals(dir.resolve("a b+c %d"), SyncManager.resolveFolder(dir, "a b+c %d"));
+        assertEquals(dir.resolve("..hidden"), SyncManager.resolveFolder(dir, "..hidden"));
+        // 未规范化的区域目录也按规范化后的路径比较
+        assertEquals(dir.resolve("Miku"), SyncManager.resolveFolder(dir.resolve("x").resolve(".."), "Miku"));
+    }
+
+    @Test
+    void rejectsNamesLeavingTheZoneDirectory() {
+        assertNull(SyncManager.resolveFolder(dir, null));
+        assertNull(SyncManager.resolveFolder(dir, ""));
+        assertNull(SyncManager.resolveFolder(dir, "."));
+        assertNull(SyncManager.resolveFolder(dir, ".."));
+        assertNull(SyncManager.resolveFolder(dir, "../../saves"));
+        assertNull(SyncManager.resolveFolder(dir, "a/b"));
+        assertNull(SyncManager.resolveFolder(dir, "a/.."));
+        assertNull(SyncManager.resolveFolder(dir, "./"));
+        assertNull(SyncManager.resolveFolder(dir, dir.getRoot().resolve("etc").toString()));
+        assertNull(SyncManager.resolveFolder(dir, "bad\0name"));
+    }
+}
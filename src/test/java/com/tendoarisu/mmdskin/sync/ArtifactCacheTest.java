@@ -0,0 +1,129 @@
+package com.tendoarisu.mmdskin.sync;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ArtifactCacheTest {
+    private final long maxMb = Config.ARTIFACT_CACHE_MAX_MB;
+
+    @TempDir
+    Path base;
+
+    @BeforeEach
+    void start() throws IOException {
+        deleteCacheFiles();
+        Config.ARTIFACT_CACHE_MAX_MB = 1;
+        ArtifactCache.init();
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        ArtifactCache.shutdown();
+        Config.ARTIFACT_CACHE_MAX_MB = maxMb;
+        deleteCacheFiles();
+    }
+
+    private static void deleteCacheFiles() throws IOException {
+        if (!Files.isDirectory(ArtifactCache.CACHE_DIR)) return;
+        try (Stream<Path> stream = Files.list(ArtifactCache.CACHE_DIR)) {
+            for (Path file : stream.toList()) Files.delete(file);
+        }
+    }
+
+    // 随机内容不可压缩，每个成品约 400 KB，上限 1 MB 时最多容纳两个
+    private Path folder(String name, long seed, int size) throws IOException {
+        Path folder = Files.createDirectories(base.resolve(name));
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        Files.write(folder.resolve("model.pmx"), data);
+        return folder;
+    }
+
+    private static ArtifactCache.Artifact build(String name, Path folder) throws Exception {
+        String hash = EmbeddedServer.getFolderHash(folder, LibraryIndexer.algorithm());
+        ArtifactCache.Artifact artifact = ArtifactCache.prepare("pmx", name, folder, hash).get();
+        assertNotNull(artifact, name);
+        assertEquals(hash, artifact.hash());
+        return artifact;
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed() throws Exception {
+        Path a = folder("a", 1, 400 * 1024);
+        Path b = folder("b", 2, 400 * 1024);
+        Path c = folder("c", 3, 400 * 1024);
+        ArtifactCache.Artifact first = build("a", a);
+        ArtifactCache.Artifact second = build("b", b);
+
+        // 再次访问 a，b 成为最久未使用的成品
+        assertEquals(first, ArtifactCache.lookup("pmx", "a", a, first.hash()));
+        ArtifactCache.Artifact third = build("c", c);
+
+        assertTrue(Files.exists(first.file()));
+        assertFalse(Files.exists(second.file()));
+        assertTrue(Files.exists(third.file()));
+    }
+
+    @Test
+    void keepsSingleArtifactLargerThanLimit() throws Exception {
+        Path big = folder("big", 4, 1536 * 1024);
+        ArtifactCache.Artifact artifact = build("big", big);
+        assertTrue(Files.exists(artifact.file()));
+        assertEquals(artifact, ArtifactCache.lookup("pmx", "big", big, artifact.hash()));
+    }
+
+    @Test
+    void invalidatesWhenFolderHashChanges() throws Exception {
+        Path folder = folder("m", 5, 100 * 1024);
+        ArtifactCache.Artifact old = build("m", folder);
+
+        Files.write(folder.resolve("model.pmx"), new byte[50 * 1024]);
+        ArtifactCache.Artifact current = build("m", folder);
+
+        assertNotEquals(old.hash(), current.hash());
+        assertFalse(Files.exists(old.file()));
+        assertTrue(Files.exists(current.file()));
+    }
+
+    @Test
+    void discardsArtifactWhoseFolderNoLongerMatches() throws Exception {
+        Path folder = folder("n", 6, 10 * 1024);
+        // 打包时文件夹内容与请求的哈希不符（打包期间被修改），成品被丢弃
+        assertNull(ArtifactCache.prepare("pmx", "n", folder, "0123456789abcdef").get());
+        assertFalse(Files.exists(ArtifactCache.CACHE_DIR.resolve("0123456789abcdef.zip")));
+    }
+
+    @Test
+    void reloadsFromDiskWithoutDoubleCounting() throws Exception {
+        ArtifactCache.Artifact first = build("a", folder("a", 7, 400 * 1024));
+        ArtifactCache.Artifact second = build("b", folder("b", 8, 400 * 1024));
+
+        // 重启后两个成品仍在上限内，都应保留
+        ArtifactCache.shutdown();
+        ArtifactCache.init();
+        assertTrue(Files.exists(first.file()));
+        assertTrue(Files.exists(second.file()));
+    }
+
+    @Test
+    void disabledCacheDoesNothing() throws IOException {
+        Config.ARTIFACT_CACHE_MAX_MB = 0;
+        Path folder = folder("d", 9, 1024);
+        assertNull(ArtifactCache.prepare("pmx", "d", folder, EmbeddedServer.getFolderHash(folder, LibraryIndexer.algorithm())));
+    }
+}
@@ -0,0 +1,112 @@
+package com.tendoarisu.mmdskin.sync;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BandwidthLimiterTest {
+    private final double clientMbps = Config.MAX_CLIENT_BANDWIDTH_MBPS;
+
+    @AfterEach
+    void restore() {
+        Config.MAX_CLIENT_BANDWIDTH_MBPS = clientMbps;
+        BandwidthLimiter.stop();
+    }
+
+    @Test
+    void unlimitedWhenRateIsZero() {
+        assertNull(BandwidthLimiter.TokenBucket.ofMbps(0));
+        assertNull(BandwidthLimiter.TokenBucket.ofMbps(-1));
+    }
+
+    @Test
+    void limitHoldsUnderConcurrency() throws Exception {
+        // 8 Mbps = 1 MB/s，桶容量 0.1 秒（100 KB）
+        BandwidthLimiter.TokenBucket bucket = BandwidthLimiter.TokenBucket.ofMbps(8);
+        int threads = 4;
+        int perThread = 150 * 1024;
+        List<Thread> workers = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    int remaining = perThread;
+                    while (remaining > 0) {
+                        remaining -= bucket.acquire(Math.min(remaining, 16 * 1024));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join(TimeUnit.SECONDS.toMillis(10));
+            assertFalse(worker.isAlive());
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        // 除去初始的满桶，其余字节必须按速率发放
+        double minimum = (threads * perThread - 100_000) / 1_000_000.0;
+        assertTrue(seconds >= minimum * 0.95, "took " + seconds + " s, expected at least " + minimum);
+        assertTrue(seconds < minimum * 3, "took " + seconds + " s, limiter too slow");
+    }
+
+    @Test
+    void leaseReleasesOnlyOnce() {
+        int before = BandwidthLimiter.activeStreams();
+        BandwidthLimiter.Lease first = BandwidthLimiter.acquire("192.0.2.1");
+        BandwidthLimiter.Lease second = BandwidthLimiter.acquire("192.0.2.1");
+        assertSame(first.client(), second.client());
+        assertEquals(2, first.client().streams());
+        assertEquals(before + 2, BandwidthLimiter.activeStreams());
+
+        first.release();
+        first.release();
+        assertEquals(1, second.client().streams());
+        second.release();
+        assertEquals(0, second.client().streams());
+        assertEquals(before, BandwidthLimiter.activeStreams());
+    }
+
+    @Test
+    void sequentialRequestsShareAnIdleBucket() throws InterruptedException {
+        Config.MAX_CLIENT_BANDWIDTH_MBPS = 8;
+        BandwidthLimiter.Lease first = BandwidthLimiter.acquire("192.0.2.2");
+        BandwidthLimiter.Client client = first.client();
+        client.bucket().acquire(100_000);
+        first.release();
+
+        // 下一个请求拿到的仍是已耗尽的桶，而不是新的满桶
+        BandwidthLimiter.Lease next = BandwidthLimiter.acquire("192.0.2.2");
+        assertSame(client, next.client());
+        assertFalse(client.bucket().isFullAt(System.nanoTime()));
+        next.release();
+
+        long now = System.nanoTime();
+        BandwidthLimiter.sweepIdle(now);
+        assertSame(client, BandwidthLimiter.clients().get("192.0.2.2"));
+
+        // 空闲超过 TTL 且桶已回满后移除
+        BandwidthLimiter.sweepIdle(now + TimeUnit.SECONDS.toNanos(31));
+        assertNull(BandwidthLimiter.clients().get("192.0.2.2"));
+    }
+
+    @Test
+    void activeClientsAreNeverSwept() {
+        BandwidthLimiter.Lease lease = BandwidthLimiter.acquire("192.0.2.3");
+        BandwidthLimiter.sweepIdle(System.nanoTime() + TimeUnit.HOURS.toNanos(1));
+        assertSame(lease.client(), BandwidthLimiter.clients().get("192.0.2.3"));
+        lease.release();
+    }
+}
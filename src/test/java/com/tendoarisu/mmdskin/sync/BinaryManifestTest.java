@@ -0,0 +1,131 @@
+package com.tendoarisu.mmdskin.sync;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BinaryManifestTest {
+    private static String hash(int seed, int length) {
+        byte[] digest = new byte[length];
+        for (int i = 0; i < length; i++) {
+            digest[i] = (byte) (seed * 37 + i * 11);
+        }
+        return Hex.encode(digest);
+    }
+
+    private static List<String> readAll(byte[] data) throws IOException {
+        List<String> folders = new ArrayList<>();
+        String algo = BinaryManifest.read(new ByteArrayInputStream(data),
+                (zone, name, hash) -> folders.add(zone + "|" + name + "|" + hash));
+        folders.add(0, algo);
+        return folders;
+    }
+
+    private static byte[] sample() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryManifest.Writer writer = new BinaryManifest.Writer(out, HashAlgorithm.XXH64);
+        writer.zone("pmx", 2);
+        writer.folder("model_1", hash(1, 8));
+        writer.folder("model_2", hash(2, 8));
+        writer.finish();
+        return out.toByteArray();
+    }
+
+    @Test
+    void roundTripsZonesAndFolders() throws IOException {
+        // 超过读取端初始缓冲区的长名称、多字节字符、共享前缀与空区域
+        String longName = "x".repeat(300);
+        List<String> names = List.of("Miku", "Miku 初音", "Miku 初音 v2", "Rin", longName, longName + "y");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryManifest.Writer writer = new BinaryManifest.Writer(out, HashAlgorithm.MD5);
+        writer.zone("pmx", names.size());
+        List<String> expected = new ArrayList<>(List.of("md5"));
+        for (int i = 0; i < names.size(); i++) {
+            writer.folder(names.get(i), hash(i, 16));
+            expected.add("pmx|" + names.get(i) + "|" + hash(i, 16));
+        }
+        writer.zone("vmd", 0);
+        writer.zone("extra", 1);
+        writer.folder("Miku", hash(9, 16).toUpperCase());
+        expected.add("extra|Miku|" + hash(9, 16));
+        writer.finish();
+
+        assertEquals(expected, readAll(out.toByteArray()));
+    }
+
+    @Test
+    void storesOnlyTheDifferingSuffix() throws IOException {
+        byte[] data = sample();
+        // 头部 4+1+(1+5)+1，区域 (1+3)+1，第一个文件夹 1+1+7+8，第二个只写 1 字节后缀 1+1+1+8，结束 1
+        assertEquals(12 + 5 + 17 + 11 + 1, data.length);
+        assertEquals(List.of("xxh64", "pmx|model_1|" + hash(1, 8), "pmx|model_2|" + hash(2, 8)), readAll(data));
+    }
+
+    @Test
+    void writerChecksCountsAndDigests() throws IOException {
+        for (String bad : List.of(hash(1, 16), "not hex")) {
+            BinaryManifest.Writer writer = new BinaryManifest.Writer(new ByteArrayOutputStream(), HashAlgorithm.XXH64);
+            writer.zone("pmx", 1);
+            assertThrows(IOException.class, () -> writer.folder("a", bad));
+        }
+
+        BinaryManifest.Writer counted = new BinaryManifest.Writer(new ByteArrayOutputStream(), HashAlgorithm.XXH64);
+        counted.zone("pmx", 2);
+        counted.folder("a", hash(1, 8));
+        assertThrows(IllegalStateException.class, counted::finish);
+        assertThrows(IllegalStateException.class, () -> counted.zone("vmd", 0));
+        counted.folder("b", hash(2, 8));
+        assertThrows(IllegalStateException.class, () -> counted.folder("c", hash(3, 8)));
+    }
+
+    @Test
+    void rejectsTruncatedAndCorruptData() throws IOException {
+        byte[] data = sample();
+        // 结束标记是最后一个字节，任何截断都不完整
+        for (int length = 0; length < data.length; length++) {
+            byte[] truncated = Arrays.copyOf(data, length);
+            assertThrows(IOException.class, () -> readAll(truncated), "length " + length);
+        }
+
+        byte[] magic = data.clone();
+        magic[0] = 'X';
+        assertThrows(IOException.class, () -> readAll(magic));
+
+        byte[] version = data.clone();
+        version[4] = 2;
+        assertThrows(IOException.class, () -> readAll(version));
+
+        // 第一个文件夹声明与（不存在的）上一个名称共享 1 字节
+        byte[] shared = data.clone();
+        shared[17] = 1;
+        assertThrows(IOException.class, () -> readAll(shared));
+
+        byte[] digestLength = data.clone();
+        digestLength[11] = 0;
+        assertThrows(IOException.class, () -> readAll(digestLength));
+    }
+
+    @Test
+    void acceptHeaderNegotiation() {
+        String type = BinaryManifest.CONTENT_TYPE;
+        assertFalse(BinaryManifest.accepts(null));
+        assertFalse(BinaryManifest.accepts("application/json"));
+        assertFalse(BinaryManifest.accepts("*/*"));
+        assertTrue(BinaryManifest.accepts(type));
+        assertTrue(BinaryManifest.accepts(type.toUpperCase()));
+        assertTrue(BinaryManifest.accepts("application/json;q=0.5, " + type + " ; q=0.9"));
+        assertTrue(BinaryManifest.accepts(type + ";q=bogus"));
+        assertFalse(BinaryManifest.accepts(type + ";q=0"));
+        assertFalse(BinaryManifest.accepts("application/json, " + type + "; q=0.000"));
+    }
+}
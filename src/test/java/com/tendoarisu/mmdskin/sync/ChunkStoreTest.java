@@ -0,0 +1,65 @@
+package com.tendoarisu.mmdskin.sync;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ChunkStoreTest {
+    private final Path folder = LibraryIndexer.zoneDir("pmx").resolve("chunk-store-test");
+
+    @TempDir
+    Path outside;
+
+    @AfterEach
+    void cleanUp() throws IOException {
+        ChunkStore.clear();
+        if (Files.isDirectory(folder)) {
+            try (var stream = Files.list(folder)) {
+                for (Path file : stream.toList()) Files.delete(file);
+            }
+            Files.delete(folder);
+        }
+    }
+
+    private static Path write(Path file, long seed) throws IOException {
+        byte[] data = new byte[300 * 1024];
+        new Random(seed).nextBytes(data);
+        Files.createDirectories(file.getParent());
+        return Files.write(file, data);
+    }
+
+    @Test
+    void refusesFilesOutsideTheLibrary() throws IOException {
+        Path file = write(outside.resolve("server.properties"), 1);
+        assertThrows(IOException.class, () -> ChunkStore.recipe(file));
+        assertThrows(IOException.class, () -> ChunkStore.recipe(folder.resolve("..").resolve("..").resolve("..").resolve("server.properties")));
+        assertEquals(0, ChunkStore.size());
+    }
+
+    @Test
+    void forgetDropsRecipeAndChunkLocations() throws IOException {
+        Path file = write(folder.resolve("model.pmx"), 2);
+        Path other = write(folder.resolve("other.pmx"), 3);
+        ChunkStore.Recipe recipe = ChunkStore.recipe(file);
+        ChunkStore.Recipe otherRecipe = ChunkStore.recipe(other);
+        assertEquals(2, ChunkStore.size());
+        String id = recipe.chunks().get(0).id();
+        assertEquals(file, ChunkStore.locate(id).file());
+
+        ChunkStore.forget(List.of(file));
+        assertEquals(1, ChunkStore.size());
+        assertNull(ChunkStore.locate(id));
+        assertNotNull(ChunkStore.locate(otherRecipe.chunks().get(0).id()));
+    }
+}
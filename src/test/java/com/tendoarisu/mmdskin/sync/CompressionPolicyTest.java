@@ -0,0 +1,132 @@
+package com.tendoarisu.mmdskin.sync;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CompressionPolicyTest {
+    private final boolean gzip = Config.ENABLE_GZIP;
+
+    @TempDir
+    Path base;
+
+    @AfterEach
+    void restore() {
+        Config.ENABLE_GZIP = gzip;
+    }
+
+    private Path write(String name, byte[] data) throws IOException {
+        return Files.write(base.resolve(name), data);
+    }
+
+    private static byte[] random(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    @Test
+    void choosesPolicyByExtension() throws IOException {
+        Config.ENABLE_GZIP = true;
+        // 扩展名已知时不读取内容，即使内容与扩展名不符
+        assertEquals(CompressionPolicy.Policy.STORED_FORMAT, CompressionPolicy.decide(write("tex.png", new byte[1024])));
+        assertEquals(CompressionPolicy.Policy.STORED_FORMAT, CompressionPolicy.decide(write("TEX.JPG", new byte[1024])));
+        assertEquals(CompressionPolicy.Policy.DEFLATE_BEST, CompressionPolicy.decide(write("readme.txt", random(1024))));
+        assertEquals(CompressionPolicy.Policy.DEFLATE_BEST, CompressionPolicy.decide(write("effect.fx", random(1024))));
+        assertEquals(CompressionPolicy.Policy.DEFLATE_DEFAULT, CompressionPolicy.decide(write("model.pmx", random(1024))));
+        assertEquals(CompressionPolicy.Policy.DEFLATE_DEFAULT, CompressionPolicy.decide(write("motion.VMD", random(1024))));
+        assertEquals(CompressionPolicy.Policy.DEFLATE_FAST, CompressionPolicy.decide(write("toon.bmp", random(1024))));
+        assertEquals(CompressionPolicy.Policy.DEFLATE_FAST, CompressionPolicy.decide(write("voice.wav", random(1024))));
+    }
+
+    @Test
+    void samplesEntropyForUnknownFormats() throws IOException {
+        Config.ENABLE_GZIP = true;
+        assertEquals(CompressionPolicy.Policy.STORED_ENTROPY, CompressionPolicy.decide(write("data.bin", random(128 * 1024))));
+        assertEquals(CompressionPolicy.Policy.DEFLATE_DEFAULT, CompressionPolicy.decide(write("data.dat", new byte[128 * 1024])));
+        assertEquals(CompressionPolicy.Policy.DEFLATE_DEFAULT, CompressionPolicy.decide(write("noext", "hello".repeat(1000).getBytes(StandardCharsets.US_ASCII))));
+        assertEquals(CompressionPolicy.Policy.DEFLATE_DEFAULT, CompressionPolicy.decide(write("empty.bin", new byte[0])));
+    }
+
+    @Test
+    void sampleEntropyMeasuresBitsPerByte() throws IOException {
+        assertEquals(0, CompressionPolicy.sampleEntropy(write("zeros", new byte[4096])), 1e-9);
+        byte[] twoSymbols = new byte[4096];
+        for (int i = 0; i < twoSymbols.length; i += 2) twoSymbols[i] = 1;
+        assertEquals(1, CompressionPolicy.sampleEntropy(write("two", twoSymbols)), 1e-9);
+        byte[] all = new byte[256 * 16];
+        for (int i = 0; i < all.length; i++) all[i] = (byte) i;
+        assertEquals(8, CompressionPolicy.sampleEntropy(write("all", all)), 1e-9);
+        assertEquals(0, CompressionPolicy.sampleEntropy(base.resolve("missing")), 1e-9);
+    }
+
+    @Test
+    void storesEverythingWhenDisabled() throws IOException {
+        Config.ENABLE_GZIP = false;
+        for (String name : new String[]{"readme.txt", "model.pmx", "toon.bmp", "tex.png", "data.bin"}) {
+            assertEquals(CompressionPolicy.Policy.STORED_DISABLED, CompressionPolicy.decide(write(name, new byte[1024])), name);
+        }
+    }
+
+    @Test
+    void folderZipUsesChosenMethods() throws IOException {
+        Config.ENABLE_GZIP = true;
+        Path folder = Files.createDirectory(base.resolve("m"));
+        Map<String, byte[]> contents = new HashMap<>();
+        contents.put("model.pmx", new byte[64 * 1024]);
+        contents.put("tex.png", random(32 * 1024));
+        contents.put("data.bin", random(16 * 1024));
+        for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+            Files.write(folder.resolve(entry.getKey()), entry.getValue());
+        }
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(bos)) {
+            EmbeddedServer.writeFolderZip(folder, zos);
+        }
+
+        Map<String, Integer> methods = new HashMap<>();
+        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(bos.toByteArray()))) {
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                assertArrayEquals(contents.get(entry.getName()), zis.readAllBytes(), entry.getName());
+                methods.put(entry.getName(), entry.getMethod());
+            }
+        }
+        assertEquals(Map.of("model.pmx", ZipEntry.DEFLATED, "tex.png", ZipEntry.STORED, "data.bin", ZipEntry.STORED), methods);
+    }
+
+    @Test
+    void gzipJsonRoundTripsAndRecordsStats() throws IOException {
+        CompressionPolicy.Stats stats = CompressionPolicy.stats().get(CompressionPolicy.Policy.GZIP_JSON);
+        long entries = stats.entries();
+        long input = stats.inputBytes();
+        byte[] json = "{\"folders\":[]}".repeat(200).getBytes(StandardCharsets.UTF_8);
+
+        byte[] gzipped = CompressionPolicy.gzipJson(json);
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped))) {
+            assertArrayEquals(json, in.readAllBytes());
+        }
+        assertTrue(gzipped.length < json.length);
+        assertEquals(entries + 1, stats.entries());
+        assertEquals(input + json.length, stats.inputBytes());
+    }
+}
@@ -0,0 +1,119 @@
+package com.tendoarisu.mmdskin.sync;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ContentChunkerTest {
+    private static byte[] random(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private static List<ContentChunker.Chunk> split(byte[] data) throws IOException {
+        return ContentChunker.split(new ByteArrayInputStream(data));
+    }
+
+    private static String id(byte[] data, long offset, int length) {
+        XXHash64 hasher = new XXHash64(0);
+        hasher.update(data, (int) offset, length);
+        return Hex.encode(hasher.digest());
+    }
+
+    // 检查块首尾相接覆盖全部数据、大小在上下限之间、id 为块内容的 xxh64
+    private static void assertCovers(byte[] data, List<ContentChunker.Chunk> chunks) {
+        long offset = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            ContentChunker.Chunk chunk = chunks.get(i);
+            assertEquals(offset, chunk.offset());
+            assertTrue(chunk.length() <= ContentChunker.MAX_SIZE, "chunk " + i + " too large: " + chunk.length());
+            if (i < chunks.size() - 1) {
+                assertTrue(chunk.length() > ContentChunker.MIN_SIZE, "chunk " + i + " too small: " + chunk.length());
+            }
+            assertEquals(id(data, chunk.offset(), chunk.length()), chunk.id());
+            offset += chunk.length();
+        }
+        assertEquals(data.length, offset);
+    }
+
+    @Test
+    void smallInputsAreSingleChunks() throws IOException {
+        assertTrue(split(new byte[0]).isEmpty());
+
+        byte[] data = random(ContentChunker.MIN_SIZE, 1);
+        List<ContentChunker.Chunk> chunks = split(data);
+        assertEquals(1, chunks.size());
+        assertCovers(data, chunks);
+    }
+
+    @Test
+    void chunksStayWithinBoundsAndCoverTheInput() throws IOException {
+        byte[] data = random(4 * 1024 * 1024 + 123, 2);
+        List<ContentChunker.Chunk> chunks = split(data);
+        assertCovers(data, chunks);
+        // 平均大小附近，而不是全部切在上下限
+        assertTrue(chunks.size() > data.length / ContentChunker.MAX_SIZE, "chunks: " + chunks.size());
+        assertTrue(chunks.size() < data.length / ContentChunker.MIN_SIZE, "chunks: " + chunks.size());
+
+        // 没有切分点的数据在最大块处强制切分
+        byte[] zeros = new byte[ContentChunker.MAX_SIZE * 3 + 10];
+        assertCovers(zeros, split(zeros));
+    }
+
+    @Test
+    void resultDoesNotDependOnReadSizes() throws IOException {
+        byte[] data = random(1024 * 1024, 3);
+        List<ContentChunker.Chunk> expected = split(data);
+        assertEquals(expected, split(data));
+
+        // 每次只返回少量数据的流
+        Random sizes = new Random(4);
+        InputStream trickle = new FilterInputStream(new ByteArrayInputStream(data)) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(len, 1 + sizes.nextInt(5000)));
+            }
+        };
+        assertEquals(expected, ContentChunker.split(trickle));
+    }
+
+    @Test
+    void insertionOnlyChangesNearbyChunks() throws IOException {
+        byte[] data = random(4 * 1024 * 1024, 5);
+        int at = 2 * 1024 * 1024 + 777;
+        byte[] inserted = random(100, 6);
+        byte[] modified = new byte[data.length + inserted.length];
+        System.arraycopy(data, 0, modified, 0, at);
+        System.arraycopy(inserted, 0, modified, at, inserted.length);
+        System.arraycopy(data, at, modified, at + inserted.length, data.length - at);
+
+        List<ContentChunker.Chunk> before = split(data);
+        List<ContentChunker.Chunk> after = split(modified);
+        assertCovers(modified, after);
+
+        Set<String> afterIds = new HashSet<>();
+        after.forEach(chunk -> afterIds.add(chunk.id()));
+        int changed = 0;
+        for (ContentChunker.Chunk chunk : before) {
+            if (chunk.offset() + chunk.length() <= at) {
+                // 插入点之前的块完全相同
+                assertTrue(afterIds.contains(chunk.id()), "chunk at " + chunk.offset());
+            } else if (!afterIds.contains(chunk.id())) {
+                changed++;
+            }
+        }
+        // 切分点在插入点之后很快重新对齐
+        assertTrue(changed <= 2, "changed chunks: " + changed);
+    }
+}
@@ -0,0 +1,83 @@
+package com.tendoarisu.mmdskin.sync;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EmbeddedServerTest {
+    @TempDir
+    Path base;
+
+    @Test
+    void uploadTargetKeepsDirectoryStructure() {
+        assertEquals(base.resolve("d_Miku").resolve("tex").resolve("skin.png"),
+                EmbeddedServer.UploadHandler.uploadTarget(base, "d", "Miku/tex/skin.png"));
+        assertEquals(base.resolve("d_Miku").resolve("skin.png"),
+                EmbeddedServer.UploadHandler.uploadTarget(base, "d", "Miku\\tex\\..\\skin.png"));
+    }
+
+    @Test
+    void uploadTargetWrapsSingleFiles() throws IOException {
+        assertEquals(base.resolve("d_miku").resolve("miku.pmx"), EmbeddedServer.UploadHandler.uploadTarget(base, "d", "miku.pmx"));
+
+        Files.createDirectory(base.resolve("d_miku"));
+        Path renamed = EmbeddedServer.UploadHandler.uploadTarget(base, "d", "miku.pmx");
+        assertTrue(renamed.getParent().getFileName().toString().matches("d_miku_[0-9a-f]{1,4}"), renamed.toString());
+        assertEquals(base, renamed.getParent().getParent());
+    }
+
+    @Test
+    void uploadTargetRejectsPathsLeavingTheZone() {
+        for (String name : new String[]{"X/../../../mods/evil.jar", "X/../../evil.jar", "X\\..\\..\\evil.jar", "X/..", "..", "bad\0name"}) {
+            assertNull(EmbeddedServer.UploadHandler.uploadTarget(base, "d", name), name);
+        }
+    }
+
+    @Test
+    void parseRangeHandlesSingleRanges() {
+        assertArrayEquals(new long[]{0, 99}, EmbeddedServer.parseRange("bytes=0-", 100));
+        assertArrayEquals(new long[]{10, 19}, EmbeddedServer.parseRange("bytes=10-19", 100));
+        assertArrayEquals(new long[]{50, 99}, EmbeddedServer.parseRange("bytes=50-", 100));
+        // 末尾超出文件大小时截断
+        assertArrayEquals(new long[]{90, 99}, EmbeddedServer.parseRange("bytes=90-500", 100));
+        assertArrayEquals(new long[]{80, 99}, EmbeddedServer.parseRange("bytes=-20", 100));
+        assertArrayEquals(new long[]{0, 99}, EmbeddedServer.parseRange("bytes=-500", 100));
+    }
+
+    @Test
+    void parseRangeRejectsUnsatisfiableRanges() {
+        assertNull(EmbeddedServer.parseRange("bytes=100-", 100));
+        assertNull(EmbeddedServer.parseRange("bytes=150-200", 100));
+        assertNull(EmbeddedServer.parseRange("bytes=20-10", 100));
+        assertNull(EmbeddedServer.parseRange("bytes=-0", 100));
+    }
+
+    @Test
+    void parseRangeIgnoresUnsupportedForms() {
+        // 多段范围、其它单位与格式错误的头按规范忽略，发送整个文件
+        assertArrayEquals(new long[]{0, 99}, EmbeddedServer.parseRange("bytes=0-9,20-29", 100));
+        assertArrayEquals(new long[]{0, 99}, EmbeddedServer.parseRange("items=0-9", 100));
+        assertArrayEquals(new long[]{0, 99}, EmbeddedServer.parseRange("bytes=10", 100));
+        assertArrayEquals(new long[]{0, 99}, EmbeddedServer.parseRange("bytes=a-b", 100));
+    }
+
+    @Test
+    void ifRangeMismatchSendsWholeFile() {
+        String etag = "\"abc\"";
+        assertArrayEquals(new long[]{0, 99}, EmbeddedServer.requestedRange(null, null, etag, 100));
+        assertArrayEquals(new long[]{10, 99}, EmbeddedServer.requestedRange("bytes=10-", null, etag, 100));
+        assertArrayEquals(new long[]{10, 99}, EmbeddedServer.requestedRange("bytes=10-", etag, etag, 100));
+        assertArrayEquals(new long[]{0, 99}, EmbeddedServer.requestedRange("bytes=10-", "\"old\"", etag, 100));
+        // If-Range 不匹配时即使范围无法满足也应返回完整文件而不是 416
+        assertArrayEquals(new long[]{0, 99}, EmbeddedServer.requestedRange("bytes=500-", "\"old\"", etag, 100));
+        assertNull(EmbeddedServer.requestedRange("bytes=500-", etag, etag, 100));
+    }
+}
@@ -0,0 +1,119 @@
+package com.tendoarisu.mmdskin.sync;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * 文件哈希基准：旧版 getFileMD5（MessageDigest + 逐字节 String.format）与 HashAlgorithm 的 MD5 / xxh64 对比
+ * 不是单元测试，直接运行 main：参数依次为大文件大小（MB，默认 256）与小文件数量（默认 20000）
+ * 每项先预热一轮，再取 5 轮中最快的一轮；文件在第一轮后位于页缓存中，测得的是哈希与编码本身的开销
+ *
+ * 参考结果（JDK 21，1 核，文件位于页缓存）：
+ * <pre>
+ * 256 MB 文件:        旧版 MD5 439 MB/s，MD5 449 MB/s，xxh64 3425 MB/s
+ * 20000 个 4 字节文件: 旧版 MD5 340 ms，MD5 + Hex 105 ms，xxh64 + Hex 96 ms
+ * 100 万个摘要编码:    String.format 6334 ms，Hex 39 ms
+ * </pre>
+ */
+public class HashBenchmark {
+    private static final int ROUNDS = 5;
+
+    private interface Run {
+        void run() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int bigMb = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int smallCount = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+
+        Path dir = Files.createTempDirectory("mmdsync-hash-bench");
+        try {
+            Path big = dir.resolve("big.bin");
+            writeRandom(big, bigMb * 1024L * 1024L);
+            Path[] small = new Path[smallCount];
+            Path smallDir = Files.createDirectory(dir.resolve("small"));
+            for (int i = 0; i < smallCount; i++) {
+                small[i] = Files.write(smallDir.resolve(i + ".txt"), new byte[]{(byte) i, (byte) (i >> 8), 1, 2});
+            }
+
+            System.out.printf("%d MB 文件:%n", bigMb);
+            throughput("旧版 MD5", bigMb, () -> legacyMd5(big));
+            throughput("MD5", bigMb, () -> HashAlgorithm.MD5.hashFile(big));
+            throughput("xxh64", bigMb, () -> HashAlgorithm.XXH64.hashFile(big));
+
+            System.out.printf("%d 个 4 字节文件:%n", smallCount);
+            elapsed("旧版 MD5", () -> { for (Path p : small) legacyMd5(p); });
+            elapsed("MD5 + Hex", () -> { for (Path p : small) HashAlgorithm.MD5.hashFile(p); });
+            elapsed("xxh64 + Hex", () -> { for (Path p : small) HashAlgorithm.XXH64.hashFile(p); });
+
+            byte[][] digests = new byte[1_000_000][16];
+            Random random = new Random(1);
+            for (byte[] digest : digests) random.nextBytes(digest);
+            System.out.println("100 万个摘要编码:");
+            elapsed("String.format", () -> { for (byte[] d : digests) formatHex(d); });
+            elapsed("Hex", () -> { for (byte[] d : digests) Hex.encode(d); });
+        } finally {
+            try (Stream<Path> stream = Files.walk(dir)) {
+                for (Path p : stream.sorted(Comparator.reverseOrder()).toList()) Files.delete(p);
+            }
+        }
+    }
+
+    private static void throughput(String name, int mb, Run run) throws Exception {
+        long nanos = best(run);
+        System.out.printf("  %-14s %8.0f MB/s%n", name, mb / (nanos / 1e9));
+    }
+
+    private static void elapsed(String name, Run run) throws Exception {
+        long nanos = best(run);
+        System.out.printf("  %-14s %8d ms%n", name, nanos / 1_000_000);
+    }
+
+    private static long best(Run run) throws Exception {
+        run.run();
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            run.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    private static void writeRandom(Path file, long size) throws IOException {
+        byte[] block = new byte[1024 * 1024];
+        new Random(42).nextBytes(block);
+        try (var out = Files.newOutputStream(file)) {
+            for (long written = 0; written < size; written += block.length) {
+                out.write(block, 0, (int) Math.min(block.length, size - written));
+            }
+        }
+    }
+
+    // 与修改前的 EmbeddedServer.getFileMD5 / SyncManager.getFileMD5 相同
+    private static String legacyMd5(Path file) throws Exception {
+        try (InputStream fis = Files.newInputStream(file)) {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] buffer = new byte[65536];
+            int n;
+            while ((n = fis.read(buffer)) != -1) {
+                digest.update(buffer, 0, n);
+            }
+            return formatHex(digest.digest());
+        }
+    }
+
+    private static String formatHex(byte[] digest) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,90 @@
+package com.tendoarisu.mmdskin.sync;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.ref.Reference;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * 哈希缓存堆占用对比：修改前的 ConcurrentHashMap&lt;Path, CacheEntry&gt;（十六进制 String 摘要）与 HashCache
+ * 不是单元测试，直接运行 main：参数依次为文件夹数（默认 1000）与每个文件夹的文件数（默认 100），摘要为 16 字节（MD5）
+ * 路径与服务端相同，为游戏目录下的绝对路径；文件名在文件夹之间大量重复（model.pmx、toon01.bmp、tex/texture_10.png ...），与实际模型库一致
+ * 每个结构单独构建，构建前后多次 Full GC 后读取已用堆的差值
+ *
+ * 参考结果（JDK 21，默认 G1，100000 个条目）：
+ * <pre>
+ * ConcurrentHashMap&lt;Path, CacheEntry&gt;: 22.4 MB（234 B/条目）
+ * HashCache:                          10.4 MB（108 B/条目）
+ * </pre>
+ * HashCache 的大部分占用是按 2 的幂扩容的数组：10 万个条目占用 262144 个槽位，每个槽位 40 字节（键、大小、修改时间与摘要）
+ */
+public class HashCacheHeap {
+    private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+    private static final Path ROOT = Path.of("/srv/minecraft/3d-skin/EntityPlayer").toAbsolutePath();
+
+    // 修改前 EmbeddedServer 中的缓存条目
+    private record CacheEntry(String hash, long size, long lastModified) {}
+
+    public static void main(String[] args) {
+        int folders = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int filesPerFolder = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int entries = folders * filesPerFolder;
+
+        // 先各运行一次，类加载与 JIT 的开销不计入结果；驻留表为静态共用，预热的条目需要移除以释放驻留的名称
+        build(folders, filesPerFolder, true);
+        ((HashCache) build(folders, filesPerFolder, false)).removeIf(path -> true);
+
+        long legacy = measure(() -> build(folders, filesPerFolder, true));
+        long compact = measure(() -> build(folders, filesPerFolder, false));
+        System.out.printf("%d 个条目（%d 个文件夹 x %d 个文件）:%n", entries, folders, filesPerFolder);
+        System.out.printf("  ConcurrentHashMap<Path, CacheEntry>: %.1f MB（%d B/条目）%n", legacy / 1048576.0, legacy / entries);
+        System.out.printf("  HashCache:                          %.1f MB（%d B/条目）%n", compact / 1048576.0, compact / entries);
+    }
+
+    private static Object build(int folders, int filesPerFolder, boolean legacy) {
+        Map<Path, CacheEntry> map = legacy ? new ConcurrentHashMap<>() : null;
+        HashCache cache = legacy ? null : new HashCache(16);
+        Random random = new Random(1);
+        byte[] digest = new byte[16];
+        for (int f = 0; f < folders; f++) {
+            Path folder = ROOT.resolve("model_" + f);
+            for (int i = 0; i < filesPerFolder; i++) {
+                Path file = folder.resolve(fileName(i));
+                random.nextBytes(digest);
+                long size = 1000 + random.nextInt(1 << 20);
+                long lastModified = 1_700_000_000_000L + random.nextInt(1 << 30);
+                if (legacy) {
+                    map.put(file, new CacheEntry(Hex.encode(digest), size, lastModified));
+                } else {
+                    cache.put(file, size, lastModified, digest);
+                }
+            }
+        }
+        return legacy ? map : cache;
+    }
+
+    private static String fileName(int i) {
+        if (i == 0) return "model.pmx";
+        if (i < 10) return "toon0" + i + ".bmp";
+        return "tex/texture_" + i + ".png";
+    }
+
+    private static long measure(Supplier<Object> builder) {
+        long before = usedAfterGc();
+        Object built = builder.get();
+        long after = usedAfterGc();
+        Reference.reachabilityFence(built);
+        return after - before;
+    }
+
+    private static long usedAfterGc() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return MEMORY.getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,131 @@
+package com.tendoarisu.mmdskin.sync;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HashCacheTest {
+    private static byte[] digest(int seed) {
+        byte[] digest = new byte[8];
+        for (int i = 0; i < digest.length; i++) {
+            digest[i] = (byte) (seed >>> (i % 4 * 8));
+        }
+        return digest;
+    }
+
+    private static Path path(String prefix, int i) {
+        return Path.of(prefix, "folder" + (i % 37), "file" + i + ".png");
+    }
+
+    @Test
+    void getChecksSizeAndLastModified() {
+        HashCache cache = new HashCache(8);
+        Path path = Path.of("cache-test", "a", "b.pmx");
+        cache.put(path, 10, 100, digest(1));
+
+        assertArrayEquals(digest(1), cache.get(path, 10, 100));
+        assertNull(cache.get(path, 11, 100));
+        assertNull(cache.get(path, 10, 101));
+        assertNull(cache.get(Path.of("cache-test", "a", "c.pmx"), 10, 100));
+
+        // 覆盖已有条目不增加数量
+        cache.put(path, 12, 102, digest(2));
+        assertEquals(1, cache.size());
+        assertArrayEquals(digest(2), cache.get(path, 12, 102));
+
+        // 摘要长度不符的写入被忽略
+        cache.put(path, 13, 103, new byte[16]);
+        assertArrayEquals(digest(2), cache.get(path, 12, 102));
+        assertTrue(cache.remove(path));
+        assertFalse(cache.remove(path));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void legacyEntryWithoutSizeMatchesAnySize() {
+        HashCache cache = new HashCache(8);
+        Path path = Path.of("cache-test-legacy", "model.pmx");
+        cache.put(path, -1, 100, digest(3));
+        assertArrayEquals(digest(3), cache.get(path, 12345, 100));
+        assertNull(cache.get(path, 12345, 101));
+        cache.remove(path);
+    }
+
+    @Test
+    void survivesResizeAndRandomRemovals() {
+        HashCache cache = new HashCache(8);
+        Map<Path, Integer> expected = new HashMap<>();
+        // 远超初始容量，经历多次扩容
+        for (int i = 0; i < 5000; i++) {
+            cache.put(path("cache-test-resize", i), i, i, digest(i));
+            expected.put(path("cache-test-resize", i), i);
+        }
+        assertEquals(5000, cache.size());
+
+        // 随机删除一半，回移删除后剩余条目必须仍能找到
+        Random random = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            if (random.nextBoolean()) {
+                assertTrue(cache.remove(path("cache-test-resize", i)));
+                expected.remove(path("cache-test-resize", i));
+            }
+        }
+        List<Path> removed = cache.removeIf(p -> p.getFileName().toString().endsWith("7.png"));
+        expected.keySet().removeIf(p -> p.getFileName().toString().endsWith("7.png"));
+        assertFalse(removed.isEmpty());
+        assertTrue(removed.stream().allMatch(p -> p.getFileName().toString().endsWith("7.png")));
+
+        assertEquals(expected.size(), cache.size());
+        for (int i = 0; i < 5000; i++) {
+            Path path = path("cache-test-resize", i);
+            byte[] found = cache.get(path, i, i);
+            if (expected.containsKey(path)) {
+                assertArrayEquals(digest(i), found, path.toString());
+            } else {
+                assertNull(found, path.toString());
+            }
+        }
+
+        Map<Path, Long> visited = new HashMap<>();
+        cache.forEach((path, size, lastModified, digest) -> visited.put(path, size));
+        assertEquals(expected.size(), visited.size());
+        expected.forEach((path, i) -> assertEquals((long) i, visited.get(path)));
+
+        cache.removeIf(p -> true);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void releasesInternedNamesWithTheirEntries() {
+        int before = HashCache.internedCount();
+        HashCache md5 = new HashCache(16);
+        HashCache xxh64 = new HashCache(8);
+        for (int i = 0; i < 200; i++) {
+            md5.put(path("cache-test-intern", i), i, i, new byte[16]);
+            xxh64.put(path("cache-test-intern", i), i, i, digest(i));
+        }
+        // 37 个目录、200 个文件名，两个实例共用
+        assertEquals(before + 237, HashCache.internedCount());
+
+        // 只从一个实例中移除时，另一个实例仍在使用
+        md5.removeIf(p -> true);
+        assertEquals(before + 237, HashCache.internedCount());
+        assertArrayEquals(digest(5), xxh64.get(path("cache-test-intern", 5), 5, 5));
+
+        for (int i = 0; i < 200; i++) {
+            xxh64.remove(path("cache-test-intern", i));
+        }
+        assertEquals(before, HashCache.internedCount());
+        assertNull(xxh64.get(path("cache-test-intern", 5), 5, 5));
+    }
+}
@@ -0,0 +1,186 @@
+package com.tendoarisu.mmdskin.sync;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HashJournalTest {
+    @TempDir
+    Path dir;
+
+    /**
+     * 回放结果，键为 "算法:路径"
+     */
+    private static final class Replayed implements HashJournal.Visitor {
+        final Map<String, HashJournal.Entry> entries = new HashMap<>();
+
+        @Override
+        public void put(Path path, HashAlgorithm algo, long size, long lastModified, byte[] digest) {
+            entries.put(algo.id() + ":" + path, new HashJournal.Entry(path, algo, size, lastModified, digest));
+        }
+
+        @Override
+        public void remove(Path path, HashAlgorithm algo) {
+            entries.remove(algo.id() + ":" + path);
+        }
+    }
+
+    private static byte[] digest(int seed, int length) {
+        byte[] digest = new byte[length];
+        for (int i = 0; i < length; i++) {
+            digest[i] = (byte) (seed * 31 + i);
+        }
+        return digest;
+    }
+
+    private Replayed reopen(Path file) throws IOException {
+        Replayed replayed = new Replayed();
+        HashJournal journal = new HashJournal(file);
+        journal.open(replayed);
+        journal.close();
+        return replayed;
+    }
+
+    @Test
+    void replaysPutsAndRemoves() throws IOException {
+        Path file = dir.resolve("journal.bin");
+        HashJournal journal = new HashJournal(file);
+        journal.open(new Replayed());
+        journal.put(Path.of("a", "model.pmx"), HashAlgorithm.XXH64, 10, 100, digest(1, 8));
+        journal.put(Path.of("a", "b.png"), HashAlgorithm.MD5, 20, 200, digest(2, 16));
+        journal.put(Path.of("a", "b.png"), HashAlgorithm.XXH64, 20, 200, digest(3, 8));
+        journal.remove(Path.of("a", "b.png"), HashAlgorithm.MD5);
+        // 同一文件的新记录覆盖旧记录
+        journal.put(Path.of("a", "model.pmx"), HashAlgorithm.XXH64, 11, 101, digest(4, 8));
+        assertEquals(5, journal.records());
+        journal.close();
+
+        Replayed replayed = reopen(file);
+        assertEquals(2, replayed.entries.size());
+        HashJournal.Entry model = replayed.entries.get("xxh64:" + Path.of("a", "model.pmx"));
+        assertEquals(11, model.size());
+        assertEquals(101, model.lastModified());
+        assertArrayEquals(digest(4, 8), model.digest());
+        assertArrayEquals(digest(3, 8), replayed.entries.get("xxh64:" + Path.of("a", "b.png")).digest());
+        assertFalse(replayed.entries.containsKey("md5:" + Path.of("a", "b.png")));
+    }
+
+    @Test
+    void dropsTornTailAndKeepsAppending() throws IOException {
+        Path file = dir.resolve("journal.bin");
+        HashJournal journal = new HashJournal(file);
+        journal.open(new Replayed());
+        journal.put(Path.of("x"), HashAlgorithm.XXH64, 1, 1, digest(1, 8));
+        journal.put(Path.of("y"), HashAlgorithm.XXH64, 2, 2, digest(2, 8));
+        journal.close();
+
+        // 模拟写入最后一条记录时崩溃
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        Replayed replayed = new Replayed();
+        journal = new HashJournal(file);
+        journal.open(replayed);
+        assertEquals(1, journal.records());
+        assertEquals(List.of("xxh64:x"), List.copyOf(replayed.entries.keySet()));
+        journal.put(Path.of("z"), HashAlgorithm.XXH64, 3, 3, digest(3, 8));
+        journal.close();
+
+        assertEquals(Map.of("xxh64:x", 1L, "xxh64:z", 3L), sizes(reopen(file)));
+    }
+
+    @Test
+    void corruptHeaderStartsOver() throws IOException {
+        Path file = dir.resolve("journal.bin");
+        Files.write(file, new byte[]{'N', 'O', 'P', 'E', 1, 0, 0, 0});
+        Replayed replayed = new Replayed();
+        HashJournal journal = new HashJournal(file);
+        journal.open(replayed);
+        assertTrue(replayed.entries.isEmpty());
+        journal.put(Path.of("x"), HashAlgorithm.MD5, 1, 1, digest(1, 16));
+        journal.close();
+
+        assertEquals(Map.of("md5:x", 1L), sizes(reopen(file)));
+    }
+
+    @Test
+    void compactionKeepsOnlyLiveEntries() throws IOException {
+        Path file = dir.resolve("journal.bin");
+        HashJournal journal = new HashJournal(file);
+        journal.open(new Replayed());
+        for (int i = 0; i < 100; i++) {
+            journal.put(Path.of("f" + (i % 10)), HashAlgorithm.XXH64, i, i, digest(i, 8));
+        }
+        long before = Files.size(file);
+
+        journal.compact(() -> List.of(
+                new HashJournal.Entry(Path.of("f1"), HashAlgorithm.XXH64, 91, 91, digest(91, 8)),
+                new HashJournal.Entry(Path.of("f2"), HashAlgorithm.XXH64, 92, 92, digest(92, 8))));
+        assertEquals(2, journal.records());
+        assertTrue(Files.size(file) < before);
+        assertFalse(Files.exists(file.resolveSibling(file.getFileName() + ".tmp")));
+
+        // 压缩后继续追加到新文件
+        journal.put(Path.of("f3"), HashAlgorithm.XXH64, 93, 93, digest(93, 8));
+        journal.close();
+
+        assertEquals(Map.of("xxh64:f1", 91L, "xxh64:f2", 92L, "xxh64:f3", 93L), sizes(reopen(file)));
+    }
+
+    @Test
+    void putDuringCompactionSnapshotIsNotLost() throws Exception {
+        Path file = dir.resolve("journal.bin");
+        HashJournal journal = new HashJournal(file);
+        journal.open(new Replayed());
+        journal.put(Path.of("old"), HashAlgorithm.XXH64, 1, 1, digest(1, 8));
+
+        CountDownLatch snapshotTaken = new CountDownLatch(1);
+        Thread writer = new Thread(() -> {
+            try {
+                snapshotTaken.await();
+                journal.put(Path.of("new"), HashAlgorithm.XXH64, 2, 2, digest(2, 8));
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        writer.start();
+
+        journal.compact(() -> {
+            // 快照之后、替换文件之前到达的写入
+            snapshotTaken.countDown();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return List.of(new HashJournal.Entry(Path.of("old"), HashAlgorithm.XXH64, 1, 1, digest(1, 8)));
+        });
+        writer.join(TimeUnit.SECONDS.toMillis(10));
+        assertFalse(writer.isAlive());
+        journal.close();
+
+        assertEquals(Map.of("xxh64:old", 1L, "xxh64:new", 2L), sizes(reopen(file)));
+    }
+
+    private static Map<String, Long> sizes(Replayed replayed) {
+        Map<String, Long> sizes = new HashMap<>();
+        replayed.entries.forEach((key, entry) -> sizes.put(key, entry.size()));
+        return sizes;
+    }
+}
@@ -0,0 +1,104 @@
+package com.tendoarisu.mmdskin.sync;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LibraryChangeLogTest {
+    private long epoch;
+
+    @BeforeEach
+    void reset() {
+        LibraryChangeLog.reset();
+        epoch = LibraryChangeLog.position().epoch();
+    }
+
+    @Test
+    void returnsChangesAfterVersion() {
+        LibraryChangeLog.record("pmx", "a", "01");
+        LibraryChangeLog.record("pmx", "b", "02");
+        LibraryChangeLog.record("vmd", "a", "03");
+
+        LibraryChangeLog.Delta delta = LibraryChangeLog.since(epoch, 1);
+        assertNotNull(delta);
+        assertEquals(1, delta.fromVersion());
+        assertEquals(3, delta.toVersion());
+        assertEquals(List.of("pmx/b", "vmd/a"), keys(delta));
+    }
+
+    @Test
+    void upToDateClientGetsEmptyDelta() {
+        LibraryChangeLog.record("pmx", "a", "01");
+        LibraryChangeLog.Delta delta = LibraryChangeLog.since(epoch, 1);
+        assertNotNull(delta);
+        assertTrue(delta.changes().isEmpty());
+
+        // 新 epoch 尚无变更时，版本 0 也是最新的
+        LibraryChangeLog.reset();
+        delta = LibraryChangeLog.since(LibraryChangeLog.position().epoch(), 0);
+        assertNotNull(delta);
+        assertTrue(delta.changes().isEmpty());
+    }
+
+    @Test
+    void keepsOnlyLatestChangePerFolder() {
+        LibraryChangeLog.record("pmx", "a", "01");
+        LibraryChangeLog.record("pmx", "b", "02");
+        LibraryChangeLog.record("pmx", "a", "03");
+        LibraryChangeLog.record("pmx", "b", null);
+
+        LibraryChangeLog.Delta delta = LibraryChangeLog.since(epoch, 0);
+        assertNotNull(delta);
+        // 按最后一次变更的顺序排列，删除以 null 哈希表示
+        assertEquals(List.of("pmx/a", "pmx/b"), keys(delta));
+        assertEquals("03", delta.changes().get(0).hash());
+        assertNull(delta.changes().get(1).hash());
+        assertEquals(3, delta.changes().get(0).version());
+    }
+
+    @Test
+    void gapAfterTrimmingRequiresFullManifest() {
+        int total = 4096 + 10;
+        for (int i = 1; i <= total; i++) {
+            LibraryChangeLog.record("pmx", "m" + i, "00");
+        }
+        // 只保留最近 4096 条，最早一条是版本 11，从版本 10 起仍可衔接，更早的不行
+        assertNull(LibraryChangeLog.since(epoch, 0));
+        assertNull(LibraryChangeLog.since(epoch, 9));
+        LibraryChangeLog.Delta delta = LibraryChangeLog.since(epoch, 10);
+        assertNotNull(delta);
+        assertEquals(4096, delta.changes().size());
+        assertEquals("pmx/m11", keys(delta).get(0));
+    }
+
+    @Test
+    void versionAheadOfServerRequiresFullManifest() {
+        LibraryChangeLog.record("pmx", "a", "01");
+        assertNull(LibraryChangeLog.since(epoch, 2));
+        assertNull(LibraryChangeLog.since(epoch, -1));
+    }
+
+    @Test
+    void otherEpochRequiresFullManifest() {
+        LibraryChangeLog.record("pmx", "a", "01");
+        assertNull(LibraryChangeLog.since(epoch + 1, 0));
+        assertNull(LibraryChangeLog.since(0, 0));
+
+        // 重启（新 epoch）后旧 epoch 的版本一律失效，即使版本号相同
+        LibraryChangeLog.reset();
+        assertNotEquals(epoch, LibraryChangeLog.position().epoch());
+        assertEquals(0, LibraryChangeLog.position().version());
+        assertNull(LibraryChangeLog.since(epoch, 0));
+    }
+
+    private static List<String> keys(LibraryChangeLog.Delta delta) {
+        return delta.changes().stream().map(c -> c.zone() + "/" + c.name()).toList();
+    }
+}
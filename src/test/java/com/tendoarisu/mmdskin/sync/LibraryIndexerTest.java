@@ -0,0 +1,25 @@
+package com.tendoarisu.mmdskin.sync;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class LibraryIndexerTest {
+    @Test
+    void folderDirAcceptsDirectChildrenOfAZone() {
+        assertEquals(LibraryIndexer.zoneDir("pmx").normalize().resolve("Miku"), LibraryIndexer.folderDir("pmx", "Miku"));
+        assertEquals(LibraryIndexer.zoneDir("vmd").normalize().resolve("a b+c"), LibraryIndexer.folderDir("vmd", "a b+c"));
+        assertEquals(LibraryIndexer.zoneDir("pmx").normalize().resolve("..x"), LibraryIndexer.folderDir("pmx", "..x"));
+    }
+
+    @Test
+    void folderDirRejectsUnknownZonesAndTraversal() {
+        assertNull(LibraryIndexer.folderDir("world", "Miku"));
+        assertNull(LibraryIndexer.folderDir("", "Miku"));
+        assertNull(LibraryIndexer.folderDir(null, "Miku"));
+        for (String name : new String[]{null, "", ".", "..", "../..", "../../world", "../vmd", "a/b", "a/..", "./", "/etc", "bad\0name"}) {
+            assertNull(LibraryIndexer.folderDir("pmx", name), String.valueOf(name));
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.tendoarisu.mmdskin.sync;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 慢速下载压力下的 /api/sync 延迟
+ * 不是单元测试，直接运行 main，需要一个已启动的内置服务器：
+ * 参数依次为服务器地址（默认 http://127.0.0.1:5077）、慢速下载数（默认 100）、每个下载的速率（KB/s，默认 32）与采样次数（默认 300）
+ * 预热后先在无负载时采样 /api/sync 延迟，再让所有慢速客户端循环下载 pmx 区域的文件夹（读取一次 4KB 后按速率休眠），
+ * 全部开始接收数据后再次采样；每次采样是一个完整的 /api/sync 请求（含读取响应体），两次采样间隔 20 ms
+ *
+ * 参考结果（JDK 21，服务器 -XX:ActiveProcessorCount=4，maxTransferThreads 默认 64，32 个文件夹含一个 39 MB 的文件夹，本机回环）：
+ * <pre>
+ * 无负载:              p50 5.1 ms  p90 10.1 ms  p99 18.7 ms  最大 28.7 ms
+ * 100 个慢速下载进行中: p50 3.4 ms  p90  9.9 ms  p99 22.4 ms  最大 32.7 ms（100 个下载都在接收，共 3.1 MB/s）
+ * 改为虚拟线程前（固定 4 个请求线程）: 100 个慢速下载进行中时 60 次请求全部超时（10 秒），只有 7 个下载在接收
+ * </pre>
+ */
+public class ManifestLatencyBenchmark {
+    private static final int READ_SIZE = 4096;
+    private static final long SAMPLE_INTERVAL_MS = 20;
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    public static void main(String[] args) throws Exception {
+        String baseUrl = args.length > 0 ? args[0] : "http://127.0.0.1:5077";
+        int downloads = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int rateKb = args.length > 2 ? Integer.parseInt(args[2]) : 32;
+        int samples = args.length > 3 ? Integer.parseInt(args[3]) : 300;
+
+        HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+        List<String> folders = pmxFolders(client, baseUrl);
+        if (folders.isEmpty()) throw new IllegalStateException("pmx 区域没有文件夹");
+
+        // 预热，服务端与本进程的 JIT 编译不计入无负载的结果
+        sample(client, baseUrl, 100);
+        report("无负载", sample(client, baseUrl, samples));
+
+        URI base = URI.create(baseUrl);
+        InetSocketAddress address = new InetSocketAddress(base.getHost(), base.getPort());
+        AtomicInteger receiving = new AtomicInteger();
+        AtomicLong received = new AtomicLong();
+        AtomicInteger completed = new AtomicInteger();
+        List<Thread> slow = new ArrayList<>();
+        for (int i = 0; i < downloads; i++) {
+            int first = i;
+            Thread thread = new Thread(() -> slowDownloads(address, folders, first, rateKb * 1024L, receiving, received, completed));
+            thread.setDaemon(true);
+            thread.start();
+            slow.add(thread);
+        }
+
+        // 等待所有下载开始接收数据；传输线程有上限时超出的下载在服务端排队，最多等待 30 秒
+        long deadline = System.nanoTime() + Duration.ofSeconds(30).toNanos();
+        while (receiving.get() < downloads && System.nanoTime() < deadline) {
+            Thread.sleep(100);
+        }
+        int receivingBefore = receiving.get();
+        long bytesBefore = received.get();
+        long start = System.nanoTime();
+        long[] loaded = sample(client, baseUrl, samples);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        report(String.format("%d 个慢速下载（采样开始时 %d 个正在接收，结束时 %d 个；期间下载 %.1f MB/s，完成 %d 个）",
+                downloads, receivingBefore, receiving.get(), (received.get() - bytesBefore) / seconds / 1048576.0, completed.get()), loaded);
+
+        for (Thread thread : slow) thread.interrupt();
+        System.exit(0);
+    }
+
+    private static List<String> pmxFolders(HttpClient client, String baseUrl) throws IOException, InterruptedException {
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(baseUrl + "/api/sync")).build(),
+                HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+        List<String> names = new ArrayList<>();
+        for (JsonElement folder : JsonParser.parseString(response.body()).getAsJsonObject().getAsJsonArray("pmx")) {
+            names.add(folder.getAsJsonObject().get("name").getAsString());
+        }
+        return names;
+    }
+
+    private static long[] sample(HttpClient client, String baseUrl, int samples) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/api/sync"))
+                .header(HashAlgorithm.HEADER, HashAlgorithm.XXH64.id())
+                .timeout(TIMEOUT)
+                .build();
+        long[] nanos = new long[samples];
+        for (int i = 0; i < samples; i++) {
+            long start = System.nanoTime();
+            try {
+                HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+                if (response.statusCode() != 200) throw new IOException("/api/sync 返回 " + response.statusCode());
+                nanos[i] = System.nanoTime() - start;
+            } catch (HttpTimeoutException e) {
+                // 超时的请求按超时时间计入，报告中单独列出次数
+                nanos[i] = TIMEOUT.toNanos();
+            }
+            Thread.sleep(SAMPLE_INTERVAL_MS);
+        }
+        return nanos;
+    }
+
+    private static void report(String label, long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        long timeouts = Arrays.stream(sorted).filter(n -> n >= TIMEOUT.toNanos()).count();
+        System.out.printf("%s:%n  /api/sync %d 次  p50 %.1f ms  p90 %.1f ms  p99 %.1f ms  最大 %.1f ms  超时 %d 次%n", label, sorted.length,
+                percentile(sorted, 0.50), percentile(sorted, 0.90), percentile(sorted, 0.99), sorted[sorted.length - 1] / 1e6, timeouts);
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1e6;
+    }
+
+    // 循环下载文件夹，按速率读取；接收缓冲区很小，服务端的发送很快就会阻塞在这个连接上
+    private static void slowDownloads(InetSocketAddress address, List<String> folders, int first, long bytesPerSecond,
+                                      AtomicInteger receiving, AtomicLong received, AtomicInteger completed) {
+        byte[] buffer = new byte[READ_SIZE];
+        for (int next = first; !Thread.currentThread().isInterrupted(); next++) {
+            String folder = folders.get(next % folders.size());
+            boolean counted = false;
+            try (Socket socket = new Socket()) {
+                socket.setReceiveBufferSize(READ_SIZE * 2);
+                socket.connect(address, 10_000);
+                OutputStream out = socket.getOutputStream();
+                String path = "/download/pmx/" + URLEncoder.encode(folder, StandardCharsets.UTF_8).replace("+", "%20");
+                out.write(("GET " + path + " HTTP/1.1\r\nHost: " + address.getHostString() + "\r\nConnection: close\r\n\r\n")
+                        .getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+
+                InputStream in = socket.getInputStream();
+                long start = System.nanoTime();
+                long total = 0;
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    if (!counted) {
+                        receiving.incrementAndGet();
+                        counted = true;
+                    }
+                    total += n;
+                    received.addAndGet(n);
+                    long aheadNanos = total * 1_000_000_000L / bytesPerSecond - (System.nanoTime() - start);
+                    if (aheadNanos > 0) Thread.sleep(aheadNanos / 1_000_000, (int) (aheadNanos % 1_000_000));
+                }
+                completed.incrementAndGet();
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                // 服务器关闭或连接被重置，稍后重试
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            } finally {
+                if (counted) receiving.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.tendoarisu.mmdskin.sync;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UploadIngestTest {
+    private static final String DATE = "20260101";
+
+    @TempDir
+    Path base;
+
+    @Test
+    void stripsCommonTopDirectories() {
+        Map<String, String> layout = UploadIngest.planLayout(List.of(
+                "Pack/", "Pack/Miku/", "Pack/Miku/miku.pmx", "Pack/Miku/tex/skin.png"), base, DATE, "miku.zip");
+
+        // 只含目录的外层全部剥离，只有目录条目本身的层级不需要解压
+        assertEquals(Map.of(
+                "Pack/Miku/miku.pmx", DATE + "_miku/miku.pmx",
+                "Pack/Miku/tex/skin.png", DATE + "_miku/tex/skin.png"), layout);
+    }
+
+    @Test
+    void wrapsMultipleRootsWithZipName() {
+        Map<String, String> layout = UploadIngest.planLayout(List.of(
+                "A/a.pmx", "B/b.pmx", "readme.txt"), base, DATE, "two.ZIP");
+
+        assertEquals(Map.of(
+                "A/a.pmx", DATE + "_two/A/a.pmx",
+                "B/b.pmx", DATE + "_two/B/b.pmx",
+                "readme.txt", DATE + "_two/readme.txt"), layout);
+    }
+
+    @Test
+    void wrapsSingleFile() {
+        Map<String, String> layout = UploadIngest.planLayout(List.of("model.pmx"), base, DATE, "single");
+        assertEquals(Map.of("model.pmx", DATE + "_single/model.pmx"), layout);
+    }
+
+    @Test
+    void renamesOnCollisionWithExistingFolder() throws IOException {
+        Files.createDirectory(base.resolve(DATE + "_miku"));
+        Map<String, String> layout = UploadIngest.planLayout(List.of(
+                "Miku/miku.pmx", "Miku/tex/skin.png"), base, DATE, "miku.zip");
+
+        String model = layout.get("Miku/miku.pmx");
+        String top = model.substring(0, model.indexOf('/'));
+        assertNotEquals(DATE + "_miku", top);
+        assertTrue(top.matches(DATE + "_miku_[0-9a-f]{1,4}"), top);
+        // 同一次上传的条目落在同一个文件夹
+        assertEquals(top + "/tex/skin.png", layout.get("Miku/tex/skin.png"));
+    }
+}
@@ -0,0 +1,85 @@
+package com.tendoarisu.mmdskin.sync;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 与 xxHash 参考实现（XXH64，seed 0）的已知结果比对，客户端与服务端的文件夹哈希都依赖这些结果一致
+ */
+class XXHash64Test {
+    private static String xxh64(byte[] data) {
+        XXHash64 hash = new XXHash64(0);
+        hash.update(data, 0, data.length);
+        return Hex.encode(hash.digest());
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] sequence(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) i;
+        }
+        return data;
+    }
+
+    @Test
+    void emptyInput() {
+        assertEquals("ef46db3751d8e999", xxh64(new byte[0]));
+    }
+
+    @Test
+    void shortInput() {
+        assertEquals("d24ec4f1a98c6e5b", xxh64(ascii("a")));
+        assertEquals("44bc2cf5ad770999", xxh64(ascii("abc")));
+    }
+
+    @Test
+    void inputLongerThanOneStripeWithTail() {
+        // 39 字节：一个 32 字节条带，之后依次是 4 字节与 3 个单字节的尾部
+        assertEquals("fbcea83c8a378bf1", xxh64(ascii("Nobody inspects the spammish repetition")));
+        // 100 字节：三个条带，尾部为 8 字节与 4 字节
+        assertEquals("6ac1e58032166597", xxh64(sequence(100)));
+    }
+
+    @Test
+    void seed() {
+        XXHash64 hash = new XXHash64(1);
+        assertEquals("d5afba1336a3be4b", Hex.encode(hash.digest()));
+    }
+
+    @Test
+    void streamingMatchesOneShot() {
+        byte[] data = sequence(100);
+        // 每次写入的长度不与 32 字节条带对齐，覆盖内部缓冲的拼接
+        for (int step : new int[]{1, 7, 31, 33}) {
+            XXHash64 hash = new XXHash64(0);
+            for (int offset = 0; offset < data.length; offset += step) {
+                hash.update(data, offset, Math.min(step, data.length - offset));
+            }
+            assertEquals("6ac1e58032166597", Hex.encode(hash.digest()), "step " + step);
+        }
+    }
+
+    @Test
+    void resetStartsOver() {
+        XXHash64 hash = new XXHash64(0);
+        byte[] data = ascii("abc");
+        hash.update(data, 0, data.length);
+        hash.reset();
+        assertEquals("ef46db3751d8e999", Hex.encode(hash.digest()));
+    }
+
+    @Test
+    void hashAlgorithmUsesSeedZero() {
+        HashAlgorithm.Hasher hasher = HashAlgorithm.XXH64.newHasher();
+        byte[] data = ascii("abc");
+        hasher.update(data, 0, data.length);
+        assertEquals("44bc2cf5ad770999", Hex.encode(hasher.digest()));
+    }
+}